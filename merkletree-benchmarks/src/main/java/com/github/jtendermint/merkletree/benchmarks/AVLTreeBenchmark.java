@@ -0,0 +1,189 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree.benchmarks;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.jtendermint.crypto.HashFunction;
+import com.github.jtendermint.merkletree.iavl.AVLTree;
+import com.github.jtendermint.merkletree.iavl.Hashing;
+import com.github.jtendermint.merkletree.iavl.IterateFunct.Loop;
+
+/**
+ * Benchmarks of {@link AVLTree}, the counterpart of {@link MerkleTreeBenchmark}. The AVLTree has no bulk load, so
+ * building the larger trees in the setup takes a while.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class AVLTreeBenchmark {
+
+    static final int BATCH = MerkleTreeBenchmark.BATCH;
+    static final int PROBES = MerkleTreeBenchmark.PROBES;
+
+    @State(Scope.Thread)
+    public static class TreeState {
+
+        @Param({ "LONG", "STRING" })
+        KeyType keyType;
+
+        @Param({ "RIPEMD160", "SHA256", "SHA512" })
+        Hasher hasher;
+
+        @Param({ "1000", "10000", "100000", "1000000", "10000000" })
+        int size;
+
+        AVLTree tree;
+
+        /**
+         * @return a tree of {@link #size} keys whose hash has been calculated
+         */
+        AVLTree newTree() {
+            HashFunction hashFunction = hasher.supplier().get();
+            AVLTree tree = new AVLTree(new Hashing<Comparable>() {
+                @Override
+                public byte[] hashBytes(byte[] byteArray) {
+                    return hashFunction.hashBytes(byteArray);
+                }
+
+                @Override
+                public byte[] hashBytes(Comparable k) {
+                    return hashBytes(keyType.toByteArray(k));
+                }
+            });
+            for (Iterator<Comparable> keys = Keys.existing(keyType::comparable, size); keys.hasNext();) {
+                tree.add(keys.next());
+            }
+            tree.getRootHash();
+            return tree;
+        }
+    }
+
+    public static class ReadState extends TreeState {
+
+        Comparable[] probes;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            tree = newTree();
+            probes = Keys.probes(keyType::comparable, Comparable[]::new, size, PROBES);
+        }
+
+        Comparable nextProbe() {
+            return probes[next++ & (PROBES - 1)];
+        }
+    }
+
+    public static class WriteState extends TreeState {
+
+        Comparable[] randomInserts;
+        Comparable[] sequentialInserts;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setupKeys() {
+            randomInserts = Keys.randomInserts(keyType::comparable, Comparable[]::new, size, BATCH);
+            sequentialInserts = Keys.sequentialInserts(keyType::comparable, Comparable[]::new, size, BATCH);
+        }
+
+        @Setup(Level.Iteration)
+        public void setupTree() {
+            tree = newTree();
+            next = 0;
+        }
+    }
+
+    @Benchmark
+    public boolean contains(ReadState state) {
+        return state.tree.contains(state.nextProbe());
+    }
+
+    @Benchmark
+    public Comparable get(ReadState state) {
+        return state.tree.get(state.nextProbe());
+    }
+
+    @Benchmark
+    public byte[] rootHashClean(ReadState state) {
+        return state.tree.getRootHash();
+    }
+
+    @Benchmark
+    public Loop iterateNodes(ReadState state, Blackhole blackhole) {
+        return state.tree.iterateNodes(node -> {
+            blackhole.consume(node);
+            return Loop.CONTINUE;
+        });
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    public boolean addRandom(WriteState state) {
+        return state.tree.add(state.randomInserts[state.next++]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    public boolean addSequential(WriteState state) {
+        return state.tree.add(state.sequentialInserts[state.next++]);
+    }
+
+    /**
+     * Adds a random key and rehashes, see {@link MerkleTreeBenchmark#rootHashDirty}
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 5, batchSize = BATCH)
+    @Measurement(iterations = 10, batchSize = BATCH)
+    public byte[] rootHashDirty(WriteState state) {
+        state.tree.add(state.randomInserts[state.next++]);
+        return state.tree.getRootHash();
+    }
+}
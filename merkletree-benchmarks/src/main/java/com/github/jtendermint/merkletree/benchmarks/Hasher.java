@@ -0,0 +1,72 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree.benchmarks;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.Supplier;
+
+import com.github.jtendermint.crypto.HashFunction;
+import com.github.jtendermint.crypto.RipeMD160;
+
+/**
+ * The hash functions the benchmarks are parameterized over
+ */
+public enum Hasher {
+
+    RIPEMD160(RipeMD160::new),
+    SHA256(() -> new DigestHashFunction("SHA-256")),
+    SHA512(() -> new DigestHashFunction("SHA-512"));
+
+    private final Supplier<HashFunction> hashFunctions;
+
+    Hasher(Supplier<HashFunction> hashFunctions) {
+        this.hashFunctions = hashFunctions;
+    }
+
+    /**
+     * @return a supplier of fresh, non thread-safe instances of this hash function
+     */
+    public Supplier<HashFunction> supplier() {
+        return hashFunctions;
+    }
+
+    private static final class DigestHashFunction implements HashFunction {
+
+        private final MessageDigest digest;
+
+        DigestHashFunction(String algorithm) {
+            try {
+                digest = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public byte[] hashBytes(byte[] bytes) {
+            return digest.digest(bytes);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.github.jtendermint.merkletree.byteable.types.ByteableLong;
+import com.github.jtendermint.merkletree.byteable.types.ByteableString;
+import com.github.jtendermint.merkletree.byteable.types.IByteable;
+
+/**
+ * The key types the benchmarks are parameterized over. Both map a long to a key so that the numeric order of the
+ * longs is the order of the keys, as an {@link IByteable} for the MerkleTree and as a {@link Comparable} for the
+ * AVLTree.
+ */
+@SuppressWarnings("rawtypes")
+public enum KeyType {
+
+    LONG {
+        @Override
+        public IByteable create(long value) {
+            return new ByteableLong(value);
+        }
+
+        @Override
+        public Comparable comparable(long value) {
+            return value;
+        }
+
+        @Override
+        public byte[] toByteArray(Object comparable) {
+            return ByteBuffer.allocate(Long.BYTES).putLong((Long) comparable).array();
+        }
+    },
+    STRING {
+        @Override
+        public IByteable create(long value) {
+            return new ByteableString(pad(value));
+        }
+
+        @Override
+        public Comparable comparable(long value) {
+            return pad(value);
+        }
+
+        @Override
+        public byte[] toByteArray(Object comparable) {
+            return ((String) comparable).getBytes(StandardCharsets.UTF_8);
+        }
+    };
+
+    /** enough decimal digits for every non-negative long */
+    private static final int WIDTH = 19;
+
+    /**
+     * @param value
+     *            a non-negative value
+     * @return the key for the given value
+     */
+    public abstract IByteable create(long value);
+
+    /**
+     * @param value
+     *            a non-negative value
+     * @return the comparable key for the given value
+     */
+    public abstract Comparable comparable(long value);
+
+    /**
+     * @param comparable
+     *            a key created by {@link #comparable(long)}
+     * @return the bytes that are hashed for the key
+     */
+    public abstract byte[] toByteArray(Object comparable);
+
+    private static String pad(long value) {
+        char[] digits = new char[WIDTH];
+        for (int i = WIDTH - 1; i >= 0; i--) {
+            digits[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(digits);
+    }
+}
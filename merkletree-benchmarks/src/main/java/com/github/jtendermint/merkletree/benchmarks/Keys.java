@@ -0,0 +1,110 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree.benchmarks;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.function.LongFunction;
+
+/**
+ * Key values shared by the benchmarks. A tree of size <code>n</code> holds the even values <code>0, 2, .. 2(n-1)</code>,
+ * which leaves the odd values as random inserts that land between existing keys and the values from <code>2n</code>
+ * upwards as sequential inserts that append to the right edge.
+ */
+final class Keys {
+
+    static final long SEED = 42;
+
+    private Keys() {
+    }
+
+    /**
+     * @param factory
+     *            creates the key for a value, e.g. <code>KeyType.LONG::create</code>
+     * @return the sorted keys of a tree of the given size
+     */
+    static <K> Iterator<K> existing(LongFunction<? extends K> factory, int size) {
+        return new Iterator<K>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public K next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return factory.apply(2L * next++);
+            }
+        };
+    }
+
+    /**
+     * @return <code>count</code> randomly chosen keys that are in a tree of the given size
+     */
+    static <K> K[] probes(LongFunction<? extends K> factory, IntFunction<K[]> arrays, int size, int count) {
+        Random random = new Random(SEED);
+        K[] keys = arrays.apply(count);
+        for (int i = 0; i < count; i++) {
+            keys[i] = factory.apply(2L * random.nextInt(size));
+        }
+        return keys;
+    }
+
+    /**
+     * @return <code>count</code> distinct keys in random order that are not in a tree of the given size and fall
+     *         between its keys
+     */
+    static <K> K[] randomInserts(LongFunction<? extends K> factory, IntFunction<K[]> arrays, int size, int count) {
+        Random random = new Random(SEED);
+        int range = Math.max(size, count);
+        Set<Long> values = new LinkedHashSet<>();
+        while (values.size() < count) {
+            values.add(2L * random.nextInt(range) + 1);
+        }
+        K[] keys = arrays.apply(count);
+        int i = 0;
+        for (long value : values) {
+            keys[i++] = factory.apply(value);
+        }
+        return keys;
+    }
+
+    /**
+     * @return <code>count</code> ascending keys that are all larger than the keys of a tree of the given size
+     */
+    static <K> K[] sequentialInserts(LongFunction<? extends K> factory, IntFunction<K[]> arrays, int size, int count) {
+        K[] keys = arrays.apply(count);
+        for (int i = 0; i < count; i++) {
+            keys[i] = factory.apply(2L * size + i);
+        }
+        return keys;
+    }
+}
@@ -28,16 +28,37 @@ import com.github.jtendermint.merkletree.byteable.types.IByteable;
 public class AddResult<K extends IByteable> {
     private final MerkleNode<K> node;
     private final boolean updated;
+    private final K replaced;
 
     public AddResult(MerkleNode<K> node, boolean updated) {
         this.node = node;
         this.updated = updated;
+        this.replaced = null;
+    }
+
+    /**
+     * @param node
+     *            the new root of the subtree
+     * @param replaced
+     *            the entry that has been replaced, null if the entry has been added
+     */
+    public AddResult(MerkleNode<K> node, K replaced) {
+        this.node = node;
+        this.updated = replaced != null;
+        this.replaced = replaced;
     }
 
     public boolean wasUpdated() {
         return updated;
     }
 
+    /**
+     * @return the entry that has been replaced, null if the entry has been added
+     */
+    public K getReplaced() {
+        return replaced;
+    }
+
     public MerkleNode<K> getNode() {
         return node;
     }
@@ -0,0 +1,643 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * {@link NodeStore} that appends nodes to segment files in a directory. Every record consists of the length of the
+ * hash, the length of the node, the hash and the node. Next to every segment lies a memory-mapped
+ * {@link SegmentIndex} from hashes to record positions, so opening the store only maps the index files and reads the
+ * records that were appended after the index was last updated, normally none. The nodes themselves are read when they
+ * are requested. A segment without a usable index, e.g. from an older version of the store, is indexed once when it
+ * is opened.
+ * <p>
+ * The store keeps a table of versions and their root hashes. {@link #compact()} rewrites the nodes that are reachable
+ * from a version into a fresh segment and deletes the old segments, reclaiming the nodes of deleted versions and any
+ * other node that no version reaches.
+ * <p>
+ * A record that was cut off by a crash is discarded when the store is opened. The store is thread-safe.
+ */
+public class FileNodeStore implements NodeStore, Closeable {
+
+    private static final String SEGMENT_PREFIX = "nodes-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String VERSIONS = "versions";
+    private static final String VERSIONS_TEMP = "versions.tmp";
+
+    private static final int HEADER_SIZE = 8;
+
+    // a location is the index of the segment in the upper and the offset of the record in the lower bits
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    private final Path directory;
+
+    private final List<Path> segmentFiles = new ArrayList<>();
+
+    private final List<FileChannel> segments = new ArrayList<>();
+
+    private final List<SegmentIndex> indexes = new ArrayList<>();
+
+    private long appendPosition;
+
+    /**
+     * Incremented by every compaction, see {@link #getGeneration()}
+     */
+    private long generation;
+
+    /**
+     * The amount of segment bytes that had to be read to open the store
+     */
+    private long scannedBytes;
+
+    private final SortedMap<Long, byte[]> versions = new TreeMap<>();
+
+    private final Object compactionLock = new Object();
+
+    /**
+     * Hashes that have been written or asked for while a compaction runs, the compaction keeps them and everything
+     * they reference. Null while no compaction runs.
+     */
+    private List<byte[]> touchedDuringCompaction;
+
+    private boolean closed;
+
+    /**
+     * Opens the store in the given directory, creating the directory if necessary
+     * 
+     * @param directory
+     *            the directory holding the segment files
+     * @throws IOException
+     *             if the directory or its segments cannot be read
+     */
+    public FileNodeStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(directory)) {
+            list.filter(this::isSegment).forEach(files::add);
+        }
+        files.sort((a, b) -> Long.compare(segmentNumber(a), segmentNumber(b)));
+        if (files.isEmpty()) {
+            files.add(segmentPath(0));
+        }
+        for (Path file : files) {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segmentFiles.add(file);
+            segments.add(channel);
+            SegmentIndex index = SegmentIndex.open(indexPath(file), channel.size());
+            if (index == null) {
+                index = SegmentIndex.create(indexPath(file));
+            }
+            indexes.add(index);
+            appendPosition = indexTail(file, channel, index);
+            if (channel.size() > appendPosition) {
+                // a partially written record
+                channel.truncate(appendPosition);
+            }
+            index.setIndexedPosition(appendPosition);
+        }
+        readVersions();
+    }
+
+    /**
+     * Indexes the records behind the indexed part of a segment
+     * 
+     * @return the end of the last complete record
+     */
+    private long indexTail(Path file, FileChannel channel, SegmentIndex index) throws IOException {
+        long position = index.getIndexedPosition();
+        try (InputStream raw = Files.newInputStream(file)) {
+            for (long skipped = 0; skipped < position;) {
+                skipped += raw.skip(position - skipped);
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(raw));
+            long start = position;
+            while (true) {
+                byte[] hash;
+                int nodeLength;
+                try {
+                    hash = new byte[in.readInt()];
+                    nodeLength = in.readInt();
+                    in.readFully(hash);
+                    skipFully(in, nodeLength);
+                } catch (EOFException e) {
+                    scannedBytes += position - start;
+                    return position;
+                }
+                // the index may have been saved with some of these records
+                if (find(channel, index, hash) < 0) {
+                    index.put(hash, position);
+                }
+                position += HEADER_SIZE + hash.length + nodeLength;
+            }
+        }
+    }
+
+    private static void skipFully(DataInputStream in, int length) throws IOException {
+        int skipped = 0;
+        while (skipped < length) {
+            int n = in.skipBytes(length - skipped);
+            if (n <= 0) {
+                // skipBytes returns 0 at the end of the stream
+                in.readByte();
+                n = 1;
+            }
+            skipped += n;
+        }
+    }
+
+    /**
+     * @return the position of the record of the hash in the segment, -1 if the segment does not hold it
+     */
+    private static long find(FileChannel channel, SegmentIndex index, byte[] hash) {
+        return index.find(hash, position -> hasHash(channel, position, hash));
+    }
+
+    private static boolean hasHash(FileChannel channel, long position, byte[] hash) {
+        try {
+            ByteBuffer record = read(channel, position, HEADER_SIZE + hash.length);
+            if (record.getInt() != hash.length) {
+                return false;
+            }
+            record.getInt();
+            for (byte b : hash) {
+                if (record.get() != b) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (EOFException e) {
+            // an entry of a record that has been cut off
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Reading node failed", e);
+        }
+    }
+
+    /**
+     * @return the location of the record of the hash, or -1 if the store does not have it
+     */
+    private long locate(byte[] hash) {
+        checkOpen();
+        for (int segment = segments.size() - 1; segment >= 0; segment--) {
+            long position = find(segments.get(segment), indexes.get(segment), hash);
+            if (position >= 0) {
+                return ((long) segment << OFFSET_BITS) | position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The indexes are unmapped once the store is closed, they must not be touched afterwards
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The store has been closed");
+        }
+    }
+
+    private void readVersions() throws IOException {
+        Path file = directory.resolve(VERSIONS);
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long version = in.readLong();
+                byte[] rootHash = new byte[in.readInt()];
+                in.readFully(rootHash);
+                versions.put(version, rootHash);
+            }
+        }
+    }
+
+    private void writeVersions() throws IOException {
+        Path temp = directory.resolve(VERSIONS_TEMP);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(versions.size());
+            for (Map.Entry<Long, byte[]> version : versions.entrySet()) {
+                out.writeLong(version.getKey());
+                out.writeInt(version.getValue().length);
+                out.write(version.getValue());
+            }
+        }
+        Files.move(temp, directory.resolve(VERSIONS), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public synchronized byte[] get(byte[] hash) {
+        long location = locate(hash);
+        if (location < 0) {
+            return null;
+        }
+        try {
+            return readNode(location);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Reading node failed", e);
+        }
+    }
+
+    private byte[] readNode(long location) throws IOException {
+        FileChannel channel = segments.get((int) (location >>> OFFSET_BITS));
+        long position = location & OFFSET_MASK;
+        ByteBuffer header = read(channel, position, HEADER_SIZE);
+        int hashLength = header.getInt();
+        int nodeLength = header.getInt();
+        return read(channel, position + HEADER_SIZE + hashLength, nodeLength).array();
+    }
+
+    @Override
+    public synchronized boolean contains(byte[] hash) {
+        boolean contains = locate(hash) >= 0;
+        if (contains && touchedDuringCompaction != null) {
+            // the caller may rely on this node, even if no version references it yet
+            touchedDuringCompaction.add(hash.clone());
+        }
+        return contains;
+    }
+
+    @Override
+    public synchronized void put(byte[] hash, byte[] node) {
+        if (contains(hash)) {
+            return;
+        }
+        int segment = segments.size() - 1;
+        long position = appendPosition;
+        appendPosition += append(segments.get(segment), position, hash, node);
+        SegmentIndex index = indexes.get(segment);
+        try {
+            index.put(hash, position);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Indexing node failed", e);
+        }
+        index.setIndexedPosition(appendPosition);
+        if (touchedDuringCompaction != null) {
+            touchedDuringCompaction.add(hash.clone());
+        }
+    }
+
+    private static int append(FileChannel channel, long position, byte[] hash, byte[] node) {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + hash.length + node.length);
+        record.putInt(hash.length).putInt(node.length).put(hash).put(node).flip();
+        try {
+            write(channel, position, record);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Writing node failed", e);
+        }
+        return record.capacity();
+    }
+
+    /**
+     * Forces the segment and then its index, so that the index never covers records the segment lost
+     */
+    @Override
+    public synchronized void flush() {
+        checkOpen();
+        try {
+            segments.get(segments.size() - 1).force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Flushing nodes failed", e);
+        }
+        indexes.get(indexes.size() - 1).force();
+    }
+
+    /**
+     * Registers the root of a version, replacing a previous root of the same version. The nodes of the version have to
+     * be stored already, see {@link MerkleTree#save(NodeStore)}.
+     * 
+     * @param version
+     *            the version
+     * @param rootHash
+     *            the hash of the root node
+     * @throws IOException
+     *             if the version table cannot be written
+     * @throws IllegalArgumentException
+     *             if the store does not contain the root
+     */
+    public synchronized void putVersion(long version, byte[] rootHash) throws IOException {
+        if (!contains(rootHash)) {
+            throw new IllegalArgumentException("Root of version " + version + " is not stored");
+        }
+        versions.put(version, rootHash.clone());
+        writeVersions();
+    }
+
+    /**
+     * @param version
+     *            the version
+     * @return the root hash of the version, null if there is no such version
+     */
+    public synchronized byte[] getVersion(long version) {
+        byte[] rootHash = versions.get(version);
+        return rootHash == null ? null : rootHash.clone();
+    }
+
+    /**
+     * @return the registered versions in ascending order
+     */
+    public synchronized List<Long> getVersions() {
+        return new ArrayList<>(versions.keySet());
+    }
+
+    /**
+     * Deletes a version. Its nodes are reclaimed by the next {@link #compact()} unless another version shares them.
+     * 
+     * @param version
+     *            the version to delete
+     * @return true if the version existed
+     * @throws IOException
+     *             if the version table cannot be written
+     */
+    public synchronized boolean deleteVersion(long version) throws IOException {
+        if (versions.remove(version) == null) {
+            return false;
+        }
+        writeVersions();
+        return true;
+    }
+
+    /**
+     * Deletes every version older than the given one, see {@link #deleteVersion(long)}
+     * 
+     * @param version
+     *            the oldest version to keep
+     * @throws IOException
+     *             if the version table cannot be written
+     */
+    public synchronized void deleteVersionsBefore(long version) throws IOException {
+        SortedMap<Long, byte[]> pruned = versions.headMap(version);
+        if (!pruned.isEmpty()) {
+            pruned.clear();
+            writeVersions();
+        }
+    }
+
+    /**
+     * Rewrites every node that is reachable from a version into a new segment and deletes the old segments. Nodes that
+     * no version reaches are dropped. Meant to run in the background: readers and writers only wait while the store
+     * switches to the new segment at the end. Nodes written or found through {@link #contains(byte[])} during the
+     * compaction are kept with their subtrees, so a tree saved meanwhile can still be registered as a version.
+     * 
+     * @return the amount of nodes that have been dropped
+     * @throws IOException
+     *             if the new segment cannot be written or an old one cannot be deleted
+     */
+    public int compact() throws IOException {
+        synchronized (compactionLock) {
+            Path file;
+            List<byte[]> roots;
+            synchronized (this) {
+                checkOpen();
+                file = segmentPath(segmentNumber(segmentFiles.get(segmentFiles.size() - 1)) + 1);
+                roots = new ArrayList<>(versions.values());
+                touchedDuringCompaction = new ArrayList<>();
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                Compaction compaction = new Compaction(channel, SegmentIndex.create(indexPath(file)));
+                try {
+                    // copy everything that is reachable, one node at a time without holding the lock
+                    compaction.copyReachable(roots);
+
+                    synchronized (this) {
+                        // catch up with the changes made in the meantime
+                        roots = new ArrayList<>(versions.values());
+                        roots.addAll(touchedDuringCompaction);
+                        compaction.copyReachable(roots);
+                        channel.force(false);
+                        return switchTo(file, compaction);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    compaction.index.close();
+                    throw e;
+                }
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    touchedDuringCompaction = null;
+                }
+                Files.deleteIfExists(file);
+                Files.deleteIfExists(indexPath(file));
+                throw e;
+            }
+        }
+    }
+
+    private int switchTo(Path file, Compaction compaction) throws IOException {
+        int dropped = size() - (int) compaction.index.size();
+        compaction.index.setIndexedPosition(compaction.position);
+        compaction.index.force();
+        for (FileChannel old : segments) {
+            old.close();
+        }
+        // every reader of the old indexes holds the lock, so none of them can be using a mapping that is released here
+        for (SegmentIndex old : indexes) {
+            old.close();
+        }
+        for (Path old : segmentFiles) {
+            Files.delete(old);
+            Files.deleteIfExists(indexPath(old));
+        }
+        segments.clear();
+        segmentFiles.clear();
+        indexes.clear();
+        segmentFiles.add(file);
+        segments.add(FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        indexes.add(compaction.index);
+        appendPosition = compaction.position;
+        touchedDuringCompaction = null;
+        generation++;
+        return dropped;
+    }
+
+    /**
+     * The state of a running compaction: the new segment and its index
+     */
+    private final class Compaction {
+
+        private final FileChannel channel;
+
+        private final SegmentIndex index;
+
+        private long position;
+
+        Compaction(FileChannel channel, SegmentIndex index) {
+            this.channel = channel;
+            this.index = index;
+        }
+
+        void copyReachable(List<byte[]> roots) throws IOException {
+            for (byte[] root : roots) {
+                copy(root);
+            }
+        }
+
+        /**
+         * Copies a node and all of its descendants that have not been copied yet. The subtree is walked depth-first
+         * without recursion and written bottom-up like a save would, only the path to the current node is held in
+         * memory.
+         */
+        private void copy(byte[] root) throws IOException {
+            ArrayDeque<PendingNode> path = new ArrayDeque<>();
+            push(path, root);
+            while (!path.isEmpty()) {
+                PendingNode top = path.peek();
+                if (top.nextChild < top.children.size()) {
+                    push(path, top.children.get(top.nextChild++));
+                } else {
+                    path.pop();
+                    index.put(top.hash, position);
+                    position += append(channel, position, top.hash, top.node);
+                }
+            }
+        }
+
+        private void push(ArrayDeque<PendingNode> path, byte[] hash) {
+            if (find(channel, index, hash) >= 0) {
+                return;
+            }
+            byte[] node = get(hash);
+            if (node == null) {
+                // a root of a version that is only being registered, or a hash that was asked for in vain
+                return;
+            }
+            path.push(new PendingNode(hash, node));
+        }
+    }
+
+    private static final class PendingNode {
+
+        final byte[] hash;
+        final byte[] node;
+        final List<byte[]> children;
+        int nextChild;
+
+        PendingNode(byte[] hash, byte[] node) {
+            this.hash = hash;
+            this.node = node;
+            this.children = NodeLoader.childHashes(node);
+        }
+    }
+
+    /**
+     * Changes with every {@link #compact()}: a compaction drops the nodes that have been saved but are not reachable
+     * from a version, so trees that saved to this store have to check their nodes again.
+     */
+    @Override
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return the amount of stored nodes
+     */
+    public synchronized int size() {
+        long size = 0;
+        for (SegmentIndex index : indexes) {
+            size += index.size();
+        }
+        return (int) size;
+    }
+
+    /**
+     * @return the amount of segment bytes that had to be read when the store was opened
+     */
+    synchronized long getScannedBytes() {
+        return scannedBytes;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (SegmentIndex index : indexes) {
+            index.force();
+            index.close();
+        }
+        for (FileChannel channel : segments) {
+            channel.close();
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Record at " + position + " exceeds the segment");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void write(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private boolean isSegment(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static long segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+    }
+
+    private static Path indexPath(Path segment) {
+        return segment.resolveSibling(segment.getFileName().toString().replace(SEGMENT_SUFFIX, INDEX_SUFFIX));
+    }
+}
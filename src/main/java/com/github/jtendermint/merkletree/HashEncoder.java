@@ -0,0 +1,180 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reusable buffer that produces the exact bytes of {@link com.github.jtendermint.crypto.gowire.WireEncode} and
+ * {@link java.math.BigInteger#toByteArray()}, without the temporary arrays and streams those allocate. Every thread
+ * has its own encoder, see {@link #get()}.
+ */
+final class HashEncoder {
+
+    private static final ThreadLocal<HashEncoder> ENCODERS = ThreadLocal.withInitial(HashEncoder::new);
+
+    private byte[] buffer = new byte[128];
+    private int position;
+
+    private HashEncoder() {
+    }
+
+    /**
+     * @return the empty encoder of the current thread. Must not be used again before the previous content has been
+     *         consumed.
+     */
+    static HashEncoder get() {
+        HashEncoder encoder = ENCODERS.get();
+        encoder.position = 0;
+        return encoder;
+    }
+
+    /**
+     * Writes the lowest byte of value
+     * 
+     * @param value
+     *            the byte to write
+     */
+    void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+    }
+
+    /**
+     * Writes bytes the way {@code WireEncode.writeWithVarint(bytes)} encodes them: the length of the length, the
+     * length and the bytes themselves. Null is encoded like an empty array.
+     * 
+     * @param bytes
+     *            the bytes to write, may be null
+     */
+    void writeVarintBytes(byte[] bytes) {
+        writeVarintBytes(bytes, 0, bytes == null ? 0 : bytes.length);
+    }
+
+    /**
+     * Writes a range of an array like {@link #writeVarintBytes(byte[])} writes an array of that length
+     * 
+     * @param source
+     *            the array to read from
+     * @param offset
+     *            the index of the first byte
+     * @param length
+     *            the amount of bytes to write
+     */
+    void writeVarintBytes(byte[] source, int offset, int length) {
+        int lengthSize = bigIntegerLength(length);
+        writeByte(lengthSize);
+        if (length > 0) {
+            writeBigInteger(length, lengthSize);
+            ensureCapacity(length);
+            System.arraycopy(source, offset, buffer, position, length);
+            position += length;
+        }
+    }
+
+    /**
+     * Writes a range of a buffer like {@link #writeVarintBytes(byte[])} writes an array of that length. The position
+     * of the buffer is not changed.
+     * 
+     * @param source
+     *            the buffer to read from
+     * @param offset
+     *            the absolute index of the first byte
+     * @param length
+     *            the amount of bytes to write
+     */
+    void writeVarintBytes(ByteBuffer source, int offset, int length) {
+        int lengthSize = bigIntegerLength(length);
+        writeByte(lengthSize);
+        if (length > 0) {
+            writeBigInteger(length, lengthSize);
+            ensureCapacity(length);
+            ByteBuffer view = source.duplicate();
+            view.position(offset);
+            view.get(buffer, position, length);
+            position += length;
+        }
+    }
+
+    /**
+     * Writes the bytes of {@code new ByteableLong(value).toByteArray()} like {@link #writeVarintBytes(byte[])} writes
+     * them: big-endian without leading zero bytes, except for 0 which keeps all eight bytes.
+     * 
+     * @param value
+     *            the value to write
+     */
+    void writeVarintLong(long value) {
+        int length = value == 0 ? Long.BYTES : Long.BYTES - Long.numberOfLeadingZeros(value) / 8;
+        // a length of at most 8 fits into a single byte
+        writeByte(1);
+        writeByte(length);
+        ensureCapacity(length);
+        for (int i = length - 1; i >= 0; i--) {
+            buffer[position++] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    /**
+     * Writes {@code WireEncode.writeWithVarint(BigInteger.valueOf(value).toByteArray())}
+     * 
+     * @param value
+     *            a non-negative value
+     */
+    void writeVarintBigInteger(int value) {
+        int valueSize = bigIntegerLength(value);
+        // the length of a BigInteger of an int never exceeds 5, so its own length is a single byte
+        writeByte(1);
+        writeByte(valueSize);
+        writeBigInteger(value, valueSize);
+    }
+
+    /**
+     * @return a copy of the bytes written so far
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    private void writeBigInteger(int value, int valueSize) {
+        ensureCapacity(valueSize);
+        for (int i = valueSize - 1; i >= 0; i--) {
+            buffer[position++] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    /**
+     * @return the length of {@code BigInteger.valueOf(value).toByteArray()} for a non-negative value, which includes
+     *         the sign bit
+     */
+    private static int bigIntegerLength(int value) {
+        return (Integer.SIZE - Integer.numberOfLeadingZeros(value)) / 8 + 1;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (position + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + additional));
+        }
+    }
+}
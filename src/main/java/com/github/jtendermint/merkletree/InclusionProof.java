@@ -0,0 +1,93 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import java.util.List;
+
+import com.github.jtendermint.crypto.HashFunction;
+import com.github.jtendermint.merkletree.byteable.types.IByteable;
+import com.github.jtendermint.merkletree.internal.AbstractInclusionProof;
+import com.github.jtendermint.merkletree.internal.ProofHasher;
+
+/**
+ * Proves that an entry is contained in a {@link MerkleTree} with a given root hash, see
+ * {@link MerkleTree#getWithProof(IByteable)}. The proof consists of the entry and, for every inner node on the path
+ * from the leaf to the root, the height, size and the hash of the child that is not on the path.
+ * <p>
+ * {@link #verify(InclusionProof, byte[], HashFunction)} recomputes the root hash with the encoding the tree hashes its
+ * nodes with, no tree is needed for that.
+ */
+public class InclusionProof<K extends IByteable> extends AbstractInclusionProof<K> {
+
+    /**
+     * @param entry
+     *            the proven entry
+     * @param path
+     *            the inner nodes from the parent of the leaf up to the root
+     */
+    public InclusionProof(K entry, List<PathNode> path) {
+        super(entry, path);
+    }
+
+    /**
+     * Recomputes the root hash from the proof and compares it with the expected one
+     * 
+     * @param proof
+     *            the proof to check
+     * @param rootHash
+     *            the trusted root hash
+     * @param hashFunction
+     *            the hash function of the tree
+     * @return true if the proof proves that its entry is contained in the tree with the given root hash
+     */
+    public static <K extends IByteable> boolean verify(InclusionProof<K> proof, byte[] rootHash, HashFunction hashFunction) {
+        return proof != null && proof.matches(rootHash, hasher(hashFunction));
+    }
+
+    /**
+     * @return the node hashing of a {@link MerkleTree} with the given hash function
+     */
+    static <K extends IByteable> ProofHasher<K> hasher(HashFunction hashFunction) {
+        return new ProofHasher<K>() {
+            @Override
+            public byte[] hashLeaf(K entry) {
+                HashEncoder encoder = HashEncoder.get();
+                encoder.writeByte(0);
+                encoder.writeVarintBigInteger(1);
+                encoder.writeVarintBytes(entry.toByteArray());
+                return hashFunction.hashBytes(encoder.toByteArray());
+            }
+
+            @Override
+            public byte[] hashInner(int height, int size, byte[] leftHash, byte[] rightHash) {
+                HashEncoder encoder = HashEncoder.get();
+                encoder.writeByte(height);
+                encoder.writeVarintBigInteger(size);
+                encoder.writeVarintBytes(leftHash);
+                encoder.writeVarintBytes(rightHash);
+                return hashFunction.hashBytes(encoder.toByteArray());
+            }
+        };
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Objects;
+
+import com.github.jtendermint.crypto.HashFunction;
+import com.github.jtendermint.merkletree.byteable.types.IByteable;
+
+/**
+ * Inner node of a {@link MerkleTree}. Its key is the smallest key of its right subtree. The hashes of the children are
+ * not duplicated here, they are read from the children themselves.
+ */
+final class InnerNode<K extends IByteable> extends MerkleNode<K> {
+
+    private int height;
+    private int size;
+
+    /**
+     * Volatile because a save replaces the children of persisted nodes, which snapshots may share, by placeholders
+     * for the same nodes
+     */
+    private volatile MerkleNode<K> leftChildNode;
+    private volatile MerkleNode<K> rightChildNode;
+
+    InnerNode(K key, MerkleNode<K> leftNode, MerkleNode<K> rightNode, OwnerToken owner) {
+        super(key);
+        this.owner = owner;
+        this.leftChildNode = leftNode;
+        this.rightChildNode = rightNode;
+        updateHeightAndSize();
+    }
+
+    /**
+     * Creates a node whose height and size are known, without asking its children for them
+     */
+    InnerNode(K key, int height, int size, MerkleNode<K> leftNode, MerkleNode<K> rightNode) {
+        super(key);
+        this.height = height;
+        this.size = size;
+        this.leftChildNode = leftNode;
+        this.rightChildNode = rightNode;
+    }
+
+    private InnerNode(InnerNode<K> other, OwnerToken owner) {
+        super(other.key);
+        TreeStats stats = OwnerToken.statsOf(owner);
+        if (stats != null) {
+            stats.recordCopy();
+        }
+        this.owner = owner;
+        this.height = other.height;
+        this.size = other.size;
+        this.leftChildNode = other.leftChildNode;
+        this.rightChildNode = other.rightChildNode;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    MerkleNode<K> getLeftChildNode() {
+        return leftChildNode;
+    }
+
+    MerkleNode<K> getRightChildNode() {
+        return rightChildNode;
+    }
+
+    @Override
+    public KeyIndex<K> get(int index) {
+        MerkleNode<K> node = this;
+        int remaining = index;
+        while (!node.isLeafNode()) {
+            InnerNode<K> inner = (InnerNode<K>) node.resolve();
+            int leftSize = inner.leftChildNode.getSize();
+            if (remaining < leftSize) {
+                node = inner.leftChildNode;
+            } else {
+                remaining -= leftSize;
+                node = inner.rightChildNode;
+            }
+        }
+        if (remaining != 0) {
+            throw new RuntimeException("Asked for index > 0 with a height of 0");
+        }
+        return new KeyIndex<K>(node.getKey(), true, index);
+    }
+
+    @Override
+    public K get(K entry) {
+        // only the leaf holds the stored entry, the split key may be an older equal instance
+        if (entry.compareTo(key) < 0) {
+            return this.leftChildNode.get(entry);
+        } else {
+            return this.rightChildNode.get(entry);
+        }
+    }
+
+    @Override
+    AddResult<K> add(K entry, OwnerToken owner) {
+        InnerNode<K> newNode = this.editable(owner);
+        AddResult<K> newNodeResult;
+        if (entry.compareTo(newNode.key) < 0) {
+            newNodeResult = newNode.leftChildNode.add(entry, owner);
+            newNode.leftChildNode = newNodeResult.getNode();
+        } else {
+            newNodeResult = newNode.rightChildNode.add(entry, owner);
+            newNode.rightChildNode = newNodeResult.getNode();
+        }
+
+        if (newNodeResult.wasUpdated()) {
+            return new AddResult<K>(newNode, newNodeResult.getReplaced());
+        } else {
+            newNode.updateHeightAndSize();
+            return new AddResult<K>(newNode.balance(owner), false);
+        }
+    }
+
+    @Override
+    MerkleNode<K> applyBatch(List<K> adds, int addFrom, int addTo, List<K> removes, int removeFrom, int removeTo, OwnerToken owner) {
+        if (addFrom == addTo && removeFrom == removeTo) {
+            return this;
+        }
+        int addSplit = indexOf(adds, addFrom, addTo, key);
+        int removeSplit = indexOf(removes, removeFrom, removeTo, key);
+        MerkleNode<K> newLeft = leftChildNode.applyBatch(adds, addFrom, addSplit, removes, removeFrom, removeSplit, owner);
+        MerkleNode<K> newRight = rightChildNode.applyBatch(adds, addSplit, addTo, removes, removeSplit, removeTo, owner);
+
+        if (newLeft == leftChildNode && newRight == rightChildNode) {
+            return this;
+        } else if (newLeft == null) {
+            return newRight;
+        } else if (newRight == null) {
+            return newLeft;
+        }
+        K newKey = newRight == rightChildNode ? this.key : newRight.leftmostKey();
+        return join(newLeft, newKey, newRight, owner);
+    }
+
+    /**
+     * Joins two balanced subtrees where every key of left is smaller than every key of right. The taller tree is
+     * descended along its inner spine until the heights match and rebalanced on the way back up.
+     * 
+     * @param left
+     *            the non-null left subtree
+     * @param rightKey
+     *            the smallest key of right
+     * @param right
+     *            the non-null right subtree
+     * @param owner
+     *            the current edit session, may be null
+     * @return the balanced root of the joined tree
+     */
+    private static <K extends IByteable> MerkleNode<K> join(MerkleNode<K> left, K rightKey, MerkleNode<K> right, OwnerToken owner) {
+        if (left.getHeight() > right.getHeight() + 1) {
+            InnerNode<K> newNode = ((InnerNode<K>) left.resolve()).editable(owner);
+            newNode.rightChildNode = join(newNode.rightChildNode, rightKey, right, owner);
+            newNode.updateHeightAndSize();
+            return newNode.balance(owner);
+        } else if (right.getHeight() > left.getHeight() + 1) {
+            InnerNode<K> newNode = ((InnerNode<K>) right.resolve()).editable(owner);
+            newNode.leftChildNode = join(left, rightKey, newNode.leftChildNode, owner);
+            newNode.updateHeightAndSize();
+            return newNode.balance(owner);
+        } else {
+            return new InnerNode<K>(rightKey, left, right, owner);
+        }
+    }
+
+    @Override
+    K leftmostKey() {
+        MerkleNode<K> node = this;
+        while (!node.isLeafNode()) {
+            node = ((InnerNode<K>) node.resolve()).leftChildNode;
+        }
+        return node.getKey();
+    }
+
+    @Override
+    int rank(K entry) {
+        if (entry.compareTo(key) < 0) {
+            return leftChildNode.rank(entry);
+        } else {
+            // every key of the left subtree is smaller than this node's key
+            return leftChildNode.getSize() + rightChildNode.rank(entry);
+        }
+    }
+
+    @Override
+    ProofNode<K> prove(K first, K last) {
+        ProofNode<K> left = first.compareTo(key) < 0 ? leftChildNode.prove(first, last) : ProofNode.pruned(leftChildNode.hash);
+        ProofNode<K> right = last.compareTo(key) >= 0 ? rightChildNode.prove(first, last) : ProofNode.pruned(rightChildNode.hash);
+        return ProofNode.inner(height, size, left, right);
+    }
+
+    @Override
+    ProofNode<K> proveAll(List<K> entries, int from, int to) {
+        int split = indexOf(entries, from, to, key);
+        ProofNode<K> left = split > from ? leftChildNode.proveAll(entries, from, split) : ProofNode.pruned(leftChildNode.hash);
+        ProofNode<K> right = split < to ? rightChildNode.proveAll(entries, split, to) : ProofNode.pruned(rightChildNode.hash);
+        return ProofNode.inner(height, size, left, right);
+    }
+
+    private InnerNode<K> balance(OwnerToken owner) {
+        int balance = this.getBalance();
+        TreeStats stats = OwnerToken.statsOf(owner);
+        if (stats != null && Math.abs(balance) > 1) {
+            boolean isDouble = balance > 1 ? this.leftChildNode.getBalance() < 0 : this.rightChildNode.getBalance() > 0;
+            stats.recordRotation(isDouble);
+        }
+        if (balance > 1) {
+            if (this.leftChildNode.getBalance() >= 0) {
+                // Left Left Case
+                return this.rotateRight(owner);
+            } else {
+                // Left Right Case
+                InnerNode<K> newNode = this.editable(owner);
+                newNode.leftChildNode = ((InnerNode<K>) newNode.leftChildNode.resolve()).rotateLeft(owner);
+                return newNode.rotateRight(owner);
+            }
+        }
+        if (balance < -1) {
+            if (this.rightChildNode.getBalance() <= 0) {
+                // Right Right Case
+                return this.rotateLeft(owner);
+            } else {
+                // Right Left Case
+                InnerNode<K> newNode = this.editable(owner);
+                newNode.rightChildNode = ((InnerNode<K>) newNode.rightChildNode.resolve()).rotateRight(owner);
+                return newNode.rotateLeft(owner);
+            }
+        }
+        // no changes - balanced
+        return this;
+    }
+
+    private InnerNode<K> rotateLeft(OwnerToken owner) {
+        InnerNode<K> newNode = this.editable(owner);
+        InnerNode<K> rightCopy = ((InnerNode<K>) newNode.rightChildNode.resolve()).editable(owner);
+
+        newNode.rightChildNode = rightCopy.leftChildNode;
+        rightCopy.leftChildNode = newNode;
+
+        newNode.updateHeightAndSize();
+        rightCopy.updateHeightAndSize();
+        return rightCopy;
+    }
+
+    private InnerNode<K> rotateRight(OwnerToken owner) {
+        InnerNode<K> newNode = this.editable(owner);
+        InnerNode<K> leftCopy = ((InnerNode<K>) newNode.leftChildNode.resolve()).editable(owner);
+
+        newNode.leftChildNode = leftCopy.rightChildNode;
+        leftCopy.rightChildNode = newNode;
+
+        newNode.updateHeightAndSize();
+        leftCopy.updateHeightAndSize();
+        return leftCopy;
+    }
+
+    @Override
+    int getBalance() {
+        return leftChildNode.getHeight() - rightChildNode.getHeight();
+    }
+
+    private void updateHeightAndSize() {
+        this.height = Math.max(leftChildNode.getHeight(), rightChildNode.getHeight()) + 1;
+        this.size = leftChildNode.getSize() + rightChildNode.getSize();
+    }
+
+    @Override
+    RemoveResult<K> removeEntry(K entry, OwnerToken owner) {
+        InnerNode<K> newNode;
+        RemoveResult<K> result;
+        if (entry.compareTo(this.key) < 0) {
+            result = leftChildNode.removeEntry(entry, owner);
+            MerkleNode<K> newLeft = result.getNode();
+            if (!result.wasRemoved()) {
+                return result;
+            } else if (newLeft == null) {
+                return new RemoveResult<K>(null, rightChildNode, result.getByteable(), true);
+            }
+            newNode = this.editable(owner);
+            newNode.leftChildNode = newLeft;
+        } else {
+            result = rightChildNode.removeEntry(entry, owner);
+            MerkleNode<K> newRight = result.getNode();
+            if (!result.wasRemoved()) {
+                return result;
+            } else if (newRight == null) {
+                return new RemoveResult<K>(null, leftChildNode, result.getByteable(), true);
+            }
+            newNode = this.editable(owner);
+            newNode.rightChildNode = newRight;
+            if (entry.compareTo(newNode.key) == 0) {
+                // the smallest key of the right subtree was removed
+                newNode.key = newRight.leftmostKey();
+            }
+        }
+        newNode.updateHeightAndSize();
+        return new RemoveResult<K>(null, newNode.balance(owner), result.getByteable(), true);
+    }
+
+    @Override
+    int calculateChildHashes(HashFunction hashFunction) {
+        return leftChildNode.calculateHash(hashFunction) + rightChildNode.calculateHash(hashFunction);
+    }
+
+    @Override
+    void writeHashBytes(HashEncoder encoder) {
+        // TODO overflow / negative ?
+        encoder.writeByte(this.height);
+        encoder.writeVarintBigInteger(size);
+        encoder.writeVarintBytes(Objects.requireNonNull(leftChildNode.hash, "leftChildNode.hash was null in writeHashBytes"));
+        encoder.writeVarintBytes(Objects.requireNonNull(rightChildNode.hash, "rightChildNode.hash was null in writeHashBytes"));
+    }
+
+    @Override
+    void persistChildren(NodeStore store, boolean skipPersisted, NodeLoader<K> releaseTo) {
+        leftChildNode.persist(store, skipPersisted, releaseTo);
+        rightChildNode.persist(store, skipPersisted, releaseTo);
+    }
+
+    @Override
+    void releaseChildren(NodeLoader<K> loader) {
+        // the placeholders stand for the same nodes, readers of this persistent node see no difference
+        leftChildNode = loader.release(leftChildNode);
+        rightChildNode = loader.release(rightChildNode);
+    }
+
+    @Override
+    byte[] toStoreBytes() {
+        byte[] keyBytes = key.toByteArray();
+        byte[] leftHash = leftChildNode.hash;
+        byte[] rightHash = rightChildNode.hash;
+        return ByteBuffer.allocate(1 + 4 + 4 + keyBytes.length + 4 + leftHash.length + 4 + rightHash.length)
+                .put((byte) height)
+                .putInt(size)
+                .putInt(keyBytes.length).put(keyBytes)
+                .putInt(leftHash.length).put(leftHash)
+                .putInt(rightHash.length).put(rightHash)
+                .array();
+    }
+
+    @Override
+    public MerkleNode<K> createCopy() {
+        return new InnerNode<K>(this, null);
+    }
+
+    /**
+     * Returns a node that may be modified for the given edit session: this node itself if the session owns it,
+     * otherwise a copy owned by the session. The cached hash of an in-place edited node is invalidated.
+     * 
+     * @param owner
+     *            the current edit session, null always copies
+     * @return a node that may be modified
+     */
+    private InnerNode<K> editable(OwnerToken owner) {
+        if (owner != null && this.owner == owner) {
+            this.hash = null;
+            return this;
+        }
+        return new InnerNode<K>(this, owner);
+    }
+
+    @Override
+    public String toPrettyString() {
+        return "(" + this.leftChildNode.toPrettyString() + " " + this.rightChildNode.toPrettyString() + ")";
+    }
+
+    @Override
+    public boolean isLeafNode() {
+        return false;
+    }
+
+    @Override
+    public boolean iterateNodes(IterateFunction<K> func) {
+        boolean stop = func.currentNode(this);
+        if (stop) {
+            return true;
+        }
+        stop = this.leftChildNode.iterateNodes(func);
+        if (stop) {
+            return true;
+        }
+        stop = this.rightChildNode.iterateNodes(func);
+        if (stop) {
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean iterateRange(K from, K to, boolean ascending, IterateFunction<K> func) {
+        // the left subtree holds the keys below this node's key, the right subtree the others
+        boolean overlapsLeft = from == null || from.compareTo(key) < 0;
+        boolean overlapsRight = to == null || to.compareTo(key) > 0;
+        if (ascending) {
+            return (overlapsLeft && leftChildNode.iterateRange(from, to, true, func))
+                    || (overlapsRight && rightChildNode.iterateRange(from, to, true, func));
+        }
+        return (overlapsRight && rightChildNode.iterateRange(from, to, false, func))
+                || (overlapsLeft && leftChildNode.iterateRange(from, to, false, func));
+    }
+
+    @Override
+    void collectLeaves(List<MerkleNode<K>> leaves) {
+        leftChildNode.collectLeaves(leaves);
+        rightChildNode.collectLeaves(leaves);
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import java.util.ArrayDeque;
+
+import com.github.jtendermint.merkletree.byteable.types.IByteable;
+import com.github.jtendermint.merkletree.internal.AbstractLeafSpliterator;
+
+/**
+ * Spliterator over the keys of a persistent subtree, placeholders of stored nodes are loaded as they are reached
+ */
+final class LeafSpliterator<K extends IByteable> extends AbstractLeafSpliterator<MerkleNode<K>, K> {
+
+    LeafSpliterator(MerkleNode<K> root) {
+        super(root);
+    }
+
+    /**
+     * Starts at the entry with the given index
+     */
+    LeafSpliterator(MerkleNode<K> root, int fromIndex) {
+        super(root, fromIndex);
+    }
+
+    private LeafSpliterator(ArrayDeque<MerkleNode<K>> pending, long remaining) {
+        super(pending, remaining);
+    }
+
+    @Override
+    protected LeafSpliterator<K> split(ArrayDeque<MerkleNode<K>> pending, long remaining) {
+        return new LeafSpliterator<>(pending, remaining);
+    }
+
+    @Override
+    protected MerkleNode<K> resolve(MerkleNode<K> node) {
+        return node.resolve();
+    }
+
+    @Override
+    protected boolean isLeaf(MerkleNode<K> resolved) {
+        return resolved.isLeafNode();
+    }
+
+    @Override
+    protected K key(MerkleNode<K> resolvedLeaf) {
+        return resolvedLeaf.getKey();
+    }
+
+    @Override
+    protected MerkleNode<K> left(MerkleNode<K> resolvedInner) {
+        return ((InnerNode<K>) resolvedInner).getLeftChildNode();
+    }
+
+    @Override
+    protected MerkleNode<K> right(MerkleNode<K> resolvedInner) {
+        return ((InnerNode<K>) resolvedInner).getRightChildNode();
+    }
+
+    @Override
+    protected int size(MerkleNode<K> node) {
+        return node.getSize();
+    }
+
+    @Override
+    public int characteristics() {
+        return super.characteristics() | IMMUTABLE;
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+import com.github.jtendermint.crypto.HashFunction;
+import com.github.jtendermint.crypto.RipeMD160;
+import com.github.jtendermint.merkletree.byteable.types.ByteableLong;
+
+/**
+ * Merkle-ized AVL tree of primitive long keys.
+ * <p>
+ * The nodes live in parallel primitive arrays and are addressed by their int index, like the slots of an
+ * {@link OffHeapMerkleTree}: one array each for height, size, both children, the key and the hashes. There is no
+ * object per node or per key, and keys are hashed straight from the long without creating a {@link ByteableLong}.
+ * <p>
+ * Structure and hashes are identical to a {@link MerkleTree MerkleTree&lt;ByteableLong&gt;} that received the same
+ * operations. There is only the current version, so a replaced node is freed and its index reused. The methods of
+ * {@link IHashTree} convert between {@link ByteableLong} and long. The nodes are not objects, so there is no root
+ * node: {@link #iterateNodes(IterateFunction)} walks the arrays and hands out a detached copy of one node at a
+ * time. The tree is not thread-safe.
+ */
+public class LongMerkleTree extends SlotMerkleTree<ByteableLong> {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // see SlotMerkleTree for the meaning of the fields
+    private byte[] heights;
+    private int[] sizes;
+    private int[] lefts;
+    private int[] rights;
+    private long[] keys;
+    private byte[] hashes;
+    private boolean[] hashed;
+
+    private int nextNode;
+
+    /**
+     * The key that is searched, added or removed
+     */
+    private long pendingKey;
+
+    /**
+     * Creates a tree that hashes with RipeMD160
+     */
+    public LongMerkleTree() {
+        this(RipeMD160::new);
+    }
+
+    /**
+     * @param hashFunctions
+     *            creates the hash function of this tree
+     */
+    public LongMerkleTree(Supplier<? extends HashFunction> hashFunctions) {
+        super(hashFunctions);
+        allocateArrays(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public boolean contains(ByteableLong entry) {
+        return contains(valueOf(entry));
+    }
+
+    /**
+     * @param key
+     *            the key to search for
+     * @return true if the key is in this tree
+     */
+    public boolean contains(long key) {
+        pendingKey = key;
+        return find() != NONE;
+    }
+
+    @Override
+    public ByteableLong get(ByteableLong entry) {
+        return contains(entry) ? entry : null;
+    }
+
+    @Override
+    public KeyIndex<ByteableLong> get(int index) {
+        if (root == NONE) {
+            return null;
+        }
+        return new KeyIndex<ByteableLong>(new ByteableLong(keys[leafAt(index)]), true, index);
+    }
+
+    /**
+     * @param index
+     *            the index of a key, between 0 and {@link #size()}
+     * @return the key at the given index
+     */
+    public long keyAt(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return keys[leafAt(index)];
+    }
+
+    @Override
+    public boolean add(ByteableLong entry) {
+        return add(valueOf(entry));
+    }
+
+    /**
+     * Adds a key to the tree. Adding a key that is already in the tree leaves the tree unchanged.
+     * 
+     * @param key
+     *            the key to add
+     * @return true if the key was already in the tree, false if it has been newly added
+     */
+    public boolean add(long key) {
+        pendingKey = key;
+        // the key is all there is to a leaf, so there is nothing to update
+        return insert(false);
+    }
+
+    /**
+     * Removes an entry and calculates the new root hash. The returned result carries no node, the nodes of the new
+     * tree can be visited with {@link #iterateNodes(IterateFunction)}.
+     */
+    @Override
+    public RemoveResult<ByteableLong> remove(ByteableLong entry) {
+        if (!remove(valueOf(entry))) {
+            return new RemoveResult<ByteableLong>(entry, false);
+        }
+        return new RemoveResult<ByteableLong>(root == NONE ? null : getRootHash(), null, entry, true);
+    }
+
+    /**
+     * Removes a key from the tree. The root hash is calculated on the next call of {@link #getRootHash()}.
+     * 
+     * @param key
+     *            the key to remove
+     * @return true if the key has been removed, false if it was not in the tree
+     */
+    public boolean remove(long key) {
+        pendingKey = key;
+        return removePending();
+    }
+
+    /**
+     * Passes every key to the consumer in ascending order, without copying the tree
+     * 
+     * @param consumer
+     *            the consumer of the keys
+     */
+    public void forEach(LongConsumer consumer) {
+        if (root != NONE) {
+            forEach(root, consumer);
+        }
+    }
+
+    private void forEach(int node, LongConsumer consumer) {
+        while (!isLeaf(node)) {
+            forEach(lefts[node], consumer);
+            node = rights[node];
+        }
+        consumer.accept(keys[node]);
+    }
+
+    /**
+     * @return the amount of heap memory reserved by the node arrays of this tree, in bytes
+     */
+    public long getAllocatedBytes() {
+        // height, hashed flag, size, both children and the key
+        return (long) keys.length * (1 + 1 + Integer.BYTES * 3 + Long.BYTES + hashLength);
+    }
+
+    @Override
+    int height(int node) {
+        return heights[node];
+    }
+
+    @Override
+    void setHeight(int node, int height) {
+        heights[node] = (byte) height;
+    }
+
+    @Override
+    int size(int node) {
+        return sizes[node];
+    }
+
+    @Override
+    void setSize(int node, int size) {
+        sizes[node] = size;
+    }
+
+    @Override
+    int left(int node) {
+        return lefts[node];
+    }
+
+    @Override
+    void setLeft(int node, int left) {
+        lefts[node] = left;
+    }
+
+    @Override
+    int right(int node) {
+        return rights[node];
+    }
+
+    @Override
+    void setRight(int node, int right) {
+        rights[node] = right;
+    }
+
+    @Override
+    boolean isHashed(int node) {
+        return hashed[node];
+    }
+
+    @Override
+    void invalidate(int node) {
+        hashed[node] = false;
+    }
+
+    @Override
+    int allocateNew() {
+        if (nextNode == keys.length) {
+            if (nextNode == Integer.MAX_VALUE / hashLength) {
+                throw new IllegalStateException("Tree is full");
+            }
+            growArrays((int) Math.min((long) nextNode + (nextNode >> 1), Integer.MAX_VALUE / hashLength));
+        }
+        return nextNode++;
+    }
+
+    /**
+     * Releases the node arrays and starts over with arrays of the initial capacity
+     */
+    @Override
+    void clear() {
+        allocateArrays(INITIAL_CAPACITY);
+        nextNode = 0;
+    }
+
+    @Override
+    int comparePending(int node) {
+        return Long.compare(pendingKey, keys[node]);
+    }
+
+    @Override
+    void putPendingKey(int node) {
+        keys[node] = pendingKey;
+    }
+
+    @Override
+    void copyKey(int from, int to) {
+        keys[to] = keys[from];
+    }
+
+    @Override
+    ByteableLong key(int node) {
+        return new ByteableLong(keys[node]);
+    }
+
+    @Override
+    String toPrettyKey(int leaf) {
+        return Long.toString(keys[leaf]);
+    }
+
+    @Override
+    void writeKey(HashEncoder encoder, int node) {
+        encoder.writeVarintLong(keys[node]);
+    }
+
+    @Override
+    void writeHash(HashEncoder encoder, int node) {
+        encoder.writeVarintBytes(hashes, node * hashLength, hashLength);
+    }
+
+    @Override
+    void putHash(int node, byte[] hash) {
+        System.arraycopy(hash, 0, hashes, node * hashLength, hashLength);
+        hashed[node] = true;
+    }
+
+    @Override
+    byte[] hash(int node) {
+        return hashed[node] ? Arrays.copyOfRange(hashes, node * hashLength, (node + 1) * hashLength) : null;
+    }
+
+    private void allocateArrays(int capacity) {
+        heights = new byte[capacity];
+        sizes = new int[capacity];
+        lefts = new int[capacity];
+        rights = new int[capacity];
+        keys = new long[capacity];
+        hashes = new byte[capacity * hashLength];
+        hashed = new boolean[capacity];
+    }
+
+    private void growArrays(int capacity) {
+        heights = Arrays.copyOf(heights, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        lefts = Arrays.copyOf(lefts, capacity);
+        rights = Arrays.copyOf(rights, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+        hashes = Arrays.copyOf(hashes, capacity * hashLength);
+        hashed = Arrays.copyOf(hashed, capacity);
+    }
+
+    private static long valueOf(ByteableLong entry) {
+        return entry.getValue();
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import com.github.jtendermint.crypto.HashFunction;
+import com.github.jtendermint.crypto.RipeMD160;
+import com.github.jtendermint.merkletree.byteable.types.IByteable;
+
+/**
+ * Merkle-ized AVL map. Keys and values are stored separately in the leaves of a {@link MerkleTree}, a leaf is hashed
+ * from its key bytes and the hash of its value:
+ * 
+ * <pre>
+ * H(height = 0, size = 1, key, H(value))
+ * </pre>
+ * 
+ * The value hash is calculated once when the value is put. Updating a value replaces a single leaf and rehashes only
+ * the path to the root, the inner nodes only hold the keys.
+ * <p>
+ * A map lives in memory only and offers no save and load: {@link MerkleTree#save(NodeStore)} stores the key bytes of
+ * a leaf alone, so a loaded leaf would lose its value and the value hash that goes into its hash.
+ */
+public class MerkleMap<K extends IByteable<K>, V extends IByteable<V>> {
+
+    private final HashFunction valueHashFunction;
+
+    private final MerkleTree<Entry<K, V>> tree;
+
+    public MerkleMap() {
+        this(RipeMD160::new);
+    }
+
+    /**
+     * Creates a map with a custom hash function
+     * 
+     * @param hashFunctions
+     *            creates the hash functions of this map, see {@link MerkleTree#MerkleTree(Supplier)}
+     */
+    public MerkleMap(Supplier<? extends HashFunction> hashFunctions) {
+        this.valueHashFunction = hashFunctions.get();
+        this.tree = new MerkleTree<Entry<K, V>>(hashFunctions) {
+            @Override
+            protected MerkleNode<Entry<K, V>> createNode(Entry<K, V> entry) {
+                return new LeafNode<>(entry);
+            }
+        };
+    }
+
+    public int size() {
+        return tree.size();
+    }
+
+    public int getHeight() {
+        return tree.getHeight();
+    }
+
+    public boolean containsKey(K key) {
+        return tree.contains(Entry.probe(key));
+    }
+
+    /**
+     * @param key
+     *            the non-null key to look up
+     * @return the value of the key, null if the map does not contain the key
+     */
+    public V get(K key) {
+        Entry<K, V> entry = tree.get(Entry.probe(key));
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Adds a key or updates its value
+     * 
+     * @param key
+     *            the non-null key
+     * @param value
+     *            the non-null value
+     * @return the previous value of the key, null if the key has been newly added
+     */
+    public V put(K key, V value) {
+        Entry<K, V> replaced = tree.put(new Entry<>(key, value, valueHashFunction.hashBytes(value.toByteArray())));
+        return replaced == null ? null : replaced.value;
+    }
+
+    /**
+     * @param key
+     *            the non-null key to remove
+     * @return the value of the removed key, null if the map did not contain the key
+     */
+    public V remove(K key) {
+        RemoveResult<Entry<K, V>> result = tree.remove(Entry.probe(key));
+        return result.wasRemoved() ? result.getByteable().value : null;
+    }
+
+    /**
+     * @return the root hash and the amount of hashes calculated to get it
+     */
+    public HashWithCount getHashWithCount() {
+        return tree.getHashWithCount();
+    }
+
+    /**
+     * @return the root hash of the map, null for an empty map
+     */
+    public byte[] getRootHash() {
+        return tree.getRootHash();
+    }
+
+    /**
+     * Calls the action for every key and its value, in ascending key order
+     * 
+     * @param action
+     *            the action to call
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Spliterator<Entry<K, V>> entries = tree.spliterator();
+        entries.forEachRemaining(entry -> action.accept(entry.key, entry.value));
+    }
+
+    /**
+     * Entry of the underlying tree, ordered and compared by its key only. Split keys of inner nodes are key-only
+     * entries, so they do not keep old values alive.
+     */
+    private static final class Entry<K extends IByteable<K>, V extends IByteable<V>> implements IByteable<Entry<K, V>> {
+
+        private final K key;
+        private final V value;
+        private final byte[] valueHash;
+
+        Entry(K key, V value, byte[] valueHash) {
+            this.key = key;
+            this.value = value;
+            this.valueHash = valueHash;
+        }
+
+        static <K extends IByteable<K>, V extends IByteable<V>> Entry<K, V> probe(K key) {
+            return new Entry<>(key, null, null);
+        }
+
+        @Override
+        public byte[] toByteArray() {
+            return key.toByteArray();
+        }
+
+        @Override
+        public int compareTo(Entry<K, V> other) {
+            return key.compareTo(other.key);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Entry && key.equals(((Entry<?, ?>) obj).key);
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    /**
+     * Leaf that hashes the value hash of its entry after the key
+     */
+    private static final class LeafNode<K extends IByteable<K>, V extends IByteable<V>> extends MerkleNode<Entry<K, V>> {
+
+        LeafNode(Entry<K, V> entry) {
+            super(entry);
+        }
+
+        @Override
+        protected MerkleNode<Entry<K, V>> createNode(Entry<K, V> entry) {
+            return new LeafNode<>(entry);
+        }
+
+        @Override
+        Entry<K, V> leftmostKey() {
+            return Entry.probe(key.key);
+        }
+
+        @Override
+        void writeHashBytes(HashEncoder encoder) {
+            super.writeHashBytes(encoder);
+            encoder.writeVarintBytes(key.valueHash);
+        }
+    }
+}
@@ -23,50 +23,52 @@
  */
 package com.github.jtendermint.merkletree;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Objects;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
 
-import com.github.jtendermint.crypto.ByteUtil;
 import com.github.jtendermint.crypto.HashFunction;
 import com.github.jtendermint.crypto.RipeMD160;
-import com.github.jtendermint.crypto.gowire.WireEncode;
 import com.github.jtendermint.merkletree.byteable.types.IByteable;
 
+/**
+ * A node of a {@link MerkleTree}. Instances of this class are leaves and hold an entry, inner nodes are
+ * {@link InnerNode}s which additionally hold height, size and their two children. Leaves carry none of those fields.
+ * <p>
+ * Earlier versions had a public {@code MerkleNode(key, leftNode, rightNode)} constructor for inner nodes. It has been
+ * removed because a MerkleNode can no longer hold children; inner nodes are only created by the tree, use
+ * {@link MerkleTree#add(IByteable)} or {@link MerkleTree#fromSorted(java.util.Iterator)} instead. Hashes, heights,
+ * sizes and the order of {@link #iterateNodes(IterateFunction)} are the same as before.
+ */
 public class MerkleNode<K extends IByteable> {
 
-    private K key;
-    private int height;
-    private int size;
+    K key;
 
-    private byte[] hash;
-    private byte[] leftChildHash;
-    private byte[] rightChildHash;
+    /**
+     * Calculated on demand, also on nodes that snapshots read from other threads. Volatile so that those threads see
+     * the whole array.
+     */
+    volatile byte[] hash;
 
-    private MerkleNode<K> leftChildNode;
-    private MerkleNode<K> rightChildNode;
-    
-    protected HashFunction hashFunction = new RipeMD160();
+    /**
+     * The edit session this node was created in. While the tree's current token is the same, no older version can
+     * reference this node and it may be mutated in place instead of being copied. Volatile because a save marks nodes
+     * that snapshots may share as persisted.
+     */
+    volatile OwnerToken owner;
 
-    public MerkleNode(K key) {
-        this(key, 0, 1, null, null, null, null);
-    }
+    /**
+     * Used by the methods that do not take a hash function, RipeMD160 keeps no state and may be shared
+     */
+    static final HashFunction DEFAULT_HASH_FUNCTION = new RipeMD160();
 
-    public MerkleNode(K key, MerkleNode<K> leftNode, MerkleNode<K> rightNode) {
-        this(key, 1, 2, null, leftNode, null, rightNode);
-    }
-
-    private MerkleNode(K key, int height, int size, byte[] leftHash, MerkleNode<K> leftNode, byte[] rightHash, MerkleNode<K> rightNode) {
+    public MerkleNode(K key) {
         this.key = key;
-        this.height = height;
-        this.size = size;
-        this.hash = null;
-        this.leftChildHash = leftHash == null ? null : Arrays.copyOf(leftHash, leftHash.length);
-        this.leftChildNode = leftNode;
-        this.rightChildHash = rightHash == null ? null : Arrays.copyOf(rightHash, rightHash.length);
-        this.rightChildNode = rightNode;
     }
 
     public K getKey() {
@@ -74,11 +76,11 @@ public class MerkleNode<K extends IByteable> {
     }
 
     public int getSize() {
-        return size;
+        return 1;
     }
 
     public int getHeight() {
-        return height;
+        return 0;
     }
 
     public boolean contains(K entry) {
@@ -86,241 +88,463 @@ public class MerkleNode<K extends IByteable> {
     }
 
     public KeyIndex<K> get(int index) {
-        if (this.height == 0) {
-            if (index == 0) {
-                return new KeyIndex<K>(key, true, 0);
-            } else {
-                throw new RuntimeException("Asked for index > 0 with a height of 0");
-            }
+        if (index == 0) {
+            return new KeyIndex<K>(key, true, 0);
         } else {
-            if (index < leftChildNode.size) {
-                return leftChildNode.get(index);
-            } else {
-                return rightChildNode.get(index - leftChildNode.size);
-            }
+            throw new RuntimeException("Asked for index > 0 with a height of 0");
         }
     }
 
     public K get(K entry) {
         if (entry != null && entry.equals(key)) {
             return key;
-        } else if (this.height == 0) {
-            return null;
         } else {
-            if (entry.compareTo(key) < 0) {
-                return this.leftChildNode.get(entry);
-            } else {
-                return this.rightChildNode.get(entry);
-            }
+            return null;
         }
     }
 
     public AddResult<K> add(K entry) {
+        return add(entry, null);
+    }
+
+    /**
+     * Add or update an entry in this subtree
+     * 
+     * @param entry
+     *            the non-null entry to add
+     * @param owner
+     *            the current edit session, nodes owned by it are mutated in place. null copies every node on the path.
+     * @return the new root of this subtree and whether an existing entry was updated
+     */
+    AddResult<K> add(K entry, OwnerToken owner) {
         int compareResult = entry.compareTo(this.key);
-        if (height == 0) {
-            if (compareResult < 0) {
-                MerkleNode<K> newNode = new MerkleNode<>(this.key, createNode(entry), this);
-                return new AddResult<K>(newNode, false);
-            } else if (compareResult == 0) {
-                return new AddResult<K>(createNode(entry), true);
-            } else {
-                MerkleNode<K> newNode = new MerkleNode<>(entry, this, createNode(entry));
-                return new AddResult<K>(newNode, false);
-            }
+        if (compareResult < 0) {
+            MerkleNode<K> newNode = new InnerNode<>(this.leftmostKey(), createNode(entry, owner), this, owner);
+            return new AddResult<K>(newNode, false);
+        } else if (compareResult == 0) {
+            return new AddResult<K>(createNode(entry, owner), key);
         } else {
-            MerkleNode<K> newNode = this.createCopy();
-            AddResult<K> newNodeResult;
-            if (entry.compareTo(newNode.key) < 0) {
-                newNodeResult = newNode.leftChildNode.add(entry);
-                newNode.leftChildNode = newNodeResult.getNode(); //newNodeResult.getNode();
-                newNode.leftChildHash = null;
-            } else {
-                newNodeResult = newNode.rightChildNode.add(entry);
-                newNode.rightChildNode = newNodeResult.getNode();
-                newNode.rightChildHash = null;
-            }
-
-            if (newNodeResult.wasUpdated()) {
-                return new AddResult<K>(newNode, true);
-            } else {
-                newNode.updateHeightAndSize();
-                return new AddResult<K>(newNode.balance(), false);
-            }
+            MerkleNode<K> newLeaf = createNode(entry, owner);
+            MerkleNode<K> newNode = new InnerNode<>(newLeaf.leftmostKey(), this, newLeaf, owner);
+            return new AddResult<K>(newNode, false);
         }
     }
 
-    private MerkleNode<K> balance() {
-        int balance = this.getBalance();
-        if (balance > 1) {
-            if (this.leftChildNode.getBalance() >= 0) {
-                // Left Left Case
-                return this.rotateRight();
-            } else {
-                // Left Right Case
-                MerkleNode<K> newNode = this.createCopy();
-                newNode.leftChildHash = null;
-                newNode.leftChildNode = newNode.leftChildNode.rotateLeft();
-                return newNode.rotateRight();
-            }
+    /**
+     * Applies a sorted batch of adds and removes to this subtree in a single traversal. The batch is split at the key
+     * of every inner node, untouched subtrees are shared and every touched node is rebuilt exactly once on the way
+     * back up.
+     * 
+     * @param adds
+     *            distinct entries in ascending order, none of them contained in removes
+     * @param addFrom
+     *            first index of adds that belongs to this subtree (inclusive)
+     * @param addTo
+     *            last index of adds that belongs to this subtree (exclusive)
+     * @param removes
+     *            distinct entries in ascending order
+     * @param removeFrom
+     *            first index of removes that belongs to this subtree (inclusive)
+     * @param removeTo
+     *            last index of removes that belongs to this subtree (exclusive)
+     * @param owner
+     *            the current edit session, may be null
+     * @return the new root of this subtree, null if all of its leaves have been removed
+     */
+    MerkleNode<K> applyBatch(List<K> adds, int addFrom, int addTo, List<K> removes, int removeFrom, int removeTo, OwnerToken owner) {
+        if (addFrom == addTo && removeFrom == removeTo) {
+            return this;
         }
-        if (balance < -1) {
-            if (this.rightChildNode.getBalance() <= 0) {
-                // Right Right Case
-                return this.rotateLeft();
-            } else {
-                // Right Left Case
-                MerkleNode<K> newNode = this.createCopy();
-                newNode.rightChildHash = null;
-                newNode.rightChildNode = newNode.rightChildNode.rotateRight();
-                return newNode.rotateLeft();
+        int removeIndex = indexOf(removes, removeFrom, removeTo, key);
+        boolean keep = removeIndex == removeTo || removes.get(removeIndex).compareTo(key) != 0;
+        List<MerkleNode<K>> leaves = new ArrayList<>(addTo - addFrom + 1);
+        TreeStats stats = OwnerToken.statsOf(owner);
+        for (int i = addFrom; i < addTo; i++) {
+            K entry = adds.get(i);
+            if (stats != null) {
+                stats.recordWrite(entry.compareTo(key) == 0);
+            }
+            if (keep && entry.compareTo(key) >= 0) {
+                // an equal entry replaces this leaf
+                keep = false;
+                if (entry.compareTo(key) > 0) {
+                    leaves.add(this);
+                }
             }
+            leaves.add(createNode(entry, owner));
         }
-        // no changes - balanced
-        return this;
+        if (keep) {
+            leaves.add(this);
+        }
+        return leaves.isEmpty() ? null : fromSortedLeaves(leaves, 0, leaves.size(), owner);
     }
 
-    private MerkleNode<K> rotateLeft() {
-        MerkleNode<K> newNode = this.createCopy();
-        MerkleNode<K> rightCopy = newNode.rightChildNode.createCopy();
+    /**
+     * @return the key to split on in front of this subtree, the smallest key of it
+     */
+    K leftmostKey() {
+        return key;
+    }
 
-        newNode.rightChildHash = rightCopy.leftChildHash;
-        newNode.rightChildNode = rightCopy.leftChildNode;
-        rightCopy.leftChildNode = newNode;
+    /**
+     * @return the amount of entries in this subtree that are smaller than entry
+     */
+    int rank(K entry) {
+        return key.compareTo(entry) < 0 ? 1 : 0;
+    }
 
-        newNode.updateHeightAndSize();
-        rightCopy.updateHeightAndSize();
-        return rightCopy;
+    /**
+     * Reveals the leaves with keys from first to last (both inclusive) and prunes every subtree without such a leaf.
+     * All nodes have to be hashed.
+     */
+    ProofNode<K> prove(K first, K last) {
+        return ProofNode.leaf(key);
     }
 
-    private MerkleNode<K> rotateRight() {
-        MerkleNode<K> newNode = this.createCopy();
-        MerkleNode<K> leftCopy = newNode.leftChildNode.createCopy();
+    /**
+     * Reveals the leaves of the sorted, distinct entries in [from, to) and prunes every subtree without one. All nodes
+     * have to be hashed and the range must not be empty.
+     */
+    ProofNode<K> proveAll(List<K> entries, int from, int to) {
+        return ProofNode.leaf(key);
+    }
 
-        newNode.leftChildHash = leftCopy.rightChildHash;
-        newNode.leftChildNode = leftCopy.rightChildNode;
-        leftCopy.rightChildHash = null;
-        leftCopy.rightChildNode = newNode;
+    /**
+     * @return the first index in the sorted range whose entry is not smaller than key, to if there is none
+     */
+    static <K extends IByteable> int indexOf(List<K> entries, int from, int to, K key) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (entries.get(mid).compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
 
-        newNode.updateHeightAndSize();
-        leftCopy.updateHeightAndSize();
-        return leftCopy;
+    int getBalance() {
+        return 0;
     }
 
-    private int getBalance() {
-        return leftChildNode.height - rightChildNode.height;
+    public RemoveResult<K> remove(K entry) {
+        return remove(entry, null, DEFAULT_HASH_FUNCTION);
     }
 
-    private void updateHeightAndSize() {
-        this.height = Math.max(leftChildNode.getHeight(), rightChildNode.getHeight()) + 1;
-        this.size = leftChildNode.getSize() + rightChildNode.getSize();
+    /**
+     * Remove an entry from this subtree. The path to the removed leaf is copied (or edited in place if owned by the
+     * session) and rebalanced, the removed leaf's sibling takes the place of its parent.
+     * 
+     * @param entry
+     *            the non-null entry to remove
+     * @param owner
+     *            the current edit session, nodes owned by it are mutated in place. null copies every node on the path.
+     * @param hashFunction
+     *            the hash function of the tree, used to hash the new root
+     * @return the new root of this subtree with its hash and the removed entry. The node and hash are null if the
+     *         last entry was removed, an unchanged tree is reported with wasRemoved() == false.
+     */
+    RemoveResult<K> remove(K entry, OwnerToken owner, HashFunction hashFunction) {
+        RemoveResult<K> result = removeEntry(entry, owner);
+        if (!result.wasRemoved()) {
+            return result;
+        }
+        MerkleNode<K> newNode = result.getNode();
+        byte[] newHash = newNode == null ? null : newNode.getHashWithCount(hashFunction).hash;
+        return new RemoveResult<K>(newHash, newNode, result.getByteable(), true);
     }
 
-    public boolean remove(K entry) {
-        throw new UnsupportedOperationException("Not yet implemented");
+    /**
+     * Removes an entry from this subtree in a single walk, without hashing. Nothing is copied or edited if the subtree
+     * does not contain the entry.
+     * 
+     * @return the new root of this subtree, null if it consisted only of the leaf for entry, and the removed entry.
+     *         wasRemoved() is false if the subtree does not contain entry.
+     */
+    RemoveResult<K> removeEntry(K entry, OwnerToken owner) {
+        if (entry.equals(key)) {
+            return new RemoveResult<K>(null, null, key, true);
+        } else {
+            return new RemoveResult<K>(entry, false);
+        }
     }
 
     public HashWithCount getHashWithCount() {
+        return getHashWithCount(DEFAULT_HASH_FUNCTION);
+    }
+
+    /**
+     * Calculates the hash of this node and of all descendants that have not been hashed yet. Hashes are cached in the
+     * nodes, so all nodes of a tree have to be hashed with the same function.
+     * 
+     * @param hashFunction
+     *            the hash function of the tree
+     * @return the hash and the amount of hashes that were calculated
+     */
+    public HashWithCount getHashWithCount(HashFunction hashFunction) {
         //LOG.debug("Starting hashWithCount at height={}", height);
         if (this.hash != null) {
             //LOG.debug("Node already had a hash. Returning 0-hashcount");
             return new HashWithCount(this.hash, 0);
         }
-        try (ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream()) {
-            int hashCount = this.writeHashBytes(byteOutStream);
-            //LOG.debug("Done hashWithCount at height: {} with hashcount={}", this.height, hashCount);
-            this.hash = hashFunction.hashBytes(byteOutStream.toByteArray());
-            return new HashWithCount(this.hash, hashCount + 1);
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
+        int hashCount = this.calculateHash(hashFunction);
+        //LOG.debug("Done hashWithCount at height: {} with hashcount={}", this.height, hashCount);
+        return new HashWithCount(this.hash, hashCount);
+    }
+
+    /**
+     * Hashes this node and every descendant without a hash. The children are hashed first, so that this node can be
+     * encoded into the thread's reusable buffer in one go.
+     * 
+     * @return the amount of hashes that were calculated
+     */
+    int calculateHash(HashFunction hashFunction) {
+        if (this.hash != null) {
+            return 0;
         }
+        int hashCount = this.calculateChildHashes(hashFunction);
+        HashEncoder encoder = HashEncoder.get();
+        this.writeHashBytes(encoder);
+        this.hash = hashFunction.hashBytes(encoder.toByteArray());
+        return hashCount + 1;
     }
 
-    private int writeHashBytes(ByteArrayOutputStream bos) throws IOException {
-        int hashCount = 0;
-        // TODO overflow / negative ?
-        bos.write((byte) this.height);
-        bos.write(WireEncode.writeWithVarint(BigInteger.valueOf(size).toByteArray()));
+    /**
+     * @return the amount of hashes calculated for the children of this node
+     */
+    int calculateChildHashes(HashFunction hashFunction) {
+        return 0;
+    }
 
-        // TODO what does the following mean?
+    /**
+     * Calculates the hash of this node like {@link #getHashWithCount(HashFunction)}, but hashes the two children of a
+     * node in parallel whenever both still need hashing and the node holds at least threshold leaves. A node with a
+     * single dirty child descends into that child, so a dirty subtree below a clean path is still split. The result is
+     * identical to the sequential calculation.
+     * 
+     * @param pool
+     *            the pool to run the hashing tasks in
+     * @param threshold
+     *            the minimum subtree size for which both children are hashed in parallel
+     * @param hashFunctions
+     *            called by every worker, has to return a hash function that is confined to the calling thread
+     * @return the hash and the amount of hashes that were calculated
+     */
+    public HashWithCount getHashWithCount(ForkJoinPool pool, int threshold, Supplier<? extends HashFunction> hashFunctions) {
+        if (this.hash != null) {
+            return new HashWithCount(this.hash, 0);
+        }
+        int hashCount = pool.invoke(new HashTask<K>(this, threshold, hashFunctions));
+        return new HashWithCount(this.hash, hashCount);
+    }
 
-        if (this.height == 0) {
-            bos.write(WireEncode.writeWithVarint(key.toByteArray()));
-        } else {
-            if (this.leftChildNode != null) {
-                HashWithCount leftHashCount = this.leftChildNode.getHashWithCount();
-                this.leftChildHash = Objects.requireNonNull(leftHashCount.hash, "this.leftHash was null in writeHashBytes");
-                hashCount += leftHashCount.count;
+    private static class HashTask<K extends IByteable> extends RecursiveTask<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final MerkleNode<K> node;
+        private final int threshold;
+        private final Supplier<? extends HashFunction> hashFunctions;
+
+        HashTask(MerkleNode<K> node, int threshold, Supplier<? extends HashFunction> hashFunctions) {
+            this.node = node;
+            this.threshold = threshold;
+            this.hashFunctions = hashFunctions;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (node.hash != null) {
+                return 0;
             }
-            bos.write(WireEncode.writeWithVarint(this.leftChildHash));
-            if (this.rightChildNode != null) {
-                HashWithCount rightHashCount = this.rightChildNode.getHashWithCount();
-                this.rightChildHash = Objects.requireNonNull(rightHashCount.hash, "this.rightHash was null in writeHashBytes");
-                hashCount += rightHashCount.count;
+            if (node.isLeafNode() || node.getSize() < threshold) {
+                return node.calculateHash(hashFunctions.get());
             }
-            bos.write(WireEncode.writeWithVarint(this.rightChildHash));
-
+            InnerNode<K> inner = (InnerNode<K>) node.resolve();
+            MerkleNode<K> left = inner.getLeftChildNode();
+            MerkleNode<K> right = inner.getRightChildNode();
+            int hashCount;
+            if (left.hash != null) {
+                hashCount = new HashTask<>(right, threshold, hashFunctions).compute();
+            } else if (right.hash != null) {
+                hashCount = new HashTask<>(left, threshold, hashFunctions).compute();
+            } else {
+                HashTask<K> leftTask = new HashTask<>(left, threshold, hashFunctions);
+                leftTask.fork();
+                hashCount = new HashTask<>(right, threshold, hashFunctions).compute();
+                hashCount += leftTask.join();
+            }
+            // both children are hashed, this only hashes the node itself
+            return hashCount + node.calculateHash(hashFunctions.get());
         }
-        return hashCount;
     }
 
-    public byte[] save() {
+    void writeHashBytes(HashEncoder encoder) {
+        // height and size of a leaf
+        encoder.writeByte(0);
+        encoder.writeVarintBigInteger(1);
+        encoder.writeVarintBytes(key.toByteArray());
+    }
 
-        if (hash == null) {
-            hash = getHashWithCount().hash;
-        }
+    public byte[] save() {
+        return save(DEFAULT_HASH_FUNCTION);
+    }
 
-        if (leftChildNode != null) {
-            leftChildHash = leftChildNode.save();
-        }
+    /**
+     * Hashes the nodes that changed since the last save. A node with a hash has a clean, hashed subtree, so the walk
+     * stops there.
+     * 
+     * @param hashFunction
+     *            the hash function of the tree
+     * @return the hash of this node
+     */
+    public byte[] save(HashFunction hashFunction) {
 
-        if (rightChildNode != null) {
-            rightChildHash = rightChildNode.save();
+        if (hash == null) {
+            hash = getHashWithCount(hashFunction).hash;
         }
 
         return Arrays.copyOf(hash, hash.length);
     }
 
     public MerkleNode<K> createCopy() {
-        if (this.height == 0) {
-            throw new RuntimeException("Cannot copy Value-Nodes");
-        } else {
-            return new MerkleNode<K>(key, this.height, this.size, this.leftChildHash, this.leftChildNode, this.rightChildHash,
-                    this.rightChildNode);
+        throw new RuntimeException("Cannot copy Value-Nodes");
+    }
+
+    /**
+     * @return the node itself, or the loaded node for a node that is only a placeholder for a stored node
+     */
+    MerkleNode<K> resolve() {
+        return this;
+    }
+
+    /**
+     * Writes this node and all of its descendants that the store does not have yet. Children are written before their
+     * parent, so a node that is already stored implies that its whole subtree is stored and the traversal stops there.
+     * All nodes have to be hashed. Written and found nodes are marked as persisted and become persistent.
+     * 
+     * @param store
+     *            the store to write to
+     * @param skipPersisted
+     *            true if store is the store the tree was saved to or loaded from, persisted nodes and stored
+     *            placeholders are then skipped without asking the store
+     * @param releaseTo
+     *            the loader of store whose cache takes over the persisted nodes below its resident levels, see
+     *            {@link NodeLoader#release(MerkleNode)}. Null keeps the nodes in the tree.
+     */
+    void persist(NodeStore store, boolean skipPersisted, NodeLoader<K> releaseTo) {
+        if (skipPersisted && owner == OwnerToken.PERSISTED) {
+            return;
+        }
+        if (!store.contains(hash)) {
+            persistChildren(store, skipPersisted, releaseTo);
+            store.put(hash, toStoreBytes());
+        } else if (releaseTo != null) {
+            // the store has the subtree already, its nodes still have to be released
+            persistChildren(store, skipPersisted, releaseTo);
+        }
+        owner = OwnerToken.PERSISTED;
+        if (releaseTo != null) {
+            releaseChildren(releaseTo);
         }
     }
 
+    void persistChildren(NodeStore store, boolean skipPersisted, NodeLoader<K> releaseTo) {
+    }
+
+    /**
+     * Replaces the stored children of this node by placeholders if they are below the resident levels of the loader
+     */
+    void releaseChildren(NodeLoader<K> loader) {
+    }
+
+    /**
+     * @return the bytes of this node in a {@link NodeStore}, see {@link NodeLoader} for the layout
+     */
+    byte[] toStoreBytes() {
+        byte[] keyBytes = key.toByteArray();
+        return ByteBuffer.allocate(1 + keyBytes.length).put((byte) 0).put(keyBytes).array();
+    }
+
     public String toPrettyString() {
-        if (this.height == 0) {
-            return String.valueOf(new BigInteger(key.toByteArray()).intValue());
-        } else {
-            return "(" + this.leftChildNode.toPrettyString() + " " + this.rightChildNode.toPrettyString() + ")";
-        }
+        return String.valueOf(new BigInteger(key.toByteArray()).intValue());
     }
 
     public boolean isLeafNode() {
-        return height == 0;
+        return true;
     }
 
     public boolean iterateNodes(IterateFunction<K> func) {
-        boolean stop = func.currentNode(this);
-        if (stop) {
-            return true;
-        }
-        if (this.height > 0) {
-            stop = this.leftChildNode.iterateNodes(func);
-            if (stop) {
-                return true;
-            }
-            stop = this.rightChildNode.iterateNodes(func);
-            if (stop) {
-                return true;
-            }
-        }
-        return false;
+        return func.currentNode(this);
+    }
+
+    /**
+     * Visits the leaves with keys in [from, to) in key order. Only subtrees whose keys can overlap the range are
+     * descended into, inner nodes are not passed to the function.
+     * 
+     * @param from
+     *            the first key of the range (inclusive), null for no lower bound
+     * @param to
+     *            the end of the range (exclusive), null for no upper bound
+     * @param ascending
+     *            true to visit the leaves in ascending order, false for descending
+     * @param func
+     *            the function to call for every leaf
+     * @return <code>true</code> if the function stopped the iteration
+     */
+    public boolean iterateRange(K from, K to, boolean ascending, IterateFunction<K> func) {
+        boolean inRange = (from == null || key.compareTo(from) >= 0) && (to == null || key.compareTo(to) < 0);
+        return inRange && func.currentNode(this);
     }
     
     protected MerkleNode<K> createNode(K entry) {
         return new MerkleNode<K>(entry);
     }
 
+    MerkleNode<K> createNode(K entry, OwnerToken owner) {
+        MerkleNode<K> node = createNode(entry);
+        node.owner = owner;
+        return node;
+    }
+
+    /**
+     * Appends all leaves of this subtree to the given list, in ascending key order
+     * 
+     * @param leaves
+     *            the list to append to
+     */
+    void collectLeaves(List<MerkleNode<K>> leaves) {
+        leaves.add(this);
+    }
+
+    /**
+     * Builds a balanced tree bottom-up from a range of sorted, distinct leaves. Every inner node is created exactly
+     * once with its final height and size, so no rotations or intermediate copies are necessary.
+     * 
+     * @param leaves
+     *            the leaves in ascending key order
+     * @param from
+     *            index of the first leaf (inclusive)
+     * @param to
+     *            index of the last leaf (exclusive), must be greater than from
+     * @param owner
+     *            the current edit session, may be null
+     * @return the root of the new subtree
+     */
+    static <K extends IByteable> MerkleNode<K> fromSortedLeaves(List<MerkleNode<K>> leaves, int from, int to, OwnerToken owner) {
+        int count = to - from;
+        if (count == 1) {
+            return leaves.get(from);
+        }
+        // the right half gets the extra leaf, this mirrors the shape incremental adds produce for small trees
+        int mid = from + count / 2;
+        MerkleNode<K> left = fromSortedLeaves(leaves, from, mid, owner);
+        MerkleNode<K> right = fromSortedLeaves(leaves, mid, to, owner);
+        // an inner node's key is the smallest key of its right subtree
+        return new InnerNode<K>(leaves.get(mid).leftmostKey(), left, right, owner);
+    }
+
 }
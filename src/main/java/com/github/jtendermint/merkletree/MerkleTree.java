@@ -25,12 +25,199 @@ package com.github.jtendermint.merkletree;
 
 import com.github.jtendermint.merkletree.byteable.types.IByteable;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import com.github.jtendermint.crypto.ByteUtil;
+import com.github.jtendermint.crypto.HashFunction;
+import com.github.jtendermint.crypto.RipeMD160;
+
+/**
+ * Merkle-ized AVL tree.
+ * <p>
+ * Nodes are persistent: every change copies the path to the root and leaves older roots intact. Nodes that were created
+ * since the tree last handed out its nodes, e.g. through {@link #getRoot()} or {@link #iterateNodes(IterateFunction)},
+ * cannot be referenced by anyone else. Those are changed in place instead of being copied again (transient mode).
+ * <p>
+ * The same persistence makes {@link #snapshot()} and {@link #commit()} O(1): a read-only view simply keeps the root of
+ * its version.
+ * <p>
+ * The hash function is a strategy of the tree, its nodes do not carry one.
+ */
 public class MerkleTree<K extends IByteable> implements IMerkleTree<K> {
 
+    private final Supplier<? extends HashFunction> hashFunctions;
+
+    private HashFunction hashFunction;
+
+    private ThreadLocal<HashFunction> parallelHashFunctions;
+
     private MerkleNode<K> rootNode;
 
+    private TreeStats stats;
+
+    private OwnerToken owner = new OwnerToken(null);
+
+    /**
+     * The result of the last removal as long as its root is still part of the current edit session
+     */
+
+    /**
+     * The store the persisted nodes of this tree are in, see {@link #save(NodeStore)}
+     */
+    private NodeStore savedTo;
+
+    /**
+     * The {@link NodeStore#getGeneration()} of savedTo when this tree was saved to or loaded from it
+     */
+    private long savedGeneration;
+
+    /**
+     * Loads the nodes of a tree opened from a store, null for other trees
+     */
+    private NodeLoader<K> loader;
+
+    private int parallelHashThreshold = 1 << 12;
+
+    private long version;
+
+    private final ArrayDeque<MerkleTreeSnapshot<K>> committed = new ArrayDeque<>();
+
+    private int retainedVersions = 1;
+
+    /**
+     * Creates a new RipeMD160 tree from entries in ascending order, see {@link #fromSorted(Supplier, Iterator)}
+     */
+    public static <K extends IByteable> MerkleTree<K> fromSorted(Iterator<K> entries) {
+        return fromSorted(RipeMD160::new, entries);
+    }
+
+    /**
+     * Creates a new tree from entries in ascending order, see {@link #addAllSorted(Iterator)}
+     * 
+     * @param hashFunctions
+     *            creates the hash functions of the tree, see {@link #MerkleTree(Supplier)}
+     * @param entries
+     *            non-null entries in ascending order
+     * @return a new balanced tree containing all entries
+     */
+    public static <K extends IByteable> MerkleTree<K> fromSorted(Supplier<? extends HashFunction> hashFunctions, Iterator<K> entries) {
+        MerkleTree<K> tree = new MerkleTree<>(hashFunctions);
+        tree.addAllSorted(entries);
+        return tree;
+    }
+
+    /**
+     * Opens a RipeMD160 tree that has been saved to a store, see {@link #load(Supplier, NodeStore, byte[], Function)}
+     */
+    public static <K extends IByteable> MerkleTree<K> load(NodeStore store, byte[] rootHash, Function<byte[], K> keyDecoder) {
+        return load(RipeMD160::new, store, rootHash, keyDecoder);
+    }
+
+    /**
+     * Opens a tree that has been saved to a store, see {@link #load(Supplier, NodeStore, byte[], Function, NodeCache)}.
+     * Every node that has been loaded stays in memory.
+     */
+    public static <K extends IByteable> MerkleTree<K> load(Supplier<? extends HashFunction> hashFunctions, NodeStore store, byte[] rootHash,
+            Function<byte[], K> keyDecoder) {
+        return load(hashFunctions, store, rootHash, keyDecoder, null);
+    }
+
+    /**
+     * Opens a tree that has been saved to a store. Nothing is read up front, nodes are loaded from the store when they
+     * are accessed for the first time. With a cache, the nodes that later saves to the same store write are handed
+     * over to the cache as well, so a tree that keeps changing and saving stays within the budget of the cache.
+     * 
+     * @param hashFunctions
+     *            creates the hash functions of the tree, has to match the function the tree was saved with
+     * @param store
+     *            the store the tree has been saved to
+     * @param rootHash
+     *            the root hash returned by {@link #save(NodeStore)}, null for an empty tree that is going to be saved
+     *            to the store
+     * @param keyDecoder
+     *            restores an entry from its {@link IByteable#toByteArray()}, e.g. {@code ByteableLong::fromByteArray}
+     * @param cache
+     *            bounds the memory of the loaded nodes below the pinned levels, null keeps every loaded node
+     * @return the tree with the given root hash
+     * @throws IllegalArgumentException
+     *             if the store does not contain the root
+     */
+    public static <K extends IByteable> MerkleTree<K> load(Supplier<? extends HashFunction> hashFunctions, NodeStore store, byte[] rootHash,
+            Function<byte[], K> keyDecoder, NodeCache<K> cache) {
+        if (rootHash != null && !store.contains(rootHash)) {
+            throw new IllegalArgumentException("Store does not contain the root " + ByteUtil.toString00(rootHash));
+        }
+        MerkleTree<K> tree = new MerkleTree<>(hashFunctions);
+        tree.loader = new NodeLoader<>(store, keyDecoder, cache);
+        if (rootHash != null) {
+            // nothing is read yet, the loader learns the height of the tree from the root once it is loaded
+            tree.rootNode = new StoredNode<>(Arrays.copyOf(rootHash, rootHash.length), tree.loader);
+        }
+        tree.savedTo = store;
+        tree.savedGeneration = store.getGeneration();
+        return tree;
+    }
+
+    /**
+     * Creates a tree that hashes with RipeMD160
+     */
+    public MerkleTree() {
+        this(RipeMD160::new);
+    }
+
+    /**
+     * Creates a tree with a custom hash function
+     * 
+     * @param hashFunctions
+     *            creates the hash functions of this tree. The tree uses one instance for all of its nodes, parallel
+     *            hashing creates one additional instance per worker thread.
+     */
+    public MerkleTree(Supplier<? extends HashFunction> hashFunctions) {
+        this.hashFunctions = hashFunctions;
+        this.hashFunction = hashFunctions.get();
+        this.parallelHashFunctions = ThreadLocal.withInitial(hashFunctions);
+    }
+
+    /**
+     * Starts or stops collecting operation counters
+     * 
+     * @param stats
+     *            the collector to record to, may be shared by several trees. null stops collecting.
+     */
+    public void setStats(TreeStats stats) {
+        this.stats = stats;
+        if (stats == null) {
+            hashFunction = hashFunctions.get();
+            parallelHashFunctions = ThreadLocal.withInitial(hashFunctions);
+        } else {
+            hashFunction = new CountingHashFunction(hashFunctions.get(), stats);
+            parallelHashFunctions = ThreadLocal.withInitial(() -> new CountingHashFunction(hashFunctions.get(), stats));
+        }
+        // the edit session carries the collector to the nodes
+        seal();
+    }
+
+    /**
+     * @return the totals of the collector together with the current height and size, null if no collector is set
+     * @see #setStats(TreeStats)
+     */
+    public TreeStats.Snapshot getStats() {
+        return stats == null ? null : stats.snapshot(getHeight(), size());
+    }
+
     @Override
     public int size() {
         return rootNode == null ? 0 : rootNode.getSize();
@@ -56,36 +243,339 @@ public class MerkleTree<K extends IByteable> implements IMerkleTree<K> {
         return rootNode == null ? null : rootNode.get(index);
     }
 
+    /**
+     * Finds the position of an entry in O(log n) using the subtree sizes
+     * 
+     * @param entry
+     *            the non-null entry to look up
+     * @return the index of the entry, or (-(insertion point) - 1) if it is not in the tree, like
+     *         {@link Collections#binarySearch(List, Object)}
+     */
+    public int indexOf(K entry) {
+        if (rootNode == null) {
+            return -1;
+        }
+        int rank = rootNode.rank(entry);
+        return rootNode.contains(entry) ? rank : -rank - 1;
+    }
+
+    /**
+     * Iterates the entries in ascending order, starting at an index. Finding the start costs O(log n).
+     * 
+     * @param fromIndex
+     *            the index of the first entry, size() for an empty iterator
+     * @return an iterator over the entries from fromIndex on
+     */
+    public Iterator<K> iterator(int fromIndex) {
+        if (fromIndex < 0 || fromIndex > size()) {
+            throw new IndexOutOfBoundsException("Index " + fromIndex + " for a tree of size " + size());
+        }
+        if (fromIndex == size()) {
+            return Collections.emptyIterator();
+        }
+        seal();
+        return Spliterators.iterator(new LeafSpliterator<>(rootNode, fromIndex));
+    }
+
     @Override
     public boolean add(K entry) {
+        return put(entry) != null;
+    }
+
+    /**
+     * Adds or updates an entry like {@link #add(IByteable)}
+     * 
+     * @param entry
+     *            the non-null entry to add
+     * @return the entry that has been replaced, null if the entry has been added
+     */
+    K put(K entry) {
+        K replaced = null;
+        if (rootNode == null) {
+            setRoot(createNode(entry));
+        } else {
+            AddResult<K> result = rootNode.add(entry, owner);
+            setRoot(result.getNode());
+            replaced = result.getReplaced();
+        }
+        if (stats != null) {
+            stats.recordWrite(replaced != null);
+        }
+        return replaced;
+    }
+
+    /**
+     * Add or update all entries of an ascending iterator in linear time. The existing leaves and the new entries are
+     * merged and a balanced tree is built bottom-up, without rotations and without copying intermediate nodes.
+     * Existing leaves keep their cached hashes, equal entries replace existing ones like {@link #add(IByteable)}.
+     * <p>
+     * The resulting tree is always perfectly balanced, whereas the shape of an incrementally built tree depends on
+     * the order of the adds. The root hash may therefore differ from the one the same entries give through
+     * incremental adds, it is only guaranteed to be equal for every tree built through this method.
+     * 
+     * @param entries
+     *            non-null entries in ascending order, a repeated entry replaces the previous one
+     * @throws IllegalArgumentException
+     *             if the entries are not in ascending order
+     */
+    public void addAllSorted(Iterator<K> entries) {
+        List<MerkleNode<K>> added = new ArrayList<>();
+        K previous = null;
+        while (entries.hasNext()) {
+            K entry = entries.next();
+            int compareResult = previous == null ? 1 : entry.compareTo(previous);
+            if (compareResult < 0) {
+                throw new IllegalArgumentException("Entries are not in ascending order: " + entry + " after " + previous);
+            } else if (compareResult == 0) {
+                added.set(added.size() - 1, createNode(entry));
+            } else {
+                added.add(createNode(entry));
+            }
+            previous = entry;
+        }
+        if (added.isEmpty()) {
+            return;
+        }
+
+        List<MerkleNode<K>> leaves = added;
+        if (rootNode != null) {
+            List<MerkleNode<K>> existing = new ArrayList<>(rootNode.getSize());
+            rootNode.collectLeaves(existing);
+            leaves = merge(existing, added);
+        }
+        if (stats != null) {
+            int inserts = leaves.size() - size();
+            stats.recordWrites(inserts, added.size() - inserts);
+        }
+        setRoot(MerkleNode.fromSortedLeaves(leaves, 0, leaves.size(), owner));
+    }
+
+    private List<MerkleNode<K>> merge(List<MerkleNode<K>> existing, List<MerkleNode<K>> added) {
+        List<MerkleNode<K>> merged = new ArrayList<>(existing.size() + added.size());
+        int i = 0;
+        int j = 0;
+        while (i < existing.size() && j < added.size()) {
+            int compareResult = existing.get(i).getKey().compareTo(added.get(j).getKey());
+            if (compareResult < 0) {
+                merged.add(existing.get(i++));
+            } else if (compareResult > 0) {
+                merged.add(added.get(j++));
+            } else {
+                // update: the new leaf replaces the existing one
+                merged.add(added.get(j++));
+                i++;
+            }
+        }
+        merged.addAll(existing.subList(i, existing.size()));
+        merged.addAll(added.subList(j, added.size()));
+        return merged;
+    }
+
+    /**
+     * Apply a batch of adds and removes in a single traversal of the tree. The batch is sorted and split at every
+     * inner node, so each touched node is copied and rehashed once per batch instead of once per entry.
+     * <p>
+     * Like {@link #addAllSorted(Iterator)} the resulting shape, and therefore the root hash, may differ from applying
+     * the same entries one at a time.
+     * 
+     * @param adds
+     *            non-null entries to add or update, if an entry occurs more than once the last occurrence wins
+     * @param removes
+     *            non-null entries to remove, entries that are not in the tree are ignored. An entry that is contained
+     *            in both collections is removed.
+     */
+    public void applyBatch(Collection<K> adds, Collection<K> removes) {
+        List<K> sortedRemoves = sortedDistinct(removes);
+        List<K> sortedAdds = new ArrayList<>(adds.size());
+        for (K entry : sortedDistinct(adds)) {
+            if (Collections.binarySearch(sortedRemoves, entry, (a, b) -> a.compareTo(b)) < 0) {
+                sortedAdds.add(entry);
+            }
+        }
+
         if (rootNode == null) {
-            rootNode = createNode(entry);
-            return false;
+            addAllSorted(sortedAdds.iterator());
         } else {
-            AddResult<K> result = rootNode.add(entry);
-            rootNode = result.getNode();
-            return result.wasUpdated();
+            setRoot(rootNode.applyBatch(sortedAdds, 0, sortedAdds.size(), sortedRemoves, 0, sortedRemoves.size(), owner));
+        }
+    }
+
+    private List<K> sortedDistinct(Collection<K> entries) {
+        List<K> sorted = new ArrayList<>(entries);
+        // stable sort, the last of several equal entries is kept
+        sorted.sort((a, b) -> a.compareTo(b));
+        List<K> distinct = new ArrayList<>(sorted.size());
+        for (K entry : sorted) {
+            int last = distinct.size() - 1;
+            if (last >= 0 && distinct.get(last).compareTo(entry) == 0) {
+                distinct.set(last, entry);
+            } else {
+                distinct.add(entry);
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * Looks up an entry together with a proof of its inclusion. The tree is hashed first, on a clean tree the proof
+     * only reads cached hashes along the path to the entry, in O(log n).
+     * 
+     * @param entry
+     *            the non-null entry to look up
+     * @return the entry from the tree and its proof, null if the entry is not in the tree
+     * @see InclusionProof#verify(InclusionProof, byte[], HashFunction)
+     */
+    public InclusionProof<K> getWithProof(K entry) {
+        if (rootNode == null) {
+            return null;
+        }
+        rootNode.getHashWithCount(hashFunction);
+        List<InclusionProof.PathNode> path = new ArrayList<>();
+        MerkleNode<K> node = rootNode.resolve();
+        while (!node.isLeafNode()) {
+            InnerNode<K> inner = (InnerNode<K>) node;
+            boolean left = entry.compareTo(inner.getKey()) < 0;
+            MerkleNode<K> sibling = left ? inner.getRightChildNode() : inner.getLeftChildNode();
+            path.add(new InclusionProof.PathNode(inner.getHeight(), inner.getSize(), sibling.hash, !left));
+            node = (left ? inner.getLeftChildNode() : inner.getRightChildNode()).resolve();
         }
+        if (!entry.equals(node.getKey())) {
+            return null;
+        }
+        Collections.reverse(path);
+        return new InclusionProof<>(node.getKey(), path);
     }
 
+    /**
+     * Looks up several entries together with one proof of their inclusion. The tree is walked once for the sorted
+     * entries and every node hash the proof needs is included once, so the proof grows with the subtree spanned by the
+     * entries instead of with k*log n.
+     * 
+     * @param entries
+     *            the non-null entries to look up
+     * @return the entries from the tree and their proof, null if one of them is not in the tree
+     * @see MultiProof#verify(MultiProof, byte[], HashFunction)
+     */
+    public MultiProof<K> getAllWithProof(Collection<K> entries) {
+        if (rootNode == null || entries.isEmpty()) {
+            return null;
+        }
+        rootNode.getHashWithCount(hashFunction);
+        List<K> sorted = sortedDistinct(entries);
+        MultiProof<K> proof = new MultiProof<>(rootNode.proveAll(sorted, 0, sorted.size()));
+        // every entry ends at a leaf, it must be the entry itself
+        return proof.getEntries().equals(sorted) ? proof : null;
+    }
+
+    /**
+     * Returns the entries in [from, to) with a proof that there are no others. At most limit entries are returned, if
+     * the range is cut short the end of the proof is the first entry that was left out. The proof reveals the entries
+     * and their two neighbours and shares the path above them, in O(k + log n).
+     * 
+     * @param from
+     *            the first key of the range (inclusive)
+     * @param to
+     *            the end of the range (exclusive)
+     * @param limit
+     *            the maximum amount of entries
+     * @return the proof, null for an empty tree
+     * @see RangeProof#verify(RangeProof, byte[], HashFunction)
+     */
+    public RangeProof<K> getRangeWithProof(K from, K to, int limit) {
+        if (from.compareTo(to) > 0 || limit < 0) {
+            throw new IllegalArgumentException("Invalid range [" + from + ", " + to + ") with limit " + limit);
+        }
+        if (rootNode == null) {
+            return null;
+        }
+        rootNode.getHashWithCount(hashFunction);
+        int size = rootNode.getSize();
+        int start = rootNode.rank(from);
+        int end = rootNode.rank(to);
+        K proofTo = to;
+        if (end - start > limit) {
+            end = start + limit;
+            proofTo = rootNode.get(end).getEntry();
+        }
+        // reveal the neighbours on both sides as well
+        K first = rootNode.get(Math.max(start - 1, 0)).getEntry();
+        K last = rootNode.get(Math.min(end, size - 1)).getEntry();
+        return new RangeProof<>(from, proofTo, rootNode.prove(first, last));
+    }
+
+    /**
+     * Proves that an entry is not in the tree by revealing its two neighbours
+     * 
+     * @param entry
+     *            the non-null entry
+     * @return the proof, null if the tree contains the entry or is empty
+     * @see RangeProof#verifyAbsence(RangeProof, IByteable, byte[], HashFunction)
+     */
+    public RangeProof<K> getAbsenceProof(K entry) {
+        if (contains(entry)) {
+            return null;
+        }
+        return getRangeWithProof(entry, entry, 0);
+    }
+
+    /**
+     * Removes an entry. Like {@link #add(IByteable)} nothing is hashed yet, the hash of the result is calculated when
+     * it is first read. The new root is sealed, so the result keeps describing the tree right after the removal, no
+     * matter how the tree is changed later.
+     */
     @Override
     public RemoveResult<K> remove(K key) {
         if (rootNode == null) {
-            return null;
+            return new RemoveResult<K>(key, false);
+        }
+        RemoveResult<K> result = rootNode.removeEntry(key, owner);
+        if (!result.wasRemoved()) {
+            return result;
         }
 
-        rootNode.remove(key);
-        //boolean result = rootNode.remove(key);
-        // rootNode = result.getRootNode();
-        // TODO Implement
-        return null;
+        setRoot(result.getNode());
+        // the result hands out the new root, later changes must copy it
+        seal();
+        return new SealedRemoveResult<K>(rootNode, result.getByteable(), hashFunction);
+    }
+
+    /**
+     * Result of {@link MerkleTree#remove(IByteable)} that hashes its persistent root on the first read of the hash
+     */
+    private static final class SealedRemoveResult<K extends IByteable> extends RemoveResult<K> {
+
+        private final MerkleNode<K> node;
+        private final HashFunction hashFunction;
+        private byte[] hash;
+
+        SealedRemoveResult(MerkleNode<K> node, K removed, HashFunction hashFunction) {
+            super(removed, true);
+            this.node = node;
+            this.hashFunction = hashFunction;
+        }
+
+        @Override
+        public MerkleNode<K> getNode() {
+            return node;
+        }
+
+        @Override
+        public byte[] getHash() {
+            if (node == null) {
+                return null;
+            }
+            if (hash == null) {
+                hash = node.getHashWithCount(hashFunction).hash;
+            }
+            return Arrays.copyOf(hash, hash.length);
+        }
     }
 
     @Override
     public HashWithCount getHashWithCount() {
         HashWithCount result = new HashWithCount(null, 0);
         if (rootNode != null) {
-            result = rootNode.getHashWithCount();
+            result = rootNode.getHashWithCount(hashFunction);
         }
         return result;
     }
@@ -95,13 +585,156 @@ public class MerkleTree<K extends IByteable> implements IMerkleTree<K> {
         if (rootNode == null) {
             return null;
         } else {
-            byte[] rootHash = rootNode.getHashWithCount().hash;
+            byte[] rootHash = rootNode.getHashWithCount(hashFunction).hash;
             return rootHash != null ? Arrays.copyOf(rootHash, rootHash.length) : null;
         }
     }
 
+    /**
+     * Hashes the tree and writes every node the store does not have yet. Nodes are marked once they are stored, a save
+     * to the same store as before only visits the nodes created since then and stops at marked subtrees, so it costs
+     * O(changed nodes) instead of O(n). A different store, or the same store after it dropped nodes (see
+     * {@link NodeStore#getGeneration()}), is checked node by node, unchanged subtrees are recognized by their hash.
+     * 
+     * @param store
+     *            the store to write to
+     * @return the root hash to {@link #load(NodeStore, byte[], Function)} the tree with, null for an empty tree
+     */
+    public byte[] save(NodeStore store) {
+        if (rootNode == null) {
+            return null;
+        }
+        byte[] rootHash = rootNode.getHashWithCount(hashFunction).hash;
+        long generation = store.getGeneration();
+        // written nodes can only be released to the loader of the same store
+        NodeLoader<K> releaseTo = loader != null && loader.getStore() == store ? loader : null;
+        rootNode.persist(store, store == savedTo && generation == savedGeneration, releaseTo);
+        while (store.getGeneration() != generation) {
+            // the store dropped nodes while they were skipped, check every node against it
+            generation = store.getGeneration();
+            rootNode.persist(store, false, releaseTo);
+        }
+        savedTo = store;
+        savedGeneration = generation;
+        if (releaseTo != null) {
+            releaseTo.setGeneration(generation);
+        }
+        store.flush();
+        return Arrays.copyOf(rootHash, rootHash.length);
+    }
+
+    /**
+     * Calculates the root hash like {@link #getHashWithCount()}, hashing dirty subtrees in parallel. Gives the same
+     * hash and count as the sequential calculation.
+     * 
+     * @param pool
+     *            the pool to hash in
+     * @return the Root-Hash and the amount of hashes
+     * @see #setParallelHashThreshold(int)
+     */
+    public HashWithCount getHashWithCount(ForkJoinPool pool) {
+        HashWithCount result = new HashWithCount(null, 0);
+        if (rootNode != null) {
+            result = rootNode.getHashWithCount(pool, parallelHashThreshold, parallelHashFunctions::get);
+        }
+        return result;
+    }
+
+    /**
+     * @param pool
+     *            the pool to hash in
+     * @return the root-hash, calculated in parallel, or null for an empty tree
+     * @see #getHashWithCount(ForkJoinPool)
+     */
+    public byte[] getRootHash(ForkJoinPool pool) {
+        return getHashWithCount(pool).hash;
+    }
+
+    /**
+     * @param threshold
+     *            the minimum amount of leaves a subtree needs before its two children are hashed in parallel
+     */
+    public void setParallelHashThreshold(int threshold) {
+        if (threshold < 2) {
+            throw new IllegalArgumentException("threshold must be at least 2, was " + threshold);
+        }
+        this.parallelHashThreshold = threshold;
+    }
+
+    /**
+     * Returns a read-only view of the current state in O(1), including changes that have not been committed yet. The
+     * view is tagged with the version of the last commit.
+     * 
+     * @return a view that is not affected by later changes to this tree
+     */
+    public MerkleTreeSnapshot<K> snapshot() {
+        seal();
+        return new MerkleTreeSnapshot<>(version, rootNode, parallelHashFunctions::get);
+    }
+
+    /**
+     * Hashes the current state, tags it with the next version and retains it, see {@link #setRetainedVersions(int)}.
+     * Views of versions that are no longer retained stay valid for whoever holds them, the tree merely releases its
+     * own reference so that their nodes can be collected.
+     * 
+     * @return a read-only view of the committed version
+     */
+    public MerkleTreeSnapshot<K> commit() {
+        if (rootNode != null) {
+            rootNode.getHashWithCount(hashFunction);
+        }
+        version++;
+        MerkleTreeSnapshot<K> snapshot = snapshot();
+        committed.addLast(snapshot);
+        releaseVersions();
+        if (stats != null) {
+            stats.publish(getHeight(), size());
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the version of the last commit, 0 if nothing has been committed
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @param version
+     *            a committed version
+     * @return the view of the version, null if it has not been committed or is no longer retained
+     */
+    public MerkleTreeSnapshot<K> getVersion(long version) {
+        for (MerkleTreeSnapshot<K> snapshot : committed) {
+            if (snapshot.getVersion() == version) {
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param retainedVersions
+     *            the amount of most recent commits the tree keeps, at least 1. Older versions are released.
+     */
+    public void setRetainedVersions(int retainedVersions) {
+        if (retainedVersions < 1) {
+            throw new IllegalArgumentException("retainedVersions must be at least 1, was " + retainedVersions);
+        }
+        this.retainedVersions = retainedVersions;
+        releaseVersions();
+    }
+
+    private void releaseVersions() {
+        while (committed.size() > retainedVersions) {
+            committed.removeFirst();
+        }
+    }
+
     @Override
     public MerkleNode<K> getRoot() {
+        seal();
         return rootNode;
     }
 
@@ -116,19 +749,91 @@ public class MerkleTree<K extends IByteable> implements IMerkleTree<K> {
     @Override
     public boolean iterateNodes(IterateFunction<K> function) {
         if (rootNode != null) {
+            seal();
             return rootNode.iterateNodes(function);
         }
         return false;
     }
     
+    /**
+     * Splits exactly in half at every inner node using the subtree sizes, so parallel streams scale without first
+     * collecting the keys. The tree is sealed, later changes do not affect the spliterator.
+     * 
+     * @return a spliterator over the keys in ascending order
+     */
+    public Spliterator<K> spliterator() {
+        if (rootNode == null) {
+            return Spliterators.emptySpliterator();
+        }
+        seal();
+        return new LeafSpliterator<>(rootNode);
+    }
+
+    /**
+     * @return a sequential stream of the keys in ascending order
+     */
+    public Stream<K> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * @return a parallel stream of the keys, see {@link #spliterator()}
+     */
+    public Stream<K> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Visits the leaves with keys in [from, to) in key order, descending only into subtrees that overlap the range. A
+     * scan of k keys touches O(k + log n) nodes.
+     * 
+     * @param from
+     *            the first key of the range (inclusive), null for no lower bound
+     * @param to
+     *            the end of the range (exclusive), null for no upper bound
+     * @param ascending
+     *            true to visit the leaves in ascending order, false for descending
+     * @param function
+     *            the function to call for every leaf, returns true to stop
+     * @return <code>true</code> if the function stopped the iteration
+     */
+    public boolean iterateRange(K from, K to, boolean ascending, IterateFunction<K> function) {
+        if (rootNode != null) {
+            seal();
+            return rootNode.iterateRange(from, to, ascending, function);
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the root and tells the loader the new height, which the pinned levels are counted from
+     */
+    private void setRoot(MerkleNode<K> root) {
+        rootNode = root;
+        if (loader != null) {
+            loader.setTreeHeight(root == null ? 0 : root.getHeight());
+        }
+    }
+
     protected MerkleNode<K> createNode(K entry) {
        return new MerkleNode<>(entry);
     }
 
+    /**
+     * Ends the current edit session. All existing nodes become persistent and will be copied on the next change, so
+     * references to them that have been handed out stay valid.
+     */
+    protected void seal() {
+        owner = new OwnerToken(stats);
+    }
+
+    /**
+     * Clears the current state, committed versions are kept
+     */
     @Override
     public void removeAll() {
         // resetting the rootNode invalidates all references to child nodes and so forth
         // GC will remove entries when it next runs
-        this.rootNode = null;
+        setRoot(null);
     }
 }
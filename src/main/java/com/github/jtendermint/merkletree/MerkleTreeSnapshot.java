@@ -0,0 +1,177 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Spliterators;
+import java.util.function.Supplier;
+
+import com.github.jtendermint.crypto.HashFunction;
+import com.github.jtendermint.merkletree.byteable.types.IByteable;
+
+/**
+ * Read-only view of one version of a {@link MerkleTree}, see {@link MerkleTree#snapshot()} and
+ * {@link MerkleTree#commit()}. The view shares its nodes with the tree, creating it is O(1). Later changes to the tree
+ * copy the nodes they touch, so the view never changes and may be read by other threads while the tree is modified.
+ * The only writes to shared nodes are cached hashes, the persisted mark and children that a save replaces by
+ * placeholders for the same nodes. Those fields are volatile, so readers see either the old or the complete new
+ * value.
+ * <p>
+ * All modifying methods throw {@link UnsupportedOperationException}.
+ */
+public class MerkleTreeSnapshot<K extends IByteable> implements IMerkleTree<K> {
+
+    private final long version;
+
+    private final MerkleNode<K> rootNode;
+
+    private final Supplier<? extends HashFunction> hashFunctions;
+
+    /**
+     * @param hashFunctions
+     *            has to return a hash function that is confined to the calling thread
+     */
+    MerkleTreeSnapshot(long version, MerkleNode<K> rootNode, Supplier<? extends HashFunction> hashFunctions) {
+        this.version = version;
+        this.rootNode = rootNode;
+        this.hashFunctions = hashFunctions;
+    }
+
+    /**
+     * @return the version of the tree this view shows
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public int size() {
+        return rootNode == null ? 0 : rootNode.getSize();
+    }
+
+    @Override
+    public int getHeight() {
+        return rootNode == null ? 0 : rootNode.getHeight();
+    }
+
+    @Override
+    public boolean contains(K entry) {
+        return rootNode != null && rootNode.contains(entry);
+    }
+
+    @Override
+    public K get(K entry) {
+        return rootNode == null ? null : rootNode.get(entry);
+    }
+
+    @Override
+    public KeyIndex<K> get(int index) {
+        return rootNode == null ? null : rootNode.get(index);
+    }
+
+    /**
+     * Finds the position of an entry in O(log n) using the subtree sizes
+     * 
+     * @param entry
+     *            the non-null entry to look up
+     * @return the index of the entry, or (-(insertion point) - 1) if it is not in the tree, like
+     *         {@link Collections#binarySearch(java.util.List, Object)}
+     */
+    public int indexOf(K entry) {
+        if (rootNode == null) {
+            return -1;
+        }
+        int rank = rootNode.rank(entry);
+        return rootNode.contains(entry) ? rank : -rank - 1;
+    }
+
+    /**
+     * Iterates the entries in ascending order, starting at an index. Finding the start costs O(log n).
+     * 
+     * @param fromIndex
+     *            the index of the first entry, size() for an empty iterator
+     * @return an iterator over the entries from fromIndex on
+     */
+    public Iterator<K> iterator(int fromIndex) {
+        if (fromIndex < 0 || fromIndex > size()) {
+            throw new IndexOutOfBoundsException("Index " + fromIndex + " for a tree of size " + size());
+        }
+        if (fromIndex == size()) {
+            return Collections.emptyIterator();
+        }
+        return Spliterators.iterator(new LeafSpliterator<>(rootNode, fromIndex));
+    }
+
+    @Override
+    public boolean add(K entry) {
+        throw new UnsupportedOperationException("Snapshot of version " + version + " is read-only");
+    }
+
+    @Override
+    public RemoveResult<K> remove(K entry) {
+        throw new UnsupportedOperationException("Snapshot of version " + version + " is read-only");
+    }
+
+    @Override
+    public HashWithCount getHashWithCount() {
+        if (rootNode == null) {
+            return new HashWithCount(null, 0);
+        }
+        return rootNode.getHashWithCount(hashFunctions.get());
+    }
+
+    @Override
+    public byte[] getRootHash() {
+        byte[] rootHash = getHashWithCount().hash;
+        return rootHash != null ? Arrays.copyOf(rootHash, rootHash.length) : null;
+    }
+
+    @Override
+    public MerkleNode<K> getRoot() {
+        return rootNode;
+    }
+
+    @Override
+    public String toPrettyString() {
+        if (rootNode == null) {
+            return "()";
+        }
+        return rootNode.toPrettyString();
+    }
+
+    @Override
+    public boolean iterateNodes(IterateFunction<K> function) {
+        if (rootNode != null) {
+            return rootNode.iterateNodes(function);
+        }
+        return false;
+    }
+
+    @Override
+    public void removeAll() {
+        throw new UnsupportedOperationException("Snapshot of version " + version + " is read-only");
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import java.util.List;
+
+import com.github.jtendermint.crypto.HashFunction;
+import com.github.jtendermint.merkletree.byteable.types.IByteable;
+import com.github.jtendermint.merkletree.internal.AbstractMultiProof;
+
+/**
+ * Proves that several entries are contained in a {@link MerkleTree} with a given root hash, see
+ * {@link MerkleTree#getAllWithProof(java.util.Collection)}. The proof is the tree with the proven entries revealed and
+ * every subtree without one pruned to its hash, so paths shared by several entries and every sibling hash appear once.
+ * <p>
+ * For k entries it holds the nodes of the subtree spanned by their paths, instead of the k*log n nodes of separate
+ * {@link InclusionProof}s.
+ */
+public class MultiProof<K extends IByteable> extends AbstractMultiProof<K> {
+
+    /**
+     * @param root
+     *            the partially revealed tree
+     */
+    public MultiProof(ProofNode<K> root) {
+        super(root);
+    }
+
+    /**
+     * @return the revealed entries in ascending order
+     */
+    public List<K> getEntries() {
+        return revealedEntries();
+    }
+
+    /**
+     * Recomputes the root hash from the proof, hashing every shared node once, and compares it with the expected one
+     * 
+     * @param proof
+     *            the proof to check
+     * @param rootHash
+     *            the trusted root hash
+     * @param hashFunction
+     *            the hash function of the tree
+     * @return true if the proof proves that {@link #getEntries()} are contained in the tree with the given root hash
+     */
+    public static <K extends IByteable> boolean verify(MultiProof<K> proof, byte[] rootHash, HashFunction hashFunction) {
+        return proof != null && proof.matches(rootHash, InclusionProof.hasher(hashFunction));
+    }
+}
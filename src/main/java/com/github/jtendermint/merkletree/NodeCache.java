@@ -0,0 +1,140 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.jtendermint.merkletree.byteable.types.IByteable;
+
+/**
+ * Bounds the memory of trees loaded from a {@link NodeStore}. Loaded nodes, and the nodes such a tree writes when it is
+ * saved to the same store, are kept by hash until their estimated size exceeds the budget, then the CLOCK algorithm
+ * evicts nodes that have not been accessed since the hand last passed them. An evicted node is read from the store
+ * again on its next access.
+ * <p>
+ * The top levels of a tree are pinned: their nodes are kept by the tree itself and never enter the cache. One cache
+ * may be shared by several trees of the same store. The cache is thread-safe.
+ * 
+ * @see MerkleTree#load(java.util.function.Supplier, NodeStore, byte[], java.util.function.Function, NodeCache)
+ */
+public class NodeCache<K extends IByteable> {
+
+    /**
+     * Estimated heap size of a decoded node on top of its stored bytes: the node, its two placeholders and their hash
+     * arrays
+     */
+    static final int NODE_OVERHEAD = 160;
+
+    private final long maxBytes;
+
+    private final int pinnedLevels;
+
+    private final Map<ByteBuffer, Entry<K>> entries = new HashMap<>();
+
+    // the clock: the hand is the head of the queue, a passed entry with a second chance moves to the tail
+    private final ArrayDeque<Entry<K>> clock = new ArrayDeque<>();
+
+    private long bytes;
+
+    /**
+     * @param maxBytes
+     *            the budget for the estimated heap size of all cached nodes
+     * @param pinnedLevels
+     *            the amount of levels below and including the root that are never evicted. Levels are counted by the
+     *            height of a node's subtree, so a node stays pinned wherever rotations move it as long as its subtree
+     *            is less than pinnedLevels lower than the tree.
+     */
+    public NodeCache(long maxBytes, int pinnedLevels) {
+        if (maxBytes < 0 || pinnedLevels < 0) {
+            throw new IllegalArgumentException("maxBytes and pinnedLevels must not be negative");
+        }
+        this.maxBytes = maxBytes;
+        this.pinnedLevels = pinnedLevels;
+    }
+
+    public int getPinnedLevels() {
+        return pinnedLevels;
+    }
+
+    /**
+     * @return the estimated heap size of the cached nodes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the amount of cached nodes
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized MerkleNode<K> get(byte[] hash) {
+        Entry<K> entry = entries.get(ByteBuffer.wrap(hash));
+        if (entry == null) {
+            return null;
+        }
+        entry.referenced = true;
+        return entry.node;
+    }
+
+    synchronized void put(byte[] hash, MerkleNode<K> node, int storedLength) {
+        ByteBuffer key = ByteBuffer.wrap(hash);
+        if (entries.containsKey(key)) {
+            return;
+        }
+        Entry<K> entry = new Entry<>(key, node, storedLength + NODE_OVERHEAD);
+        entries.put(key, entry);
+        clock.addLast(entry);
+        bytes += entry.size;
+        while (bytes > maxBytes && !clock.isEmpty()) {
+            Entry<K> candidate = clock.pollFirst();
+            if (candidate.referenced) {
+                candidate.referenced = false;
+                clock.addLast(candidate);
+            } else {
+                entries.remove(candidate.key);
+                bytes -= candidate.size;
+            }
+        }
+    }
+
+    private static final class Entry<K extends IByteable> {
+
+        private final ByteBuffer key;
+        private final MerkleNode<K> node;
+        private final int size;
+        private boolean referenced;
+
+        Entry(ByteBuffer key, MerkleNode<K> node, int size) {
+            this.key = key;
+            this.node = node;
+            this.size = size;
+        }
+    }
+}
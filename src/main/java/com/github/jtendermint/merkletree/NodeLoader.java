@@ -0,0 +1,208 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import com.github.jtendermint.crypto.ByteUtil;
+import com.github.jtendermint.merkletree.byteable.types.IByteable;
+
+/**
+ * Reads and decodes the nodes of one tree from a {@link NodeStore}, going through a {@link NodeCache} if there is
+ * one. Shared by all {@link StoredNode}s of the tree.
+ * <p>
+ * Stored layout of a leaf: height 0, key bytes. Of an inner node: height (1 byte), size, key, left hash, right hash,
+ * where size is an int and the byte arrays are prefixed by their int length.
+ */
+final class NodeLoader<K extends IByteable> {
+
+    private final NodeStore store;
+
+    private final Function<byte[], K> keyDecoder;
+
+    private final NodeCache<K> cache;
+
+    private static final int UNKNOWN_HEIGHT = -1;
+
+    /**
+     * The height of the tree, the pinned levels are counted from it. Unknown until the root of a loaded tree is read.
+     */
+    private volatile int treeHeight = UNKNOWN_HEIGHT;
+
+    /**
+     * The {@link NodeStore#getGeneration()} of the store when the tree was last loaded from or saved to it
+     */
+    private volatile long generation;
+
+    /**
+     * @param cache
+     *            the cache for the loaded nodes, null to keep every loaded node
+     */
+    NodeLoader(NodeStore store, Function<byte[], K> keyDecoder, NodeCache<K> cache) {
+        this.store = store;
+        this.keyDecoder = keyDecoder;
+        this.cache = cache;
+        this.generation = store.getGeneration();
+    }
+
+    /**
+     * @param generation
+     *            the {@link NodeStore#getGeneration()} of the store after the tree has been saved to it
+     */
+    void setGeneration(long generation) {
+        this.generation = generation;
+    }
+
+    /**
+     * @return the store the nodes are loaded from
+     */
+    NodeStore getStore() {
+        return store;
+    }
+
+    /**
+     * @param height
+     *            the current height of the tree
+     */
+    void setTreeHeight(int height) {
+        this.treeHeight = height;
+    }
+
+    /**
+     * Hands a node that has been written to the store over to the cache, like a node that has been loaded, unless it
+     * is within the pinned levels
+     * 
+     * @param node
+     *            a stored node whose own children have been released already
+     * @return a placeholder for the node, or the node itself if it stays in the tree
+     */
+    MerkleNode<K> release(MerkleNode<K> node) {
+        if (node instanceof StoredNode || isResident(node)) {
+            return node;
+        }
+        unpin(node);
+        return new StoredNode<>(node.hash, this);
+    }
+
+    /**
+     * Residency depends on the height of a node's subtree, which a stored node never changes, instead of its depth,
+     * which rotations do change. It is checked against the height of the tree on every access. In a balanced tree the
+     * pinned heights are the top levels, in any AVL tree they hold less than 2^pinnedLevels nodes.
+     * 
+     * @param node
+     *            a loaded node
+     * @return true if the subtree of the node is less than the pinned levels lower than the tree, its placeholder then
+     *         keeps the node
+     */
+    boolean isResident(MerkleNode<K> node) {
+        if (cache == null) {
+            return true;
+        }
+        int height = treeHeight;
+        if (height == UNKNOWN_HEIGHT) {
+            // every access starts at the root, so the first node asked about is the root
+            height = node.getHeight();
+            treeHeight = height;
+        }
+        return node.getHeight() > height - cache.getPinnedLevels();
+    }
+
+    /**
+     * Hands a node that left the pinned levels over to the cache
+     */
+    void unpin(MerkleNode<K> node) {
+        cache.put(node.hash, node, node.toStoreBytes().length);
+    }
+
+    /**
+     * Reads a node through the cache. Nodes below the pinned levels are added to the cache.
+     */
+    MerkleNode<K> load(byte[] hash) {
+        if (cache != null) {
+            MerkleNode<K> node = cache.get(hash);
+            if (node != null) {
+                return node;
+            }
+        }
+        byte[] bytes = store.get(hash);
+        if (bytes == null) {
+            if (store.getGeneration() != generation) {
+                throw new IllegalStateException("Node " + ByteUtil.toString00(hash) + " has been dropped by a compaction"
+                        + " of the store, register a saved tree as a version to keep its nodes");
+            }
+            throw new IllegalStateException("Node " + ByteUtil.toString00(hash) + " is missing in the store");
+        }
+        MerkleNode<K> node = decode(hash, bytes);
+        if (!isResident(node)) {
+            cache.put(hash, node, bytes.length);
+        }
+        return node;
+    }
+
+    private MerkleNode<K> decode(byte[] hash, byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int height = buffer.get() & 0xFF;
+        MerkleNode<K> node;
+        if (height == 0) {
+            byte[] keyBytes = new byte[buffer.remaining()];
+            buffer.get(keyBytes);
+            node = new MerkleNode<K>(keyDecoder.apply(keyBytes));
+        } else {
+            int size = buffer.getInt();
+            K key = keyDecoder.apply(readBytes(buffer));
+            MerkleNode<K> left = new StoredNode<>(readBytes(buffer), this);
+            MerkleNode<K> right = new StoredNode<>(readBytes(buffer), this);
+            node = new InnerNode<K>(key, height, size, left, right);
+        }
+        node.hash = hash;
+        return node;
+    }
+
+    /**
+     * @param bytes
+     *            a stored node
+     * @return the hashes of the children of the node, none for a leaf
+     */
+    static List<byte[]> childHashes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int height = buffer.get() & 0xFF;
+        if (height == 0) {
+            return Collections.emptyList();
+        }
+        buffer.getInt();
+        int keyLength = buffer.getInt();
+        buffer.position(buffer.position() + keyLength);
+        return Arrays.asList(readBytes(buffer), readBytes(buffer));
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+/**
+ * Content-addressed storage for the nodes of a {@link MerkleTree}. Nodes are stored under their hash and never change,
+ * storing a hash a second time is a no-op.
+ * 
+ * @see MerkleTree#save(NodeStore)
+ * @see MerkleTree#load(NodeStore, byte[], java.util.function.Function)
+ */
+public interface NodeStore {
+
+    /**
+     * @param hash
+     *            the hash of a node
+     * @return the stored bytes of the node or null if the store does not have it
+     */
+    byte[] get(byte[] hash);
+
+    /**
+     * @param hash
+     *            the hash of a node
+     * @return true if the store has the node
+     */
+    boolean contains(byte[] hash);
+
+    /**
+     * Stores a node unless the store already has it
+     * 
+     * @param hash
+     *            the hash of the node
+     * @param node
+     *            the bytes of the node
+     */
+    void put(byte[] hash, byte[] node);
+
+    /**
+     * Makes everything stored so far durable
+     */
+    void flush();
+
+    /**
+     * A tree remembers which of its nodes it has stored and skips them on its next save. That is only safe while the
+     * store keeps every node, a store that drops nodes it was given, e.g. by compaction, changes its generation
+     * whenever it does so and trees check their nodes against the store again.
+     * 
+     * @return the generation of the stored nodes, by default a store never drops nodes and stays in generation 0
+     */
+    default long getGeneration() {
+        return 0;
+    }
+}
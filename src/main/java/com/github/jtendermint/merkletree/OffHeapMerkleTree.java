@@ -0,0 +1,410 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.github.jtendermint.crypto.HashFunction;
+import com.github.jtendermint.crypto.RipeMD160;
+import com.github.jtendermint.merkletree.byteable.types.IByteable;
+
+/**
+ * Merkle-ized AVL tree whose nodes are stored outside of the Java heap.
+ * <p>
+ * Every node occupies a fixed-size slot in a direct {@link ByteBuffer} slab and is addressed by its int slot index.
+ * The slot holds height, size, the indices of both children, the hash and the key bytes inline, so the heap only holds
+ * one buffer reference per 65536 nodes. Keys are decoded with the given key decoder whenever they are handed out. They
+ * are compared in the slab by a {@link KeyComparator} if one is given, e.g. {@link #UNSIGNED_BYTES} or
+ * {@link #LONG_VALUE}, otherwise they are decoded for every comparison.
+ * <p>
+ * Structure and hashes are identical to a {@link MerkleTree} that received the same operations. Nodes are not shared
+ * between versions: there is only the current version, so a replaced node is freed and its slot reused. The nodes are
+ * not objects, so the tree is an {@link IHashTree} without a root node: {@link #iterateNodes(IterateFunction)} walks
+ * the slots and hands out a detached copy of one node at a time. The tree is not thread-safe.
+ */
+public class OffHeapMerkleTree<K extends IByteable> extends SlotMerkleTree<K> {
+
+    public static final int DEFAULT_MAX_KEY_LENGTH = 32;
+
+    private static final int SLAB_SHIFT = 16;
+    private static final int SLOTS_PER_SLAB = 1 << SLAB_SHIFT;
+
+    // slot layout, see SlotMerkleTree for the meaning of the fields
+    private static final int HEIGHT = 0;
+    private static final int SIZE = 4;
+    private static final int LEFT = 8;
+    private static final int RIGHT = 12;
+    private static final int KEY_LENGTH = 16;
+    private static final int HASHED = 18;
+    private static final int HASH = 20;
+
+    /**
+     * Compares the bytes of an entry with the key bytes stored in a slot, without decoding the stored key
+     */
+    @FunctionalInterface
+    public interface KeyComparator {
+
+        /**
+         * @param key
+         *            the {@link IByteable#toByteArray()} of the entry that is searched, added or removed
+         * @param slab
+         *            the slab holding the stored key, must not be moved
+         * @param offset
+         *            the position of the stored key in the slab
+         * @param length
+         *            the length of the stored key
+         * @return the sign of {@link IByteable#compareTo(Object)} of the entry with the stored entry
+         */
+        int compare(byte[] key, ByteBuffer slab, int offset, int length);
+    }
+
+    /**
+     * Unsigned lexicographic order, a key that is a prefix of another is smaller. Only for entries whose
+     * {@link IByteable#compareTo(Object)} agrees with the order of their bytes.
+     */
+    public static final KeyComparator UNSIGNED_BYTES = (key, slab, offset, length) -> {
+        int common = Math.min(key.length, length);
+        for (int i = 0; i < common; i++) {
+            int diff = (key[i] & 0xFF) - (slab.get(offset + i) & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return key.length - length;
+    };
+
+    /**
+     * The order of {@link com.github.jtendermint.merkletree.byteable.types.ByteableLong ByteableLong}, compares the
+     * big-endian values without creating an entry
+     */
+    public static final KeyComparator LONG_VALUE = (key, slab, offset, length) -> {
+        long keyValue = 0;
+        for (byte b : key) {
+            keyValue = (keyValue << 8) | (b & 0xFF);
+        }
+        long storedValue = 0;
+        for (int i = 0; i < length; i++) {
+            storedValue = (storedValue << 8) | (slab.get(offset + i) & 0xFF);
+        }
+        return Long.compare(keyValue, storedValue);
+    };
+
+    private final Function<byte[], K> keyDecoder;
+    private final KeyComparator keyComparator;
+
+    private final int maxKeyLength;
+    private final int keyOffset;
+    private final int slotSize;
+
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private int nextSlot;
+
+    /**
+     * The entry that is searched, added or removed and its bytes
+     */
+    private K pendingEntry;
+    private byte[] pendingKeyBytes;
+
+    /**
+     * Creates a tree that hashes with RipeMD160 and stores keys of up to {@value #DEFAULT_MAX_KEY_LENGTH} bytes
+     * 
+     * @param keyDecoder
+     *            restores an entry from its {@link IByteable#toByteArray()}, e.g. {@code ByteableLong::fromByteArray}
+     */
+    public OffHeapMerkleTree(Function<byte[], K> keyDecoder) {
+        this(RipeMD160::new, keyDecoder, null, DEFAULT_MAX_KEY_LENGTH);
+    }
+
+    /**
+     * Creates a tree that hashes with RipeMD160 and stores keys of up to {@value #DEFAULT_MAX_KEY_LENGTH} bytes
+     * 
+     * @param keyDecoder
+     *            restores an entry from its {@link IByteable#toByteArray()}, e.g. {@code ByteableLong::fromByteArray}
+     * @param keyComparator
+     *            compares entries by their bytes, e.g. {@link #LONG_VALUE}
+     */
+    public OffHeapMerkleTree(Function<byte[], K> keyDecoder, KeyComparator keyComparator) {
+        this(RipeMD160::new, keyDecoder, keyComparator, DEFAULT_MAX_KEY_LENGTH);
+    }
+
+    /**
+     * @param hashFunctions
+     *            creates the hash function of this tree
+     * @param keyDecoder
+     *            restores an entry from its {@link IByteable#toByteArray()}
+     * @param maxKeyLength
+     *            the maximum length of {@link IByteable#toByteArray()} of an entry, every node reserves this space
+     */
+    public OffHeapMerkleTree(Supplier<? extends HashFunction> hashFunctions, Function<byte[], K> keyDecoder, int maxKeyLength) {
+        this(hashFunctions, keyDecoder, null, maxKeyLength);
+    }
+
+    /**
+     * @param hashFunctions
+     *            creates the hash function of this tree
+     * @param keyDecoder
+     *            restores an entry from its {@link IByteable#toByteArray()}
+     * @param keyComparator
+     *            compares entries by their bytes, or null to decode the stored key for every comparison
+     * @param maxKeyLength
+     *            the maximum length of {@link IByteable#toByteArray()} of an entry, every node reserves this space
+     */
+    public OffHeapMerkleTree(Supplier<? extends HashFunction> hashFunctions, Function<byte[], K> keyDecoder,
+            KeyComparator keyComparator, int maxKeyLength) {
+        super(hashFunctions);
+        this.keyDecoder = keyDecoder;
+        this.keyComparator = keyComparator;
+        this.maxKeyLength = maxKeyLength;
+        this.keyOffset = HASH + hashLength;
+        // keep the int fields of every slot aligned
+        this.slotSize = (keyOffset + maxKeyLength + 3) & ~3;
+        if (maxKeyLength < 1 || (long) SLOTS_PER_SLAB * slotSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("maxKeyLength out of range: " + maxKeyLength);
+        }
+    }
+
+    @Override
+    public boolean contains(K entry) {
+        return findPending(entry) != NONE;
+    }
+
+    @Override
+    public K get(K entry) {
+        int node = findPending(entry);
+        return node == NONE ? null : key(node);
+    }
+
+    private int findPending(K entry) {
+        pendingEntry = entry;
+        pendingKeyBytes = keyComparator == null ? null : entry.toByteArray();
+        return find();
+    }
+
+    @Override
+    public KeyIndex<K> get(int index) {
+        if (root == NONE) {
+            return null;
+        }
+        return new KeyIndex<K>(key(leafAt(index)), true, index);
+    }
+
+    @Override
+    public boolean add(K entry) {
+        byte[] keyBytes = entry.toByteArray();
+        if (keyBytes.length > maxKeyLength) {
+            throw new IllegalArgumentException("Key of " + keyBytes.length + " bytes exceeds maxKeyLength " + maxKeyLength);
+        }
+        pendingEntry = entry;
+        pendingKeyBytes = keyBytes;
+        return insert(true);
+    }
+
+    /**
+     * Removes an entry and calculates the new root hash. The returned result carries no node, the nodes of the new
+     * tree can be visited with {@link #iterateNodes(IterateFunction)}.
+     */
+    @Override
+    public RemoveResult<K> remove(K entry) {
+        K removed = get(entry);
+        if (removed == null) {
+            return new RemoveResult<K>(entry, false);
+        }
+        removePending();
+        return new RemoveResult<K>(root == NONE ? null : getRootHash(), null, removed, true);
+    }
+
+    /**
+     * @return the amount of off-heap memory reserved by this tree, in bytes
+     */
+    public long getAllocatedBytes() {
+        return (long) slabs.size() * SLOTS_PER_SLAB * slotSize;
+    }
+
+    @Override
+    int height(int node) {
+        return getInt(node, HEIGHT);
+    }
+
+    @Override
+    void setHeight(int node, int height) {
+        putInt(node, HEIGHT, height);
+    }
+
+    @Override
+    int size(int node) {
+        return getInt(node, SIZE);
+    }
+
+    @Override
+    void setSize(int node, int size) {
+        putInt(node, SIZE, size);
+    }
+
+    @Override
+    int left(int node) {
+        return getInt(node, LEFT);
+    }
+
+    @Override
+    void setLeft(int node, int left) {
+        putInt(node, LEFT, left);
+    }
+
+    @Override
+    int right(int node) {
+        return getInt(node, RIGHT);
+    }
+
+    @Override
+    void setRight(int node, int right) {
+        putInt(node, RIGHT, right);
+    }
+
+    @Override
+    boolean isHashed(int node) {
+        return slab(node).get(offset(node) + HASHED) != 0;
+    }
+
+    @Override
+    void invalidate(int node) {
+        slab(node).put(offset(node) + HASHED, (byte) 0);
+    }
+
+    @Override
+    int allocateNew() {
+        if (nextSlot == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Tree is full");
+        }
+        int slot = nextSlot++;
+        if ((slot >>> SLAB_SHIFT) == slabs.size()) {
+            slabs.add(ByteBuffer.allocateDirect(SLOTS_PER_SLAB * slotSize));
+        }
+        return slot;
+    }
+
+    /**
+     * Releases the slabs. Their memory is returned once the garbage collector has collected the buffers.
+     */
+    @Override
+    void clear() {
+        slabs.clear();
+        nextSlot = 0;
+    }
+
+    @Override
+    int comparePending(int node) {
+        if (keyComparator == null) {
+            return pendingEntry.compareTo(key(node));
+        }
+        return keyComparator.compare(pendingKeyBytes, slab(node), offset(node) + keyOffset, getShort(node, KEY_LENGTH));
+    }
+
+    @Override
+    void putPendingKey(int node) {
+        putKey(node, pendingKeyBytes);
+    }
+
+    @Override
+    void copyKey(int from, int to) {
+        putKey(to, keyBytes(from));
+    }
+
+    @Override
+    K key(int node) {
+        return keyDecoder.apply(keyBytes(node));
+    }
+
+    @Override
+    void writeKey(HashEncoder encoder, int node) {
+        encoder.writeVarintBytes(slab(node), offset(node) + keyOffset, getShort(node, KEY_LENGTH));
+    }
+
+    @Override
+    void writeHash(HashEncoder encoder, int node) {
+        encoder.writeVarintBytes(slab(node), offset(node) + HASH, hashLength);
+    }
+
+    @Override
+    void putHash(int node, byte[] hash) {
+        putBytes(node, HASH, hash);
+        slab(node).put(offset(node) + HASHED, (byte) 1);
+    }
+
+    @Override
+    byte[] hash(int node) {
+        return isHashed(node) ? getBytes(node, HASH, hashLength) : null;
+    }
+
+    private byte[] keyBytes(int node) {
+        return getBytes(node, keyOffset, getShort(node, KEY_LENGTH));
+    }
+
+    private void putKey(int node, byte[] keyBytes) {
+        slab(node).putShort(offset(node) + KEY_LENGTH, (short) keyBytes.length);
+        putBytes(node, keyOffset, keyBytes);
+    }
+
+    private ByteBuffer slab(int node) {
+        return slabs.get(node >>> SLAB_SHIFT);
+    }
+
+    private int offset(int node) {
+        return (node & (SLOTS_PER_SLAB - 1)) * slotSize;
+    }
+
+    private int getInt(int node, int field) {
+        return slab(node).getInt(offset(node) + field);
+    }
+
+    private void putInt(int node, int field, int value) {
+        slab(node).putInt(offset(node) + field, value);
+    }
+
+    private int getShort(int node, int field) {
+        return slab(node).getShort(offset(node) + field);
+    }
+
+    private byte[] getBytes(int node, int field, int length) {
+        byte[] bytes = new byte[length];
+        at(node, field).get(bytes);
+        return bytes;
+    }
+
+    private void putBytes(int node, int field, byte[] bytes) {
+        at(node, field).put(bytes);
+    }
+
+    /**
+     * @return a view of the slab positioned at a field of the node, for bulk transfers without moving the slab itself
+     */
+    private ByteBuffer at(int node, int field) {
+        ByteBuffer view = slab(node).duplicate();
+        view.position(offset(node) + field);
+        return view;
+    }
+}
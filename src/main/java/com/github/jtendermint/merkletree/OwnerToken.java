@@ -0,0 +1,54 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+/**
+ * Identifies one edit session of a {@link MerkleTree}. Nodes created during a session carry its token and may be
+ * mutated in place for as long as the tree uses that token, comparable to Clojure's transients. A tree starts a new
+ * session whenever its nodes may become visible outside of it, which turns all existing nodes persistent again.
+ */
+final class OwnerToken {
+
+    /**
+     * Marks nodes that have been written to the store their tree saves to. No session uses it, so a change copies
+     * these nodes and the copies are new again.
+     */
+    static final OwnerToken PERSISTED = new OwnerToken(null);
+
+    /**
+     * The collector of the tree, null if it has none
+     */
+    final TreeStats stats;
+
+    OwnerToken(TreeStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * @return the collector of the session, null if there is none or no session
+     */
+    static TreeStats statsOf(OwnerToken owner) {
+        return owner == null ? null : owner.stats;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Node of a partially revealed {@link MerkleTree} or {@link com.github.jtendermint.merkletree.iavl.AVLTree}, the
+ * structure of range proofs and multiproofs. A node is a revealed leaf, an inner node with its height, size and both
+ * children, or a pruned subtree of which only the hash is known. Hashing the proof nodes like the tree hashes its
+ * nodes gives the root hash of the tree they were taken from.
+ */
+public final class ProofNode<K> {
+
+    private final K entry;
+    private final byte[] hash;
+    private final int height;
+    private final int size;
+    private final ProofNode<K> left;
+    private final ProofNode<K> right;
+
+    private ProofNode(K entry, byte[] hash, int height, int size, ProofNode<K> left, ProofNode<K> right) {
+        this.entry = entry;
+        this.hash = hash;
+        this.height = height;
+        this.size = size;
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the entry is null
+     */
+    public static <K> ProofNode<K> leaf(K entry) {
+        if (entry == null) {
+            throw new IllegalArgumentException("A leaf needs an entry");
+        }
+        return new ProofNode<>(entry, null, 0, 1, null, null);
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the hash is null
+     */
+    public static <K> ProofNode<K> pruned(byte[] hash) {
+        if (hash == null) {
+            throw new IllegalArgumentException("A pruned subtree needs a hash");
+        }
+        return new ProofNode<>(null, Arrays.copyOf(hash, hash.length), 0, 0, null, null);
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if a child is null
+     */
+    public static <K> ProofNode<K> inner(int height, int size, ProofNode<K> left, ProofNode<K> right) {
+        if (left == null || right == null) {
+            throw new IllegalArgumentException("An inner node needs both children");
+        }
+        return new ProofNode<>(null, null, height, size, left, right);
+    }
+
+    public boolean isLeaf() {
+        return entry != null;
+    }
+
+    public boolean isPruned() {
+        return hash != null;
+    }
+
+    /**
+     * @return the entry of a revealed leaf, null otherwise
+     */
+    public K getEntry() {
+        return entry;
+    }
+
+    /**
+     * @return the hash of a pruned subtree, null otherwise
+     */
+    public byte[] getHash() {
+        return hash == null ? null : Arrays.copyOf(hash, hash.length);
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public ProofNode<K> getLeft() {
+        return left;
+    }
+
+    public ProofNode<K> getRight() {
+        return right;
+    }
+
+    /**
+     * Appends the revealed leaves and pruned subtrees in key order
+     * 
+     * @param nodes
+     *            the list to append to
+     */
+    public void collect(List<ProofNode<K>> nodes) {
+        if (isLeaf() || isPruned()) {
+            nodes.add(this);
+        } else {
+            left.collect(nodes);
+            right.collect(nodes);
+        }
+    }
+}
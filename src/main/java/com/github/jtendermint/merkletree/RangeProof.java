@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import java.util.List;
+
+import com.github.jtendermint.crypto.HashFunction;
+import com.github.jtendermint.merkletree.byteable.types.IByteable;
+import com.github.jtendermint.merkletree.internal.AbstractRangeProof;
+
+/**
+ * Proves that a {@link MerkleTree} with a given root hash contains exactly {@link #getEntries()} in the range
+ * [{@link #getFrom()}, {@link #getTo()}), see {@link MerkleTree#getRangeWithProof(IByteable, IByteable, int)}. An empty
+ * range proves the absence of its start, see {@link MerkleTree#getAbsenceProof(IByteable)}.
+ * <p>
+ * The proof is the tree with the entries of the range and their two neighbours revealed and everything else pruned to
+ * a hash. Sharing the upper levels, it costs O(k + log n) hashes for k entries instead of k inclusion proofs. See
+ * {@link AbstractRangeProof} for how the verifier checks adjacency and completeness.
+ */
+public class RangeProof<K extends IByteable> extends AbstractRangeProof<K> {
+
+    /**
+     * @param from
+     *            the first key of the range (inclusive)
+     * @param to
+     *            the end of the range (exclusive)
+     * @param root
+     *            the partially revealed tree
+     */
+    public RangeProof(K from, K to, ProofNode<K> root) {
+        super(from, to, root);
+    }
+
+    /**
+     * @return the revealed entries within the range, in ascending order
+     */
+    public List<K> getEntries() {
+        return revealedEntries();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected int compare(K a, K b) {
+        return a.compareTo(b);
+    }
+
+    /**
+     * Checks that the proof matches the root hash and that no pruned subtree can contain a key of the range
+     * 
+     * @param proof
+     *            the proof to check
+     * @param rootHash
+     *            the trusted root hash
+     * @param hashFunction
+     *            the hash function of the tree
+     * @return true if {@link #getEntries()} are all entries of the tree in the range of the proof
+     */
+    public static <K extends IByteable> boolean verify(RangeProof<K> proof, byte[] rootHash, HashFunction hashFunction) {
+        return proof != null && proof.matches(rootHash, InclusionProof.hasher(hashFunction));
+    }
+
+    /**
+     * Checks a proof returned by {@link MerkleTree#getAbsenceProof(IByteable)}
+     * 
+     * @param proof
+     *            the proof to check
+     * @param entry
+     *            the entry that should be absent
+     * @param rootHash
+     *            the trusted root hash
+     * @param hashFunction
+     *            the hash function of the tree
+     * @return true if the proof proves that the tree with the given root hash does not contain entry
+     */
+    public static <K extends IByteable> boolean verifyAbsence(RangeProof<K> proof, K entry, byte[] rootHash, HashFunction hashFunction) {
+        return proof != null && proof.provesAbsence(entry, rootHash, InclusionProof.hasher(hashFunction));
+    }
+}
@@ -34,11 +34,11 @@ import java.util.Arrays;
 public class RemoveResult<K extends IByteable> {
     private MerkleNode<K> node;
     private byte[] hash;
-    private final IByteable byteable;
+    private final K byteable;
     private final boolean removed;
 
     public RemoveResult(byte[] hash, MerkleNode<K> node, K byteable, boolean removed) {
-        this.hash = Arrays.copyOf(hash, hash.length);
+        this.hash = hash == null ? null : Arrays.copyOf(hash, hash.length);
         this.node = node;
         this.byteable = byteable;
         this.removed = removed;
@@ -61,7 +61,7 @@ public class RemoveResult<K extends IByteable> {
         return removed;
     }
 
-    public IByteable getByteable() {
+    public K getByteable() {
         return byteable;
     }
 
@@ -0,0 +1,318 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongPredicate;
+
+/**
+ * Hash-addressed index of the records of one segment of a {@link FileNodeStore}, kept in a memory-mapped file next to
+ * the segment. Opening an index maps the file, nothing is read up front.
+ * <p>
+ * The index is an open-addressing table of 16 byte slots, each holding the first eight bytes of a hash and the
+ * position of its record plus one, so that a zeroed slot is empty. Since only a prefix of the hash is stored, every
+ * candidate position is confirmed by the caller against the record itself. The header holds the amount of slots and
+ * entries and the length of the segment that has been indexed, records behind it have to be indexed again when the
+ * segment is opened. The table doubles into a new file once it is half full.
+ * <p>
+ * Not thread-safe, the store synchronizes.
+ */
+final class SegmentIndex {
+
+    private static final int MAGIC = 0x4d4b4958;
+    private static final int FORMAT = 1;
+
+    // header layout
+    private static final int MAGIC_OFFSET = 0;
+    private static final int FORMAT_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int COUNT_OFFSET = 16;
+    private static final int INDEXED_OFFSET = 24;
+    private static final int HEADER_SIZE = 64;
+
+    private static final int SLOT_SIZE = 16;
+    private static final int CHUNK_SHIFT = 26;
+    private static final long SLOTS_PER_CHUNK = 1L << CHUNK_SHIFT;
+
+    private static final long INITIAL_CAPACITY = 1024;
+
+    private final Path file;
+
+    private MappedByteBuffer header;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+
+    private long capacity;
+    private long count;
+
+    private SegmentIndex(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Creates an empty index, replacing an existing file
+     * 
+     * @param file
+     *            the index file
+     * @return the new index
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    static SegmentIndex create(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        SegmentIndex index = new SegmentIndex(file);
+        index.map(file, INITIAL_CAPACITY);
+        index.header.putInt(MAGIC_OFFSET, MAGIC);
+        index.header.putInt(FORMAT_OFFSET, FORMAT);
+        index.header.putLong(CAPACITY_OFFSET, INITIAL_CAPACITY);
+        index.capacity = INITIAL_CAPACITY;
+        return index;
+    }
+
+    /**
+     * Opens an existing index
+     * 
+     * @param file
+     *            the index file
+     * @param segmentSize
+     *            the current length of the segment
+     * @return the index, or null if there is no usable index: the file is missing or damaged or it covers more than
+     *         the segment holds
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    static SegmentIndex open(Path file, long segmentSize) throws IOException {
+        if (!Files.exists(file) || Files.size(file) < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // read the whole header
+            }
+        }
+        long capacity = header.getLong(CAPACITY_OFFSET);
+        long count = header.getLong(COUNT_OFFSET);
+        long indexed = header.getLong(INDEXED_OFFSET);
+        if (header.getInt(MAGIC_OFFSET) != MAGIC || header.getInt(FORMAT_OFFSET) != FORMAT || capacity < INITIAL_CAPACITY
+                || Long.bitCount(capacity) != 1 || count < 0 || count > capacity / 2 || indexed < 0 || indexed > segmentSize
+                || Files.size(file) < HEADER_SIZE + capacity * SLOT_SIZE) {
+            return null;
+        }
+        SegmentIndex index = new SegmentIndex(file);
+        index.map(file, capacity);
+        index.capacity = capacity;
+        index.count = count;
+        return index;
+    }
+
+    private void map(Path target, long slots) throws IOException {
+        header = null;
+        chunks.clear();
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // mapping beyond the end of the file extends it with zeros, i.e. empty slots
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            for (long first = 0; first < slots; first += SLOTS_PER_CHUNK) {
+                long length = Math.min(SLOTS_PER_CHUNK, slots - first) * SLOT_SIZE;
+                chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + first * SLOT_SIZE, length));
+            }
+        }
+    }
+
+    /**
+     * @param hash
+     *            the hash of a record
+     * @param isRecord
+     *            confirms that the record at a candidate position has the hash
+     * @return the position of the record or -1 if the segment does not hold it
+     */
+    long find(byte[] hash, LongPredicate isRecord) {
+        long prefix = prefix(hash);
+        for (long slot = home(prefix, capacity);; slot = (slot + 1) & (capacity - 1)) {
+            long location = slotLocation(slot);
+            if (location == 0) {
+                return -1;
+            }
+            if (slotPrefix(slot) == prefix && isRecord.test(location - 1)) {
+                return location - 1;
+            }
+        }
+    }
+
+    /**
+     * Adds a record that the index does not hold yet
+     * 
+     * @param hash
+     *            the hash of the record
+     * @param position
+     *            the position of the record in the segment
+     * @throws IOException
+     *             if the table had to grow and the new table cannot be written
+     */
+    void put(byte[] hash, long position) throws IOException {
+        if ((count + 1) * 2 > capacity) {
+            grow();
+        }
+        insert(prefix(hash), position + 1);
+        count++;
+        header.putLong(COUNT_OFFSET, count);
+    }
+
+    private void insert(long prefix, long location) {
+        long slot = home(prefix, capacity);
+        while (slotLocation(slot) != 0) {
+            slot = (slot + 1) & (capacity - 1);
+        }
+        ByteBuffer chunk = chunk(slot);
+        int offset = offset(slot);
+        chunk.putLong(offset, prefix);
+        chunk.putLong(offset + 8, location);
+    }
+
+    /**
+     * Rehashes into a table of twice the size, written to a temporary file that then replaces the index file. Only the
+     * slots are read, not the segment.
+     */
+    private void grow() throws IOException {
+        MappedByteBuffer oldHeader = header;
+        List<MappedByteBuffer> oldChunks = new ArrayList<>(chunks);
+        long oldCapacity = capacity;
+        long indexed = getIndexedPosition();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(temp);
+        map(temp, oldCapacity * 2);
+        capacity = oldCapacity * 2;
+        for (long slot = 0; slot < oldCapacity; slot++) {
+            ByteBuffer chunk = oldChunks.get((int) (slot >>> CHUNK_SHIFT));
+            int offset = (int) (slot & (SLOTS_PER_CHUNK - 1)) * SLOT_SIZE;
+            long location = chunk.getLong(offset + 8);
+            if (location != 0) {
+                insert(chunk.getLong(offset), location);
+            }
+        }
+        header.putInt(MAGIC_OFFSET, MAGIC);
+        header.putInt(FORMAT_OFFSET, FORMAT);
+        header.putLong(CAPACITY_OFFSET, capacity);
+        header.putLong(COUNT_OFFSET, count);
+        header.putLong(INDEXED_OFFSET, indexed);
+        force();
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        MappedBuffers.unmap(oldHeader);
+        for (MappedByteBuffer chunk : oldChunks) {
+            MappedBuffers.unmap(chunk);
+        }
+    }
+
+    /**
+     * @return the length of the segment that has been indexed
+     */
+    long getIndexedPosition() {
+        return header.getLong(INDEXED_OFFSET);
+    }
+
+    /**
+     * @param position
+     *            the length of the segment that has been indexed
+     */
+    void setIndexedPosition(long position) {
+        header.putLong(INDEXED_OFFSET, position);
+    }
+
+    /**
+     * @return the amount of indexed records
+     */
+    long size() {
+        return count;
+    }
+
+    /**
+     * Writes the changes of the mapped table to the file
+     */
+    void force() {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+        header.force();
+    }
+
+    /**
+     * Unmaps the table without writing it, see {@link #force()}. The index cannot be used afterwards.
+     */
+    void close() {
+        if (header == null) {
+            return;
+        }
+        MappedBuffers.unmap(header);
+        for (MappedByteBuffer chunk : chunks) {
+            MappedBuffers.unmap(chunk);
+        }
+        header = null;
+        chunks.clear();
+    }
+
+    /**
+     * @return the index file
+     */
+    Path getFile() {
+        return file;
+    }
+
+    private long slotPrefix(long slot) {
+        return chunk(slot).getLong(offset(slot));
+    }
+
+    private long slotLocation(long slot) {
+        return chunk(slot).getLong(offset(slot) + 8);
+    }
+
+    private ByteBuffer chunk(long slot) {
+        return chunks.get((int) (slot >>> CHUNK_SHIFT));
+    }
+
+    private static int offset(long slot) {
+        return (int) (slot & (SLOTS_PER_CHUNK - 1)) * SLOT_SIZE;
+    }
+
+    private static long home(long prefix, long capacity) {
+        // the hashes are uniform already, mixing only guards against hash functions that are not
+        return (prefix * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - Long.numberOfTrailingZeros(capacity));
+    }
+
+    private static long prefix(byte[] hash) {
+        long prefix = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            prefix = (prefix << 8) | (i < hash.length ? hash[i] & 0xFF : 0);
+        }
+        return prefix;
+    }
+}
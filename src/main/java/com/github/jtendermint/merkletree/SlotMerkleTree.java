@@ -0,0 +1,512 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import java.math.BigInteger;
+import java.util.function.Supplier;
+
+import com.github.jtendermint.crypto.HashFunction;
+import com.github.jtendermint.merkletree.byteable.types.IByteable;
+
+/**
+ * Merkle-ized AVL tree whose nodes are addressed by an int index instead of being objects. Subclasses decide where the
+ * fields of a node live, this class implements the balancing, hashing and iteration on top of them, with the same
+ * structure and hashes as a {@link MerkleTree}.
+ * <p>
+ * Keys are compared against a pending key that the subclass stores before it calls {@link #find()},
+ * {@link #insert(boolean)} or {@link #removePending()}, so that no key object is needed for primitive keys.
+ */
+abstract class SlotMerkleTree<K extends IByteable> implements IHashTree<K> {
+
+    static final int NONE = -1;
+
+    final HashFunction hashFunction;
+    final int hashLength;
+
+    int root = NONE;
+
+    private int freeNode = NONE;
+
+    /**
+     * Set by the recursive insert when the key was already in the tree
+     */
+    private boolean updated;
+
+    /**
+     * Whether the recursive insert replaces the key of an existing leaf
+     */
+    private boolean replaceExisting;
+
+    /**
+     * Cleared by the recursive remove when the key is not in the tree
+     */
+    private boolean removed;
+
+    SlotMerkleTree(Supplier<? extends HashFunction> hashFunctions) {
+        this.hashFunction = hashFunctions.get();
+        this.hashLength = hashFunction.hashBytes(new byte[0]).length;
+    }
+
+    // node storage, a leaf has height 0 and no children. A free node keeps the next free node in left.
+
+    abstract int height(int node);
+
+    abstract void setHeight(int node, int height);
+
+    abstract int size(int node);
+
+    abstract void setSize(int node, int size);
+
+    abstract int left(int node);
+
+    abstract void setLeft(int node, int left);
+
+    abstract int right(int node);
+
+    abstract void setRight(int node, int right);
+
+    abstract boolean isHashed(int node);
+
+    abstract void invalidate(int node);
+
+    /**
+     * @return a node that has never been used, the free list is checked before
+     */
+    abstract int allocateNew();
+
+    /**
+     * Releases every node at once
+     */
+    abstract void clear();
+
+    // keys
+
+    /**
+     * @return the result of comparing the pending key with the key of the node
+     */
+    abstract int comparePending(int node);
+
+    abstract void putPendingKey(int node);
+
+    abstract void copyKey(int from, int to);
+
+    abstract K key(int node);
+
+    // hashes
+
+    abstract void writeKey(HashEncoder encoder, int node);
+
+    abstract void writeHash(HashEncoder encoder, int node);
+
+    /**
+     * Stores the hash of the node and marks it as hashed
+     */
+    abstract void putHash(int node, byte[] hash);
+
+    /**
+     * @return a copy of the hash of the node, null if it has not been hashed
+     */
+    abstract byte[] hash(int node);
+
+    @Override
+    public int size() {
+        return root == NONE ? 0 : size(root);
+    }
+
+    @Override
+    public int getHeight() {
+        return root == NONE ? 0 : height(root);
+    }
+
+    /**
+     * @return the node with the pending key or {@link #NONE}
+     */
+    int find() {
+        int node = root;
+        while (node != NONE) {
+            int compareResult = comparePending(node);
+            if (compareResult == 0) {
+                return node;
+            } else if (isLeaf(node)) {
+                return NONE;
+            }
+            node = compareResult < 0 ? left(node) : right(node);
+        }
+        return NONE;
+    }
+
+    /**
+     * @param index
+     *            between 0 and {@link #size()} of a non-empty tree
+     * @return the leaf at the index
+     */
+    int leafAt(int index) {
+        int node = root;
+        int remaining = index;
+        while (!isLeaf(node)) {
+            int left = left(node);
+            if (remaining < size(left)) {
+                node = left;
+            } else {
+                remaining -= size(left);
+                node = right(node);
+            }
+        }
+        if (remaining != 0) {
+            throw new RuntimeException("Asked for index > 0 with a height of 0");
+        }
+        return node;
+    }
+
+    /**
+     * Adds the pending key in a single walk
+     * 
+     * @param replace
+     *            true to replace an equal key, false to leave the tree unchanged if the key is already in it
+     * @return true if the key was already in the tree
+     */
+    boolean insert(boolean replace) {
+        if (root == NONE) {
+            root = newLeaf();
+            return false;
+        }
+        updated = false;
+        replaceExisting = replace;
+        root = insert(root);
+        return updated;
+    }
+
+    private int insert(int node) {
+        if (isLeaf(node)) {
+            int compareResult = comparePending(node);
+            if (compareResult < 0) {
+                return newInner(node, newLeaf(), node);
+            } else if (compareResult == 0) {
+                if (replaceExisting) {
+                    putPendingKey(node);
+                    invalidate(node);
+                }
+                updated = true;
+                return node;
+            } else {
+                int leaf = newLeaf();
+                return newInner(leaf, node, leaf);
+            }
+        }
+
+        if (comparePending(node) < 0) {
+            setLeft(node, insert(left(node)));
+        } else {
+            setRight(node, insert(right(node)));
+        }
+
+        if (updated) {
+            if (replaceExisting) {
+                invalidate(node);
+            }
+            return node;
+        }
+        invalidate(node);
+        updateHeightAndSize(node);
+        return balance(node);
+    }
+
+    /**
+     * Removes the pending key in a single walk
+     * 
+     * @return true if the key has been removed, false if it was not in the tree
+     */
+    boolean removePending() {
+        if (root == NONE) {
+            return false;
+        }
+        removed = true;
+        root = remove(root);
+        return removed;
+    }
+
+    /**
+     * @return the new root of the subtree or {@link #NONE} if it consisted only of the leaf for the key
+     */
+    private int remove(int node) {
+        if (isLeaf(node)) {
+            if (comparePending(node) != 0) {
+                removed = false;
+                return node;
+            }
+            free(node);
+            return NONE;
+        }
+
+        if (comparePending(node) < 0) {
+            int newLeft = remove(left(node));
+            if (!removed) {
+                return node;
+            }
+            if (newLeft == NONE) {
+                int sibling = right(node);
+                free(node);
+                return sibling;
+            }
+            invalidate(node);
+            setLeft(node, newLeft);
+        } else {
+            int newRight = remove(right(node));
+            if (!removed) {
+                return node;
+            }
+            if (newRight == NONE) {
+                int sibling = left(node);
+                free(node);
+                return sibling;
+            }
+            invalidate(node);
+            setRight(node, newRight);
+            if (comparePending(node) == 0) {
+                // the smallest key of the right subtree was removed
+                copyKey(leftmost(newRight), node);
+            }
+        }
+        updateHeightAndSize(node);
+        return balance(node);
+    }
+
+    private int leftmost(int node) {
+        while (!isLeaf(node)) {
+            node = left(node);
+        }
+        return node;
+    }
+
+    private int balance(int node) {
+        int balance = getBalance(node);
+        if (balance > 1) {
+            if (getBalance(left(node)) >= 0) {
+                // Left Left Case
+                return rotateRight(node);
+            } else {
+                // Left Right Case
+                setLeft(node, rotateLeft(left(node)));
+                return rotateRight(node);
+            }
+        }
+        if (balance < -1) {
+            if (getBalance(right(node)) <= 0) {
+                // Right Right Case
+                return rotateLeft(node);
+            } else {
+                // Right Left Case
+                setRight(node, rotateRight(right(node)));
+                return rotateLeft(node);
+            }
+        }
+        // no changes - balanced
+        return node;
+    }
+
+    private int rotateLeft(int node) {
+        int right = right(node);
+        invalidate(node);
+        invalidate(right);
+
+        setRight(node, left(right));
+        setLeft(right, node);
+
+        updateHeightAndSize(node);
+        updateHeightAndSize(right);
+        return right;
+    }
+
+    private int rotateRight(int node) {
+        int left = left(node);
+        invalidate(node);
+        invalidate(left);
+
+        setLeft(node, right(left));
+        setRight(left, node);
+
+        updateHeightAndSize(node);
+        updateHeightAndSize(left);
+        return left;
+    }
+
+    private int getBalance(int node) {
+        return isLeaf(node) ? 0 : height(left(node)) - height(right(node));
+    }
+
+    private void updateHeightAndSize(int node) {
+        int left = left(node);
+        int right = right(node);
+        setHeight(node, Math.max(height(left), height(right)) + 1);
+        setSize(node, size(left) + size(right));
+    }
+
+    @Override
+    public HashWithCount getHashWithCount() {
+        if (root == NONE) {
+            return new HashWithCount(null, 0);
+        }
+        int hashCount = calculateHash(root);
+        return new HashWithCount(hash(root), hashCount);
+    }
+
+    @Override
+    public byte[] getRootHash() {
+        return getHashWithCount().hash;
+    }
+
+    private int calculateHash(int node) {
+        if (isHashed(node)) {
+            return 0;
+        }
+        int hashCount = 0;
+        if (!isLeaf(node)) {
+            hashCount += calculateHash(left(node));
+            hashCount += calculateHash(right(node));
+        }
+
+        HashEncoder encoder = HashEncoder.get();
+        if (isLeaf(node)) {
+            // height and size of a leaf
+            encoder.writeByte(0);
+            encoder.writeVarintBigInteger(1);
+            writeKey(encoder, node);
+        } else {
+            encoder.writeByte(height(node));
+            encoder.writeVarintBigInteger(size(node));
+            writeHash(encoder, left(node));
+            writeHash(encoder, right(node));
+        }
+        byte[] hash = hashFunction.hashBytes(encoder.toByteArray());
+        if (hash.length != hashLength) {
+            throw new IllegalStateException("Hash function returned " + hash.length + " bytes instead of " + hashLength);
+        }
+        putHash(node, hash);
+        return hashCount + 1;
+    }
+
+    @Override
+    public String toPrettyString() {
+        if (root == NONE) {
+            return "()";
+        }
+        return toPrettyString(root);
+    }
+
+    private String toPrettyString(int node) {
+        if (isLeaf(node)) {
+            return toPrettyKey(node);
+        }
+        return "(" + toPrettyString(left(node)) + " " + toPrettyString(right(node)) + ")";
+    }
+
+    /**
+     * @return the key of the leaf the way {@link MerkleNode#toPrettyString()} prints it
+     */
+    String toPrettyKey(int leaf) {
+        return String.valueOf(new BigInteger(key(leaf).toByteArray()).intValue());
+    }
+
+    /**
+     * Visits the nodes like {@link MerkleNode#iterateNodes(IterateFunction)}, reading the node storage directly. Each
+     * visited node is passed as a detached copy that holds its key, height, size and hash but no children, only the
+     * copies the function keeps stay on the heap. Nodes without a hash are hashed before the walk starts.
+     */
+    @Override
+    public boolean iterateNodes(IterateFunction<K> function) {
+        if (root == NONE) {
+            return false;
+        }
+        calculateHash(root);
+        return iterateNodes(root, function);
+    }
+
+    private boolean iterateNodes(int node, IterateFunction<K> function) {
+        if (function.currentNode(detachedCopy(node))) {
+            return true;
+        }
+        return !isLeaf(node) && (iterateNodes(left(node), function) || iterateNodes(right(node), function));
+    }
+
+    private MerkleNode<K> detachedCopy(int node) {
+        MerkleNode<K> copy;
+        if (isLeaf(node)) {
+            copy = new MerkleNode<K>(key(node));
+        } else {
+            copy = new InnerNode<K>(key(node), height(node), size(node), null, null);
+        }
+        copy.hash = hash(node);
+        return copy;
+    }
+
+    @Override
+    public void removeAll() {
+        clear();
+        freeNode = NONE;
+        root = NONE;
+    }
+
+    boolean isLeaf(int node) {
+        return height(node) == 0;
+    }
+
+    private int newLeaf() {
+        int node = allocate();
+        setHeight(node, 0);
+        setSize(node, 1);
+        setLeft(node, NONE);
+        setRight(node, NONE);
+        putPendingKey(node);
+        invalidate(node);
+        return node;
+    }
+
+    /**
+     * @param keySource
+     *            the node whose key is copied, the smallest key of right
+     */
+    private int newInner(int keySource, int left, int right) {
+        int node = allocate();
+        setLeft(node, left);
+        setRight(node, right);
+        copyKey(keySource, node);
+        invalidate(node);
+        updateHeightAndSize(node);
+        return node;
+    }
+
+    private int allocate() {
+        if (freeNode != NONE) {
+            int node = freeNode;
+            freeNode = left(node);
+            return node;
+        }
+        return allocateNew();
+    }
+
+    private void free(int node) {
+        setLeft(node, freeNode);
+        freeNode = node;
+    }
+}
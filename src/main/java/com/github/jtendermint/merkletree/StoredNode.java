@@ -0,0 +1,182 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import java.util.List;
+
+import com.github.jtendermint.merkletree.byteable.types.IByteable;
+
+/**
+ * Placeholder for a node in a {@link NodeStore} that has not been loaded yet. It only knows the hash, the node is read
+ * from the store on first access and every call is delegated to it. The children of a loaded inner node are
+ * placeholders again, so a tree is loaded one node at a time along the paths that are actually used.
+ * <p>
+ * Without a {@link NodeCache} a placeholder keeps its node once it is loaded. With a cache only the pinned upper
+ * levels do, every other placeholder asks the cache on each access and reloads its node after it has been evicted.
+ * Whether a node is pinned is decided on every access, see {@link NodeLoader#isResident(MerkleNode)}, so rotations
+ * that move placeholders between levels do not pin the wrong nodes.
+ * <p>
+ * Loaded nodes are persistent, a change creates new nodes that replace the placeholder in its parent.
+ */
+final class StoredNode<K extends IByteable> extends MerkleNode<K> {
+
+    private final NodeLoader<K> loader;
+
+    private volatile MerkleNode<K> node;
+
+    StoredNode(byte[] hash, NodeLoader<K> loader) {
+        super(null);
+        this.hash = hash;
+        this.loader = loader;
+    }
+
+    @Override
+    MerkleNode<K> resolve() {
+        MerkleNode<K> loaded = node;
+        if (loaded == null) {
+            loaded = loader.load(hash);
+            if (loader.isResident(loaded)) {
+                node = loaded;
+            }
+        } else if (!loader.isResident(loaded)) {
+            // the tree has grown or the placeholder has moved down, the node leaves the pinned levels
+            node = null;
+            loader.unpin(loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * @return true if the placeholder keeps its loaded node
+     */
+    boolean isPinned() {
+        return node != null;
+    }
+
+    @Override
+    public K getKey() {
+        return resolve().getKey();
+    }
+
+    @Override
+    public int getSize() {
+        return resolve().getSize();
+    }
+
+    @Override
+    public int getHeight() {
+        return resolve().getHeight();
+    }
+
+    @Override
+    public KeyIndex<K> get(int index) {
+        return resolve().get(index);
+    }
+
+    @Override
+    public K get(K entry) {
+        return resolve().get(entry);
+    }
+
+    @Override
+    AddResult<K> add(K entry, OwnerToken owner) {
+        return resolve().add(entry, owner);
+    }
+
+    @Override
+    MerkleNode<K> applyBatch(List<K> adds, int addFrom, int addTo, List<K> removes, int removeFrom, int removeTo, OwnerToken owner) {
+        if (addFrom == addTo && removeFrom == removeTo) {
+            return this;
+        }
+        return resolve().applyBatch(adds, addFrom, addTo, removes, removeFrom, removeTo, owner);
+    }
+
+    @Override
+    K leftmostKey() {
+        return resolve().leftmostKey();
+    }
+
+    @Override
+    int rank(K entry) {
+        return resolve().rank(entry);
+    }
+
+    @Override
+    ProofNode<K> prove(K first, K last) {
+        return resolve().prove(first, last);
+    }
+
+    @Override
+    ProofNode<K> proveAll(List<K> entries, int from, int to) {
+        return resolve().proveAll(entries, from, to);
+    }
+
+    @Override
+    int getBalance() {
+        return resolve().getBalance();
+    }
+
+    @Override
+    RemoveResult<K> removeEntry(K entry, OwnerToken owner) {
+        return resolve().removeEntry(entry, owner);
+    }
+
+    @Override
+    void persist(NodeStore target, boolean skipPersisted, NodeLoader<K> releaseTo) {
+        // the placeholder stands for a node of the store the tree was loaded from
+        if (!skipPersisted && !target.contains(hash)) {
+            resolve().persist(target, false, releaseTo);
+        }
+    }
+
+    @Override
+    public MerkleNode<K> createCopy() {
+        return resolve().createCopy();
+    }
+
+    @Override
+    public String toPrettyString() {
+        return resolve().toPrettyString();
+    }
+
+    @Override
+    public boolean isLeafNode() {
+        return resolve().isLeafNode();
+    }
+
+    @Override
+    public boolean iterateNodes(IterateFunction<K> func) {
+        return resolve().iterateNodes(func);
+    }
+
+    @Override
+    public boolean iterateRange(K from, K to, boolean ascending, IterateFunction<K> func) {
+        return resolve().iterateRange(from, to, ascending, func);
+    }
+
+    @Override
+    void collectLeaves(List<MerkleNode<K>> leaves) {
+        resolve().collectLeaves(leaves);
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import com.github.jtendermint.merkletree.byteable.types.IByteable;
+import com.github.jtendermint.merkletree.iavl.AVLTree;
+import com.github.jtendermint.merkletree.iavl.IterateFunct.Loop;
+
+/**
+ * Read-only image of a {@link MerkleTree} or {@link AVLTree} in a file that is memory-mapped and queried in place.
+ * Opening an image maps the file and reads its header, nothing else. Lookups decode only the keys on their path.
+ * <p>
+ * The nodes are stored in pre-order with a fixed stride: height, size, offset and length of the key and the hash.
+ * The left child of node i is node i + 1, the right child is node i + 2 * (size of the left child), and the leaves
+ * appear in ascending order. The key bytes follow the node table.
+ * <p>
+ * Images are immutable and may be queried by any number of threads. {@link #close()} unmaps the file, it must not be
+ * called while other threads still query the image.
+ */
+public class TreeImage<K> implements Iterable<K>, Closeable {
+
+    private static final int MAGIC = 0x4D544931;
+
+    // magic, hash length, max key length, node count
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+
+    private static final int HEIGHT = 0;
+    private static final int SIZE = 4;
+    private static final int KEY_OFFSET = 8;
+    private static final int KEY_LENGTH = 16;
+    private static final int HASH = 20;
+
+    static final long DEFAULT_CHUNK_SIZE = 1L << 30;
+
+    private final MappedByteBuffer[] chunks;
+    private final long chunkSize;
+
+    private final Function<byte[], K> keyDecoder;
+    private final Comparator<? super K> comparator;
+
+    private final int hashLength;
+    private final int stride;
+    private final long nodeCount;
+
+    private volatile boolean closed;
+
+    /**
+     * Writes the current version of a tree to an image file, replacing the file if it exists. The tree is hashed first
+     * with its own hash function, the image stores the hashes the nodes have cached.
+     * 
+     * @param tree
+     *            the tree to export
+     * @param file
+     *            the image file to write
+     * @throws IOException
+     *             if the file cannot be written
+     * @throws IllegalStateException
+     *             if a node has no hash although the tree has been hashed
+     */
+    public static <K extends IByteable> void write(MerkleTree<K> tree, Path file) throws IOException {
+        byte[] rootHash = tree.getRootHash();
+        try (Writer writer = new Writer(file, 2L * tree.size() - 1, rootHash)) {
+            tree.iterateNodes(node -> {
+                byte[] hash = node.hash;
+                if (hash == null) {
+                    throw new IllegalStateException("Node " + node.getKey() + " has not been hashed");
+                }
+                writer.write(node.getHeight(), node.getSize(), node.getKey().toByteArray(), hash);
+                return false;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Writes an {@link AVLTree} to an image file, replacing the file if it exists. The tree is hashed first.
+     * 
+     * @param tree
+     *            the tree to export
+     * @param keyEncoder
+     *            converts a key to the bytes the image stores
+     * @param file
+     *            the image file to write
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public static <K extends Comparable<K>> void write(AVLTree<K> tree, Function<K, byte[]> keyEncoder, Path file) throws IOException {
+        byte[] rootHash = tree.getRootHash();
+        try (Writer writer = new Writer(file, 2L * tree.size() - 1, rootHash)) {
+            tree.iterateNodes(node -> {
+                writer.write(node.getHeight(), node.getSize(), keyEncoder.apply(node.getValue()), node.getHashWithCount().hash);
+                return Loop.CONTINUE;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Opens the image of a {@link MerkleTree}
+     * 
+     * @param file
+     *            the image file
+     * @param keyDecoder
+     *            restores an entry from its {@link IByteable#toByteArray()}, e.g. {@code ByteableLong::fromByteArray}
+     * @return the mapped image
+     * @throws IOException
+     *             if the file cannot be mapped or is no image
+     */
+    public static <K extends IByteable> TreeImage<K> openMerkleTree(Path file, Function<byte[], K> keyDecoder) throws IOException {
+        return new TreeImage<K>(file, keyDecoder, (a, b) -> a.compareTo(b), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Opens the image of an {@link AVLTree}
+     * 
+     * @param file
+     *            the image file
+     * @param keyDecoder
+     *            the inverse of the key encoder the image was written with
+     * @return the mapped image
+     * @throws IOException
+     *             if the file cannot be mapped or is no image
+     */
+    public static <K extends Comparable<K>> TreeImage<K> openAVLTree(Path file, Function<byte[], K> keyDecoder) throws IOException {
+        return new TreeImage<K>(file, keyDecoder, Comparator.naturalOrder(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize
+     *            the size of the mapped regions, only lowered by tests
+     */
+    TreeImage(Path file, Function<byte[], K> keyDecoder, Comparator<? super K> comparator, long chunkSize) throws IOException {
+        this.keyDecoder = keyDecoder;
+        this.comparator = comparator;
+        this.chunkSize = chunkSize;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, Math.min(HEADER_SIZE, fileSize));
+            if (fileSize < HEADER_SIZE || header.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a tree image");
+            }
+            this.hashLength = header.getInt(4);
+            int maxKeyLength = header.getInt(8);
+            this.nodeCount = header.getLong(12);
+            this.stride = HASH + hashLength;
+
+            // every chunk overlaps the next one by the largest record, so no record is split between two chunks
+            long overlap = Math.max(stride, maxKeyLength);
+            int count = (int) ((fileSize + chunkSize - 1) / chunkSize);
+            this.chunks = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = i * chunkSize;
+                chunks[i] = channel.map(MapMode.READ_ONLY, start, Math.min(chunkSize + overlap, fileSize - start));
+            }
+        }
+    }
+
+    /**
+     * @return the amount of entries
+     */
+    public int size() {
+        return nodeCount == 0 ? 0 : getInt(0, SIZE);
+    }
+
+    /**
+     * @return the height of the tree
+     */
+    public int getHeight() {
+        return nodeCount == 0 ? 0 : getInt(0, HEIGHT);
+    }
+
+    /**
+     * @return the root hash of the exported tree, null for an empty tree
+     */
+    public byte[] getRootHash() {
+        return nodeCount == 0 ? null : getBytes(position(0) + HASH, hashLength);
+    }
+
+    /**
+     * @param entry
+     *            a non-null entry
+     * @return true if the image contains the entry
+     */
+    public boolean contains(K entry) {
+        return get(entry) != null;
+    }
+
+    /**
+     * @param entry
+     *            a non-null entry
+     * @return the entry of the image that equals the given one, null if there is none
+     */
+    public K get(K entry) {
+        if (nodeCount == 0) {
+            return null;
+        }
+        long node = 0;
+        while (getInt(node, HEIGHT) > 0) {
+            if (comparator.compare(entry, key(node)) < 0) {
+                node = node + 1;
+            } else {
+                node = node + 2L * getInt(node + 1, SIZE);
+            }
+        }
+        K key = key(node);
+        return entry.equals(key) ? key : null;
+    }
+
+    /**
+     * @param index
+     *            the index of the entry, from 0 to size() - 1
+     * @return the entry at the index
+     */
+    public KeyIndex<K> get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " for an image of size " + size());
+        }
+        long node = 0;
+        int remaining = index;
+        while (getInt(node, HEIGHT) > 0) {
+            int leftSize = getInt(node + 1, SIZE);
+            if (remaining < leftSize) {
+                node = node + 1;
+            } else {
+                remaining -= leftSize;
+                node = node + 2L * leftSize;
+            }
+        }
+        return new KeyIndex<K>(key(node), true, index);
+    }
+
+    /**
+     * @return the entries in ascending order
+     */
+    @Override
+    public Iterator<K> iterator() {
+        return new Iterator<K>() {
+
+            private long node = nextLeaf(0);
+
+            @Override
+            public boolean hasNext() {
+                return node < nodeCount;
+            }
+
+            @Override
+            public K next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                K key = key(node);
+                node = nextLeaf(node + 1);
+                return key;
+            }
+        };
+    }
+
+    private long nextLeaf(long node) {
+        while (node < nodeCount && getInt(node, HEIGHT) > 0) {
+            node++;
+        }
+        return node;
+    }
+
+    /**
+     * Unmaps the file. The image cannot be queried afterwards.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (MappedByteBuffer chunk : chunks) {
+            MappedBuffers.unmap(chunk);
+        }
+    }
+
+    private K key(long node) {
+        long position = position(node);
+        long keyOffset = getLong(position + KEY_OFFSET);
+        return keyDecoder.apply(getBytes(keyOffset, getInt(node, KEY_LENGTH)));
+    }
+
+    private long position(long node) {
+        return HEADER_SIZE + node * stride;
+    }
+
+    private int getInt(long node, int field) {
+        long position = position(node) + field;
+        return chunk(position).getInt((int) (position % chunkSize));
+    }
+
+    private long getLong(long position) {
+        return chunk(position).getLong((int) (position % chunkSize));
+    }
+
+    private byte[] getBytes(long position, int length) {
+        ByteBuffer chunk = chunk(position);
+        int start = (int) (position % chunkSize);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = chunk.get(start + i);
+        }
+        return bytes;
+    }
+
+    private ByteBuffer chunk(long position) {
+        if (closed) {
+            throw new IllegalStateException("The image has been closed");
+        }
+        return chunks[(int) (position / chunkSize)];
+    }
+
+    /**
+     * Writes the node table and the key area in one pass, each through its own buffer
+     */
+    private static final class Writer implements Closeable {
+
+        private static final int BUFFER_SIZE = 1 << 16;
+
+        private final FileChannel channel;
+        private final int hashLength;
+        private final long nodeCount;
+
+        private final ByteBuffer nodes = ByteBuffer.allocate(BUFFER_SIZE);
+        private long nodePosition = HEADER_SIZE;
+
+        private final ByteBuffer keys = ByteBuffer.allocate(BUFFER_SIZE);
+        private long keyPosition;
+
+        private int maxKeyLength;
+        private long written;
+
+        Writer(Path file, long nodeCount, byte[] rootHash) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.nodeCount = Math.max(nodeCount, 0);
+            this.hashLength = rootHash == null ? 0 : rootHash.length;
+            this.keyPosition = HEADER_SIZE + this.nodeCount * (HASH + hashLength);
+        }
+
+        void write(int height, int size, byte[] key, byte[] hash) {
+            try {
+                if (nodes.remaining() < HASH + hashLength) {
+                    nodePosition = flush(nodes, nodePosition);
+                }
+                long keyOffset = keyPosition + keys.position();
+                nodes.putInt(height).putInt(size).putLong(keyOffset).putInt(key.length).put(hash, 0, hashLength);
+                if (keys.remaining() < key.length) {
+                    keyPosition = flush(keys, keyPosition);
+                }
+                if (key.length > keys.capacity()) {
+                    write(ByteBuffer.wrap(key), keyPosition);
+                    keyPosition += key.length;
+                } else {
+                    keys.put(key);
+                }
+                maxKeyLength = Math.max(maxKeyLength, key.length);
+                written++;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private long flush(ByteBuffer buffer, long position) throws IOException {
+            buffer.flip();
+            int length = buffer.remaining();
+            write(buffer, position);
+            buffer.clear();
+            return position + length;
+        }
+
+        private void write(ByteBuffer buffer, long position) throws IOException {
+            int start = buffer.position();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position() - start);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (written != nodeCount) {
+                    throw new IllegalStateException("Expected " + nodeCount + " nodes but got " + written);
+                }
+                flush(nodes, nodePosition);
+                flush(keys, keyPosition);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(hashLength).putInt(maxKeyLength).putLong(nodeCount).flip();
+                write(header, 0);
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Optional operation counters of a {@link MerkleTree} or {@link com.github.jtendermint.merkletree.iavl.AVLTree}. The
+ * counters are striped {@link LongAdder}s, so recording stays cheap under contention and the collector can be left on
+ * in production.
+ * <p>
+ * Read the totals through {@link MerkleTree#getStats()}, or register a listener that receives the counts of every
+ * block: a tree publishes them on {@link MerkleTree#commit()} or
+ * {@link com.github.jtendermint.merkletree.iavl.AVLTree#commit()}.
+ */
+public class TreeStats {
+
+    private final LongAdder copies = new LongAdder();
+    private final LongAdder singleRotations = new LongAdder();
+    private final LongAdder doubleRotations = new LongAdder();
+    private final LongAdder hashes = new LongAdder();
+    private final LongAdder hashedBytes = new LongAdder();
+    private final LongAdder inserts = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+
+    private final List<Consumer<Snapshot>> listeners = new CopyOnWriteArrayList<>();
+
+    private Snapshot lastPublished = new Snapshot(0, 0, 0, 0, 0, 0, 0, 0, 0);
+
+    /**
+     * A node has been copied because it was shared with older versions
+     */
+    public void recordCopy() {
+        copies.increment();
+    }
+
+    /**
+     * A subtree has been rebalanced with a single (left-left, right-right) or a double (left-right, right-left)
+     * rotation
+     */
+    public void recordRotation(boolean isDouble) {
+        (isDouble ? doubleRotations : singleRotations).increment();
+    }
+
+    /**
+     * @param bytes
+     *            the amount of bytes fed to the hash function, 0 if unknown
+     */
+    public void recordHash(int bytes) {
+        hashes.increment();
+        hashedBytes.add(bytes);
+    }
+
+    /**
+     * @param update
+     *            true if an existing entry was replaced, false if a new one was inserted
+     */
+    public void recordWrite(boolean update) {
+        (update ? updates : inserts).increment();
+    }
+
+    /**
+     * @param insertCount
+     *            the amount of new entries
+     * @param updateCount
+     *            the amount of replaced entries
+     */
+    public void recordWrites(long insertCount, long updateCount) {
+        inserts.add(insertCount);
+        updates.add(updateCount);
+    }
+
+    /**
+     * @param listener
+     *            receives the counts since the previous publication together with the height and size at the time
+     */
+    public void addListener(Consumer<Snapshot> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<Snapshot> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @param height
+     *            the current height of the tree
+     * @param size
+     *            the current size of the tree
+     * @return the totals since the collector has been created
+     */
+    public Snapshot snapshot(int height, int size) {
+        return new Snapshot(copies.sum(), singleRotations.sum(), doubleRotations.sum(), hashes.sum(), hashedBytes.sum(),
+                inserts.sum(), updates.sum(), height, size);
+    }
+
+    /**
+     * Passes the counts since the previous call to all listeners, trees call this at the end of a block
+     * 
+     * @param height
+     *            the current height of the tree
+     * @param size
+     *            the current size of the tree
+     */
+    public synchronized void publish(int height, int size) {
+        Snapshot current = snapshot(height, size);
+        Snapshot delta = current.since(lastPublished);
+        lastPublished = current;
+        for (Consumer<Snapshot> listener : listeners) {
+            listener.accept(delta);
+        }
+    }
+
+    /**
+     * Immutable state of the counters
+     */
+    public static final class Snapshot {
+
+        private final long copies;
+        private final long singleRotations;
+        private final long doubleRotations;
+        private final long hashes;
+        private final long hashedBytes;
+        private final long inserts;
+        private final long updates;
+        private final int height;
+        private final int size;
+
+        Snapshot(long copies, long singleRotations, long doubleRotations, long hashes, long hashedBytes, long inserts, long updates,
+                int height, int size) {
+            this.copies = copies;
+            this.singleRotations = singleRotations;
+            this.doubleRotations = doubleRotations;
+            this.hashes = hashes;
+            this.hashedBytes = hashedBytes;
+            this.inserts = inserts;
+            this.updates = updates;
+            this.height = height;
+            this.size = size;
+        }
+
+        public long getCopies() {
+            return copies;
+        }
+
+        public long getSingleRotations() {
+            return singleRotations;
+        }
+
+        public long getDoubleRotations() {
+            return doubleRotations;
+        }
+
+        public long getHashes() {
+            return hashes;
+        }
+
+        public long getHashedBytes() {
+            return hashedBytes;
+        }
+
+        public long getInserts() {
+            return inserts;
+        }
+
+        public long getUpdates() {
+            return updates;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * @return the hashes calculated per written entry, the write amplification of the interval. 0 without writes.
+         */
+        public double getHashesPerWrite() {
+            long writes = inserts + updates;
+            return writes == 0 ? 0 : (double) hashes / writes;
+        }
+
+        /**
+         * @return the counts between an earlier snapshot and this one, with the height and size of this one
+         */
+        public Snapshot since(Snapshot earlier) {
+            return new Snapshot(copies - earlier.copies, singleRotations - earlier.singleRotations,
+                    doubleRotations - earlier.doubleRotations, hashes - earlier.hashes, hashedBytes - earlier.hashedBytes,
+                    inserts - earlier.inserts, updates - earlier.updates, height, size);
+        }
+
+        @Override
+        public String toString() {
+            return "TreeStats[copies=" + copies + ", singleRotations=" + singleRotations + ", doubleRotations=" + doubleRotations
+                    + ", hashes=" + hashes + ", hashedBytes=" + hashedBytes + ", inserts=" + inserts + ", updates=" + updates
+                    + ", height=" + height + ", size=" + size + "]";
+        }
+    }
+}
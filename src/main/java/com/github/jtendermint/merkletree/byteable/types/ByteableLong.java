@@ -37,6 +37,28 @@ public class ByteableLong implements IByteable<ByteableLong> {
         this.bytes = calcByteArray(value);
     }
 
+    /**
+     * Restores a ByteableLong from the bytes of {@link #toByteArray()}
+     * 
+     * @param bytes
+     *            the big-endian value without leading zero bytes
+     * @return a new ByteableLong
+     */
+    public static ByteableLong fromByteArray(byte[] bytes) {
+        long value = 0;
+        for (byte b : bytes) {
+            value = (value << 8) | (b & 0xFF);
+        }
+        return new ByteableLong(value);
+    }
+
+    /**
+     * @return the wrapped value
+     */
+    public long getValue() {
+        return value;
+    }
+
     @Override
     public byte[] toByteArray() {
         return bytes != null ? Arrays.copyOf(bytes, bytes.length) : null;
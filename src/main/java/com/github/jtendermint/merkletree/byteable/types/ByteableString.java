@@ -48,6 +48,17 @@ public class ByteableString implements IByteable<ByteableString> {
         }
     }
 
+    /**
+     * Restores a ByteableString from the bytes of {@link #toByteArray()}
+     * 
+     * @param bytes
+     *            UTF-8 encoded string
+     * @return a new ByteableString
+     */
+    public static ByteableString fromByteArray(byte[] bytes) {
+        return new ByteableString(bytes);
+    }
+
     @Override
     public byte[] toByteArray() {
         return string.getBytes(Charset.forName("UTF-8"));
@@ -23,9 +23,20 @@
  */
 package com.github.jtendermint.merkletree.iavl;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.github.jtendermint.merkletree.HashWithCount;
+import com.github.jtendermint.merkletree.TreeStats;
 import com.github.jtendermint.merkletree.iavl.IterateFunct.Loop;
 
 /**
@@ -35,10 +46,31 @@ public class AVLTree<K extends Comparable<K>> {
 
     private final Hashing<K> hashalgorithm;
 
+    private final TreeStats stats;
+
     private Node<K> rootNode;
 
     public AVLTree(Hashing<K> hashalgorithm) {
-        this.hashalgorithm = hashalgorithm;
+        this(hashalgorithm, null);
+    }
+
+    /**
+     * Creates a tree that collects operation counters. Changes pass the collector down to the nodes they copy, the
+     * hashing of the nodes counts the hashes.
+     *
+     * @param hashalgorithm the hashing of the values
+     * @param stats the collector to record to, null for none
+     */
+    public AVLTree(Hashing<K> hashalgorithm, TreeStats stats) {
+        this.hashalgorithm = stats == null ? hashalgorithm : new CountingHashing<>(hashalgorithm, stats);
+        this.stats = stats;
+    }
+
+    /**
+     * @return the totals of the collector together with the current height and size, null if no collector is set
+     */
+    public TreeStats.Snapshot getStats() {
+        return stats == null ? null : stats.snapshot(getHeight(), size());
     }
 
     /**
@@ -84,6 +116,124 @@ public class AVLTree<K extends Comparable<K>> {
         return rootNode == null ? null : rootNode.get(index);
     }
 
+    /**
+     * Finds the position of a value in O(log n) using the subtree sizes
+     *
+     * @param entry the non-null value to look up
+     * @return the index of the value, or (-(insertion point) - 1) if it is not in the tree, like
+     *         {@link Collections#binarySearch(List, Object)}
+     */
+    public int indexOf(K entry) {
+        if (rootNode == null) {
+            return -1;
+        }
+        int rank = rootNode.rank(entry);
+        return rootNode.contains(entry) ? rank : -rank - 1;
+    }
+
+    /**
+     * Iterates the values in ascending order, starting at an index. Finding the start costs O(log n).
+     *
+     * @param fromIndex the index of the first value, size() for an empty iterator
+     * @return an iterator over the values from fromIndex on
+     */
+    public Iterator<K> iterator(int fromIndex) {
+        if (fromIndex < 0 || fromIndex > size()) {
+            throw new IndexOutOfBoundsException("Index " + fromIndex + " for a tree of size " + size());
+        }
+        if (fromIndex == size()) {
+            return Collections.emptyIterator();
+        }
+        return Spliterators.iterator(new LeafSpliterator<>(rootNode, fromIndex));
+    }
+
+    /**
+     * Looks up an entry together with a proof of its inclusion. The tree is hashed first, on a clean tree the proof
+     * only reads cached hashes along the path to the entry, in O(log n).
+     *
+     * @param entry the non-null entry to look up
+     * @return the entry from the tree and its proof, null if the entry is not in the tree
+     * @see InclusionProof#verify(InclusionProof, byte[], Hashing)
+     */
+    public InclusionProof<K> getWithProof(K entry) {
+        if (rootNode == null) {
+            return null;
+        }
+        rootNode.getHashWithCount();
+        List<InclusionProof.PathNode> path = new ArrayList<>();
+        K value = rootNode.collectProof(entry, path);
+        if (value == null) {
+            return null;
+        }
+        Collections.reverse(path);
+        return new InclusionProof<>(value, path);
+    }
+
+    /**
+     * Looks up several values together with one proof of their inclusion. The tree is walked once for the sorted values
+     * and every node hash the proof needs is included once.
+     *
+     * @param values the non-null values to look up
+     * @return the values from the tree and their proof, null if one of them is not in the tree
+     * @see MultiProof#verify(MultiProof, byte[], Hashing)
+     */
+    public MultiProof<K> getAllWithProof(Collection<K> values) {
+        if (rootNode == null || values.isEmpty()) {
+            return null;
+        }
+        rootNode.getHashWithCount();
+        List<K> sorted = new ArrayList<>(new TreeSet<>(values));
+        MultiProof<K> proof = new MultiProof<>(rootNode.proveAll(sorted, 0, sorted.size()));
+        // every value ends at a leaf, it must be the value itself
+        return proof.getValues().equals(sorted) ? proof : null;
+    }
+
+    /**
+     * Returns the values in [from, to) with a proof that there are no others. At most limit values are returned, if
+     * the range is cut short the end of the proof is the first value that was left out. Costs O(k + log n).
+     *
+     * @param from the first value of the range (inclusive)
+     * @param to the end of the range (exclusive)
+     * @param limit the maximum amount of values
+     * @return the proof, null for an empty tree
+     * @see RangeProof#verify(RangeProof, byte[], Hashing)
+     */
+    public RangeProof<K> getRangeWithProof(K from, K to, int limit) {
+        if (from.compareTo(to) > 0 || limit < 0) {
+            throw new IllegalArgumentException("Invalid range [" + from + ", " + to + ") with limit " + limit);
+        }
+        if (rootNode == null) {
+            return null;
+        }
+        rootNode.getHashWithCount();
+        int size = rootNode.getSize();
+        int start = rootNode.rank(from);
+        int end = rootNode.rank(to);
+        K proofTo = to;
+        if (end - start > limit) {
+            end = start + limit;
+            proofTo = rootNode.get(end).getValue();
+        }
+        // reveal the neighbours on both sides as well
+        K first = rootNode.get(Math.max(start - 1, 0)).getValue();
+        K last = rootNode.get(Math.min(end, size - 1)).getValue();
+        return new RangeProof<>(from, proofTo, rootNode.prove(first, last));
+    }
+
+    /**
+     * Proves that a value is not in the tree by revealing its two neighbours
+     *
+     * @param value the non-null value
+     * @return the proof, null if the tree contains the value or is empty
+     * @see RangeProof#verifyAbsence(RangeProof, Comparable, byte[], Hashing)
+     */
+    public RangeProof<K> getAbsenceProof(K value) {
+        if (contains(value)) {
+            return null;
+        }
+        return getRangeWithProof(value, value, 0);
+    }
+
     /**
      * Add a new entry
      * 
@@ -91,14 +241,18 @@ public class AVLTree<K extends Comparable<K>> {
      * @return <code>true</code> if tree was updated, <code>false</code> if simple add possible
      */
     public boolean add(K entry) {
+        boolean updated = false;
         if (rootNode == null) {
             rootNode = new Node<K>().init(entry).setHashFunction(hashalgorithm);
-            return false;
         } else {
-            AddResult<K> result = rootNode.add(entry);
+            AddResult<K> result = rootNode.add(entry, stats);
             rootNode = result.getNode();
-            return result.wasUpdated();
+            updated = result.wasUpdated();
         }
+        if (stats != null) {
+            stats.recordWrite(updated);
+        }
+        return updated;
     }
 
     // /**
@@ -139,6 +293,20 @@ public class AVLTree<K extends Comparable<K>> {
         }
     }
 
+    /**
+     * Hashes the current state and concludes a block: the counts since the previous commit are passed to the listeners
+     * of the collector, see {@link #AVLTree(Hashing, TreeStats)}.
+     *
+     * @return the root-hash. Maybe null
+     */
+    public byte[] commit() {
+        byte[] rootHash = getRootHash();
+        if (stats != null) {
+            stats.publish(getHeight(), size());
+        }
+        return rootHash;
+    }
+
     /**
      * @return the Root-Node. Maybe null
      */
@@ -169,4 +337,47 @@ public class AVLTree<K extends Comparable<K>> {
         return Loop.STOP;
     }
 
+    /**
+     * Splits exactly in half at every inner node using the subtree sizes. Changes copy the nodes on their path instead
+     * of modifying them, so the spliterator walks a snapshot of the current root and later changes do not affect it.
+     *
+     * @return a spliterator over the values in ascending order
+     */
+    public Spliterator<K> spliterator() {
+        if (rootNode == null) {
+            return Spliterators.emptySpliterator();
+        }
+        return new LeafSpliterator<>(rootNode);
+    }
+
+    /**
+     * @return a sequential stream of the values in ascending order
+     */
+    public Stream<K> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * @return a parallel stream of the values, see {@link #spliterator()}
+     */
+    public Stream<K> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Iterate over the leaves with values in [from, to), descending only into subtrees that overlap the range
+     *
+     * @param from the first value of the range (inclusive), null for no lower bound
+     * @param to the end of the range (exclusive), null for no upper bound
+     * @param ascending true to visit the leaves in ascending order, false for descending
+     * @param function the function to apply to each leaf
+     * @return <code>Loop.STOP</code> if the function stopped the iteration
+     */
+    public Loop iterateRange(K from, K to, boolean ascending, IterateFunct<K> function) {
+        if (rootNode != null) {
+            return rootNode.iterateRange(from, to, ascending, function);
+        }
+        return Loop.CONTINUE;
+    }
+
 }
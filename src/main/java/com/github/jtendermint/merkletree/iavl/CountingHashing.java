@@ -0,0 +1,53 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree.iavl;
+
+import com.github.jtendermint.merkletree.TreeStats;
+
+/**
+ * Hashing that records every hash in a {@link TreeStats}
+ */
+final class CountingHashing<K> implements Hashing<K> {
+
+    private final Hashing<K> hashing;
+    private final TreeStats stats;
+
+    CountingHashing(Hashing<K> hashing, TreeStats stats) {
+        this.hashing = hashing;
+        this.stats = stats;
+    }
+
+    @Override
+    public byte[] hashBytes(K k) {
+        // the serialization of values is up to the delegate, their length is unknown
+        stats.recordHash(0);
+        return hashing.hashBytes(k);
+    }
+
+    @Override
+    public byte[] hashBytes(byte[] byteArray) {
+        stats.recordHash(byteArray.length);
+        return hashing.hashBytes(byteArray);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree.iavl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import com.github.jtendermint.merkletree.internal.AbstractInclusionProof;
+import com.github.jtendermint.merkletree.internal.ProofHasher;
+
+/**
+ * Proves that a value is contained in an {@link AVLTree} with a given root hash, see
+ * {@link AVLTree#getWithProof(Comparable)}. The proof consists of the value and, for every inner node on the path from
+ * the leaf to the root, the hash of the child that is not on the path.
+ */
+public class InclusionProof<K> extends AbstractInclusionProof<K> {
+
+    /**
+     * @param value
+     *            the proven value
+     * @param path
+     *            the inner nodes from the parent of the leaf up to the root
+     */
+    public InclusionProof(K value, List<PathNode> path) {
+        super(value, path);
+    }
+
+    public K getValue() {
+        return getEntry();
+    }
+
+    /**
+     * Recomputes the root hash from the proof the way {@link Node} hashes and compares it with the expected one
+     * 
+     * @param proof
+     *            the proof to check
+     * @param rootHash
+     *            the trusted root hash
+     * @param hashing
+     *            the hash function of the tree
+     * @return true if the proof proves that its value is contained in the tree with the given root hash
+     */
+    public static <K> boolean verify(InclusionProof<K> proof, byte[] rootHash, Hashing<K> hashing) {
+        return proof != null && proof.matches(rootHash, hasher(hashing));
+    }
+
+    /**
+     * @return the node hashing of {@link Node}, which does not hash height and size
+     */
+    static <K> ProofHasher<K> hasher(Hashing<K> hashing) {
+        return new ProofHasher<K>() {
+            @Override
+            public byte[] hashLeaf(K value) {
+                return hashing.hashBytes(hashing.hashBytes(value));
+            }
+
+            @Override
+            public byte[] hashInner(int height, int size, byte[] leftHash, byte[] rightHash) {
+                try (ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream()) {
+                    byteOutStream.write(hashing.hashBytes(leftHash));
+                    byteOutStream.write(hashing.hashBytes(rightHash));
+                    return hashing.hashBytes(byteOutStream.toByteArray());
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree.iavl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+
+import com.github.jtendermint.merkletree.iavl.IterateFunct.Loop;
+import com.github.jtendermint.merkletree.HashWithCount;
+import com.github.jtendermint.merkletree.ProofNode;
+import com.github.jtendermint.merkletree.TreeStats;
+
+/**
+ * Inner node of an {@link AVLTree}. Its value is the smallest value of its right subtree. The hashes of the children
+ * are not duplicated here, they are read from the children themselves.
+ */
+final class InnerNode<K extends Comparable<K>> extends Node<K> {
+
+    private int height;
+    private int size;
+
+    private Node<K> leftChildNode;
+    private Node<K> rightChildNode;
+
+    InnerNode(K value, Node<K> leftNode, Node<K> rightNode, Hashing<K> hashFunction) {
+        this.value = value;
+        this.hashFunction = hashFunction;
+        this.leftChildNode = leftNode;
+        this.rightChildNode = rightNode;
+        updateHeightAndSize();
+    }
+
+    private InnerNode(InnerNode<K> other) {
+        this.value = other.value;
+        this.hashFunction = other.hashFunction;
+        this.height = other.height;
+        this.size = other.size;
+        this.leftChildNode = other.leftChildNode;
+        this.rightChildNode = other.rightChildNode;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    Node<K> getLeftChildNode() {
+        return leftChildNode;
+    }
+
+    @Override
+    Node<K> getRightChildNode() {
+        return rightChildNode;
+    }
+
+    @Override
+    public K get(K entry) {
+        if (entry != null && entry.equals(value)) {
+            return value;
+        } else if (entry.compareTo(value) < 0) {
+            return this.leftChildNode.get(entry);
+        } else {
+            return this.rightChildNode.get(entry);
+        }
+    }
+
+    @Override
+    AddResult<K> add(K value, TreeStats stats) {
+        InnerNode<K> newNode = this.createCopy(stats);
+        AddResult<K> newNodeResult;
+        if (value.compareTo(newNode.value) < 0) {
+            newNodeResult = newNode.leftChildNode.add(value, stats);
+            newNode.leftChildNode = newNodeResult.getNode();
+        } else {
+            newNodeResult = newNode.rightChildNode.add(value, stats);
+            newNode.rightChildNode = newNodeResult.getNode();
+        }
+
+        if (newNodeResult.wasUpdated()) {
+            return new AddResult<K>(newNode, true);
+        } else {
+            newNode.updateHeightAndSize();
+            return new AddResult<K>(newNode.balance(stats), false);
+        }
+    }
+
+    @Override
+    int rank(K entry) {
+        if (entry.compareTo(value) < 0) {
+            return leftChildNode.rank(entry);
+        } else {
+            return leftChildNode.getSize() + rightChildNode.rank(entry);
+        }
+    }
+
+    @Override
+    ProofNode<K> prove(K first, K last) {
+        ProofNode<K> left = first.compareTo(value) < 0 ? leftChildNode.prove(first, last) : ProofNode.pruned(leftChildNode.hash);
+        ProofNode<K> right = last.compareTo(value) >= 0 ? rightChildNode.prove(first, last) : ProofNode.pruned(rightChildNode.hash);
+        return ProofNode.inner(height, size, left, right);
+    }
+
+    @Override
+    ProofNode<K> proveAll(List<K> values, int from, int to) {
+        int split = from;
+        int high = to;
+        while (split < high) {
+            int mid = (split + high) >>> 1;
+            if (values.get(mid).compareTo(value) < 0) {
+                split = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        ProofNode<K> left = split > from ? leftChildNode.proveAll(values, from, split) : ProofNode.pruned(leftChildNode.hash);
+        ProofNode<K> right = split < to ? rightChildNode.proveAll(values, split, to) : ProofNode.pruned(rightChildNode.hash);
+        return ProofNode.inner(height, size, left, right);
+    }
+
+    private Node<K> balance(TreeStats stats) {
+        int balance = this.getBalance();
+        if (stats != null && Math.abs(balance) > 1) {
+            boolean isDouble = balance > 1 ? inner(this.leftChildNode).getBalance() < 0 : inner(this.rightChildNode).getBalance() > 0;
+            stats.recordRotation(isDouble);
+        }
+        if (balance > 1) {
+            if (inner(this.leftChildNode).getBalance() >= 0) {
+                // Left Left Case
+                return this.rotateRight(stats);
+            } else {
+                // Left Right Case
+                InnerNode<K> newNode = this.createCopy(stats);
+                newNode.leftChildNode = inner(newNode.leftChildNode).rotateLeft(stats);
+                return newNode.rotateRight(stats);
+            }
+        }
+        if (balance < -1) {
+            if (inner(this.rightChildNode).getBalance() <= 0) {
+                // Right Right Case
+                return this.rotateLeft(stats);
+            } else {
+                // Right Left Case
+                InnerNode<K> newNode = this.createCopy(stats);
+                newNode.rightChildNode = inner(newNode.rightChildNode).rotateRight(stats);
+                return newNode.rotateLeft(stats);
+            }
+        }
+        // no changes - balanced
+        return this;
+    }
+
+    private InnerNode<K> rotateLeft(TreeStats stats) {
+        InnerNode<K> newNode = this.createCopy(stats);
+        InnerNode<K> rightCopy = inner(newNode.rightChildNode).createCopy(stats);
+
+        newNode.rightChildNode = rightCopy.leftChildNode;
+        rightCopy.leftChildNode = newNode;
+
+        newNode.updateHeightAndSize();
+        rightCopy.updateHeightAndSize();
+        return rightCopy;
+    }
+
+    private InnerNode<K> rotateRight(TreeStats stats) {
+        InnerNode<K> newNode = this.createCopy(stats);
+        InnerNode<K> leftCopy = inner(newNode.leftChildNode).createCopy(stats);
+
+        newNode.leftChildNode = leftCopy.rightChildNode;
+        leftCopy.rightChildNode = newNode;
+
+        newNode.updateHeightAndSize();
+        leftCopy.updateHeightAndSize();
+        return leftCopy;
+    }
+
+    /**
+     * A subtree that is at least two levels higher than its sibling, or at least one level higher than the sibling of
+     * its parent, cannot be a leaf
+     */
+    private static <K extends Comparable<K>> InnerNode<K> inner(Node<K> node) {
+        return (InnerNode<K>) node;
+    }
+
+    private int getBalance() {
+        return leftChildNode.getHeight() - rightChildNode.getHeight();
+    }
+
+    private void updateHeightAndSize() {
+        this.height = Math.max(leftChildNode.getHeight(), rightChildNode.getHeight()) + 1;
+        this.size = leftChildNode.getSize() + rightChildNode.getSize();
+    }
+
+    @Override
+    InnerNode<K> createCopy(TreeStats stats) {
+        if (stats != null) {
+            stats.recordCopy();
+        }
+        return new InnerNode<>(this);
+    }
+
+    @Override
+    public String toPrettyString() {
+        return "(" + this.leftChildNode.toPrettyString() + " " + this.rightChildNode.toPrettyString() + ")";
+    }
+
+    @Override
+    public boolean isLeafNode() {
+        return false;
+    }
+
+    @Override
+    public Loop iterateNodes(IterateFunct<K> func) {
+        if (func.currentNode(this) == Loop.STOP) {
+            return Loop.STOP;
+        }
+        if (this.leftChildNode.iterateNodes(func) == Loop.STOP) {
+            return Loop.STOP;
+        }
+        return this.rightChildNode.iterateNodes(func);
+    }
+
+    @Override
+    public Loop iterateRange(K from, K to, boolean ascending, IterateFunct<K> func) {
+        // the left subtree holds the values below this node's value, the right subtree the others
+        boolean overlapsLeft = from == null || from.compareTo(value) < 0;
+        boolean overlapsRight = to == null || to.compareTo(value) > 0;
+        if (ascending) {
+            if (overlapsLeft && leftChildNode.iterateRange(from, to, true, func) == Loop.STOP) {
+                return Loop.STOP;
+            }
+            if (overlapsRight && rightChildNode.iterateRange(from, to, true, func) == Loop.STOP) {
+                return Loop.STOP;
+            }
+        } else {
+            if (overlapsRight && rightChildNode.iterateRange(from, to, false, func) == Loop.STOP) {
+                return Loop.STOP;
+            }
+            if (overlapsLeft && leftChildNode.iterateRange(from, to, false, func) == Loop.STOP) {
+                return Loop.STOP;
+            }
+        }
+        return Loop.CONTINUE;
+    }
+
+    @Override
+    int writeHashBytes(ByteArrayOutputStream bos) throws IOException {
+        HashWithCount leftHashCount = this.leftChildNode.getHashWithCount();
+        HashWithCount rightHashCount = this.rightChildNode.getHashWithCount();
+        byte[] leftHash = Objects.requireNonNull(leftHashCount.hash, "the left hash was null in writeHashBytes");
+        byte[] rightHash = Objects.requireNonNull(rightHashCount.hash, "the right hash was null in writeHashBytes");
+        bos.write(hashFunction.hashBytes(leftHash));
+        bos.write(hashFunction.hashBytes(rightHash));
+        return leftHashCount.count + rightHashCount.count;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree.iavl;
+
+import java.util.ArrayDeque;
+
+import com.github.jtendermint.merkletree.internal.AbstractLeafSpliterator;
+
+/**
+ * Spliterator over the values of a subtree
+ */
+final class LeafSpliterator<K extends Comparable<K>> extends AbstractLeafSpliterator<Node<K>, K> {
+
+    LeafSpliterator(Node<K> root) {
+        super(root);
+    }
+
+    /**
+     * Starts at the value with the given index
+     */
+    LeafSpliterator(Node<K> root, int fromIndex) {
+        super(root, fromIndex);
+    }
+
+    private LeafSpliterator(ArrayDeque<Node<K>> pending, long remaining) {
+        super(pending, remaining);
+    }
+
+    @Override
+    protected LeafSpliterator<K> split(ArrayDeque<Node<K>> pending, long remaining) {
+        return new LeafSpliterator<>(pending, remaining);
+    }
+
+    @Override
+    protected boolean isLeaf(Node<K> resolved) {
+        return resolved.isLeafNode();
+    }
+
+    @Override
+    protected K key(Node<K> resolvedLeaf) {
+        return resolvedLeaf.getValue();
+    }
+
+    @Override
+    protected Node<K> left(Node<K> resolvedInner) {
+        return resolvedInner.getLeftChildNode();
+    }
+
+    @Override
+    protected Node<K> right(Node<K> resolvedInner) {
+        return resolvedInner.getRightChildNode();
+    }
+
+    @Override
+    protected int size(Node<K> node) {
+        return node.getSize();
+    }
+
+    @Override
+    public int characteristics() {
+        return super.characteristics() | IMMUTABLE;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree.iavl;
+
+import java.util.List;
+
+import com.github.jtendermint.merkletree.ProofNode;
+import com.github.jtendermint.merkletree.internal.AbstractMultiProof;
+
+/**
+ * Proves that several values are contained in an {@link AVLTree} with a given root hash, see
+ * {@link AVLTree#getAllWithProof(java.util.Collection)}. The proof is the tree with the proven values revealed and
+ * every subtree without one pruned to its hash, so every node needed by several values appears once.
+ */
+public class MultiProof<K extends Comparable<K>> extends AbstractMultiProof<K> {
+
+    /**
+     * @param root
+     *            the partially revealed tree
+     */
+    public MultiProof(ProofNode<K> root) {
+        super(root);
+    }
+
+    /**
+     * @return the revealed values in ascending order
+     */
+    public List<K> getValues() {
+        return revealedEntries();
+    }
+
+    /**
+     * Recomputes the root hash from the proof, hashing every shared node once, and compares it with the expected one
+     * 
+     * @param proof
+     *            the proof to check
+     * @param rootHash
+     *            the trusted root hash
+     * @param hashing
+     *            the hash function of the tree
+     * @return true if the proof proves that {@link #getValues()} are contained in the tree with the given root hash
+     */
+    public static <K extends Comparable<K>> boolean verify(MultiProof<K> proof, byte[] rootHash, Hashing<K> hashing) {
+        return proof != null && proof.matches(rootHash, InclusionProof.hasher(hashing));
+    }
+}
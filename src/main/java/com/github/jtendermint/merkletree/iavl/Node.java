@@ -26,42 +26,34 @@ package com.github.jtendermint.merkletree.iavl;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.Objects;
+import java.util.List;
 
 import com.github.jtendermint.merkletree.iavl.IterateFunct.Loop;
 import com.github.jtendermint.merkletree.HashWithCount;
-
+import com.github.jtendermint.merkletree.ProofNode;
+import com.github.jtendermint.merkletree.TreeStats;
+
+/**
+ * A node of an {@link AVLTree}. Instances of this class are leaves and hold a value, inner nodes are
+ * {@link InnerNode}s which additionally hold height, size and their two children. Leaves carry none of those fields.
+ * <p>
+ * Earlier versions had public {@code init(key, leftNode, rightNode)} and
+ * {@code init(value, height, size, leftHash, leftNode, rightHash, rightNode)} methods for inner nodes. They have been
+ * removed because a Node can no longer hold children and inner nodes no longer copy the hashes of their children;
+ * inner nodes are only created by the tree, use {@link AVLTree#add(Comparable)} instead. Hashes, heights, sizes and
+ * the order of {@link #iterateNodes(IterateFunct)} are the same as before.
+ */
 public class Node<K extends Comparable<K>> {
 
-    private K value;
-    private int height;
-    private int size;
+    K value;
 
-    private byte[] hash;
-    private byte[] leftChildHash;
-    private byte[] rightChildHash;
+    byte[] hash;
 
-    private Node<K> leftChildNode;
-    private Node<K> rightChildNode;
-
-    private Hashing<K> hashFunction;
+    Hashing<K> hashFunction;
 
     public Node<K> init(K value) {
-        return init(value, 0, 1, null, null, null, null);
-    }
-    public Node<K> init(K key, Node<K> leftNode, Node<K> rightNode) {
-        return init(key, 1, 2, null, leftNode, null, rightNode);
-    }
-
-    public Node<K> init(K value, int height, int size, byte[] leftHash, Node<K> leftNode, byte[] rightHash, Node<K> rightNode) {
         this.value = value;
-        this.height = height;
-        this.size = size;
         this.hash = null;
-        this.leftChildHash = leftHash == null ? null : Arrays.copyOf(leftHash, leftHash.length);
-        this.leftChildNode = leftNode;
-        this.rightChildHash = rightHash == null ? null : Arrays.copyOf(rightHash, rightHash.length);
-        this.rightChildNode = rightNode;
         return this;
     }
 
@@ -75,11 +67,25 @@ public class Node<K extends Comparable<K>> {
     }
 
     public int getHeight() {
-        return height;
+        return 0;
     }
 
     public int getSize() {
-        return size;
+        return 1;
+    }
+
+    /**
+     * @return the left child of an inner node, null for a leaf
+     */
+    Node<K> getLeftChildNode() {
+        return null;
+    }
+
+    /**
+     * @return the right child of an inner node, null for a leaf
+     */
+    Node<K> getRightChildNode() {
+        return null;
     }
 
     public boolean contains(K value) {
@@ -87,177 +93,146 @@ public class Node<K extends Comparable<K>> {
     }
 
     public K get(K entry) {
-        if (entry != null && entry.equals(value)) {
-            return value;
-        } else if (this.height == 0) {
-            return null;
-        } else {
-            if (entry.compareTo(value) < 0) {
-                return this.leftChildNode.get(entry);
-            } else {
-                return this.rightChildNode.get(entry);
-            }
-        }
+        return entry != null && entry.equals(value) ? value : null;
     }
 
     public KeyIndex<K> get(int index) {
-        if (this.height == 0) {
-            if (index == 0) {
-                return new KeyIndex<K>(value, true, 0);
-            } else {
-                throw new RuntimeException("Asked for index > 0 with a height of 0");
-            }
-        } else {
-            if (index < leftChildNode.size) {
-                return leftChildNode.get(index);
+        Node<K> node = this;
+        int remaining = index;
+        while (!node.isLeafNode()) {
+            Node<K> left = node.getLeftChildNode();
+            if (remaining < left.getSize()) {
+                node = left;
             } else {
-                return rightChildNode.get(index - leftChildNode.size);
+                remaining -= left.getSize();
+                node = node.getRightChildNode();
             }
         }
+        if (remaining != 0) {
+            throw new RuntimeException("Asked for index > 0 with a height of 0");
+        }
+        return new KeyIndex<K>(node.value, true, index);
     }
 
     public AddResult<K> add(K value) {
+        return add(value, null);
+    }
+
+    /**
+     * Add or update a value in this subtree
+     * 
+     * @param value
+     *            the non-null value to add
+     * @param stats
+     *            the collector of the tree, null if it has none
+     * @return the new root of this subtree and whether an existing value was updated
+     */
+    AddResult<K> add(K value, TreeStats stats) {
         int compareResult = value.compareTo(this.value);
-        if (height == 0) {
-            if (compareResult < 0) {
-                Node<K> newNode = new Node<>();
-                newNode.init(this.value, this.newNode().init(value).setHashFunction(hashFunction), this).setHashFunction(hashFunction);
-                return new AddResult<K>(newNode, false);
-            } else if (compareResult == 0) {
-                return new AddResult<K>(this.newNode().init(value).setHashFunction(hashFunction), true);
-            } else {
-                Node<K> newNode = new Node<>();
-                newNode.init(value, this, this.newNode().init(value).setHashFunction(hashFunction)).setHashFunction(hashFunction);
-                return new AddResult<K>(newNode, false);
-            }
+        if (compareResult < 0) {
+            return new AddResult<K>(new InnerNode<>(this.value, newLeaf(value), this, hashFunction), false);
+        } else if (compareResult == 0) {
+            return new AddResult<K>(newLeaf(value), true);
         } else {
-            Node<K> newNode = this.createCopy();
-            AddResult<K> newNodeResult;
-            if (value.compareTo(newNode.value) < 0) {
-                newNodeResult = newNode.leftChildNode.add(value);
-                newNode.leftChildNode = newNodeResult.getNode(); // newNodeResult.getNode();
-                newNode.leftChildHash = null;
-            } else {
-                newNodeResult = newNode.rightChildNode.add(value);
-                newNode.rightChildNode = newNodeResult.getNode();
-                newNode.rightChildHash = null;
-            }
-
-            if (newNodeResult.wasUpdated()) {
-                return new AddResult<K>(newNode, true);
-            } else {
-                newNode.updateHeightAndSize();
-                return new AddResult<K>(newNode.balance(), false);
-            }
+            return new AddResult<K>(new InnerNode<>(value, this, newLeaf(value), hashFunction), false);
         }
     }
-    public boolean remove(K entry) {
-        return false;
+
+    private Node<K> newLeaf(K value) {
+        return newNode().init(value).setHashFunction(hashFunction);
     }
 
-    private Node<K> balance() {
-        int balance = this.getBalance();
-        if (balance > 1) {
-            if (this.leftChildNode.getBalance() >= 0) {
-                // Left Left Case
-                return this.rotateRight();
-            } else {
-                // Left Right Case
-                Node<K> newNode = this.createCopy();
-                newNode.leftChildHash = null;
-                newNode.leftChildNode = newNode.leftChildNode.rotateLeft();
-                return newNode.rotateRight();
-            }
+    /**
+     * Walks from this node to the leaf where entry belongs and collects the hashes of the children that are not on the
+     * path, which the last hash calculation left in the children. This node has to be hashed.
+     * 
+     * @param entry
+     *            the non-null entry to look up
+     * @param path
+     *            receives the inner nodes on the path, from this node downwards
+     * @return the value of the leaf if it equals entry, null otherwise
+     */
+    K collectProof(K entry, List<InclusionProof.PathNode> path) {
+        Node<K> node = this;
+        while (!node.isLeafNode()) {
+            boolean left = entry.compareTo(node.value) < 0;
+            byte[] siblingHash = left ? node.getRightChildNode().hash : node.getLeftChildNode().hash;
+            path.add(new InclusionProof.PathNode(node.getHeight(), node.getSize(), siblingHash, !left));
+            node = left ? node.getLeftChildNode() : node.getRightChildNode();
         }
-        if (balance < -1) {
-            if (this.rightChildNode.getBalance() <= 0) {
-                // Right Right Case
-                return this.rotateLeft();
-            } else {
-                // Right Left Case
-                Node<K> newNode = this.createCopy();
-                newNode.rightChildHash = null;
-                newNode.rightChildNode = newNode.rightChildNode.rotateRight();
-                return newNode.rotateLeft();
-            }
-        }
-        // no changes - balanced
-        return this;
+        return entry.equals(node.value) ? node.value : null;
     }
 
-    private Node<K> rotateLeft() {
-        Node<K> newNode = this.createCopy();
-        Node<K> rightCopy = newNode.rightChildNode.createCopy();
-
-        newNode.rightChildHash = rightCopy.leftChildHash;
-        newNode.rightChildNode = rightCopy.leftChildNode;
-        rightCopy.leftChildNode = newNode;
-
-        newNode.updateHeightAndSize();
-        rightCopy.updateHeightAndSize();
-        return rightCopy;
+    /**
+     * @return the amount of values in this subtree that are smaller than entry
+     */
+    int rank(K entry) {
+        return value.compareTo(entry) < 0 ? 1 : 0;
     }
 
-    private Node<K> rotateRight() {
-        Node<K> newNode = this.createCopy();
-        Node<K> leftCopy = newNode.leftChildNode.createCopy();
-
-        newNode.leftChildHash = leftCopy.rightChildHash;
-        newNode.leftChildNode = leftCopy.rightChildNode;
-        leftCopy.rightChildHash = null;
-        leftCopy.rightChildNode = newNode;
-
-        newNode.updateHeightAndSize();
-        leftCopy.updateHeightAndSize();
-        return leftCopy;
+    /**
+     * Reveals the leaves with values from first to last (both inclusive) and prunes every subtree without such a leaf,
+     * using the hashes the last hash calculation left in the children. This node has to be hashed.
+     */
+    ProofNode<K> prove(K first, K last) {
+        return ProofNode.leaf(value);
     }
 
-    private int getBalance() {
-        return leftChildNode.height - rightChildNode.height;
+    /**
+     * Reveals the leaves of the sorted, distinct values in [from, to) and prunes every subtree without one, using the
+     * hashes the last hash calculation left in the children. This node has to be hashed and the range must not be
+     * empty.
+     */
+    ProofNode<K> proveAll(List<K> values, int from, int to) {
+        return ProofNode.leaf(value);
     }
 
-    private void updateHeightAndSize() {
-        this.height = Math.max(leftChildNode.getHeight(), rightChildNode.getHeight()) + 1;
-        this.size = leftChildNode.getSize() + rightChildNode.getSize();
+    public boolean remove(K entry) {
+        return false;
     }
 
     public Node<K> createCopy() {
-        if (this.height == 0) {
-            throw new RuntimeException("Cannot copy Value-Nodes");
-        } else {
-            return newNode().init(value, this.height, this.size, this.leftChildHash, this.leftChildNode, this.rightChildHash,
-                    this.rightChildNode).setHashFunction(hashFunction);
-        }
+        return createCopy(null);
+    }
+
+    /**
+     * @param stats
+     *            the collector of the tree, null if it has none
+     * @return a copy of this inner node that shares the children
+     */
+    Node<K> createCopy(TreeStats stats) {
+        throw new RuntimeException("Cannot copy Value-Nodes");
     }
 
     public String toPrettyString() {
-        if (this.height == 0) {
-            return String.valueOf(value);
-        } else {
-            return "(" + this.leftChildNode.toPrettyString() + " " + this.rightChildNode.toPrettyString() + ")";
-        }
+        return String.valueOf(value);
     }
 
     public boolean isLeafNode() {
-        return height == 0;
+        return true;
     }
 
     public Loop iterateNodes(IterateFunct<K> func) {
-        Loop stop = func.currentNode(this);
-        if (stop == Loop.STOP) {
-            return stop;
-        }
-        if (this.height > 0) {
-            stop = this.leftChildNode.iterateNodes(func);
-            if (stop == Loop.STOP) {
-                return Loop.STOP;
-            }
-            stop = this.rightChildNode.iterateNodes(func);
-            if (stop == Loop.STOP) {
-                return Loop.STOP;
-            }
-        }
-        return Loop.CONTINUE;
+        return func.currentNode(this) == Loop.STOP ? Loop.STOP : Loop.CONTINUE;
+    }
+
+    /**
+     * Visits the leaves with values in [from, to) in order. Only subtrees whose values can overlap the range are
+     * descended into, inner nodes are not passed to the function.
+     *
+     * @param from
+     *            the first value of the range (inclusive), null for no lower bound
+     * @param to
+     *            the end of the range (exclusive), null for no upper bound
+     * @param ascending
+     *            true to visit the leaves in ascending order, false for descending
+     * @param func
+     *            the function to call for every leaf
+     * @return <code>Loop.STOP</code> if the function stopped the iteration
+     */
+    public Loop iterateRange(K from, K to, boolean ascending, IterateFunct<K> func) {
+        boolean inRange = (from == null || value.compareTo(from) >= 0) && (to == null || value.compareTo(to) < 0);
+        return inRange ? func.currentNode(this) : Loop.CONTINUE;
     }
 
     protected Node<K> newNode() {
@@ -277,45 +252,26 @@ public class Node<K extends Comparable<K>> {
         }
     }
 
-    private int writeHashBytes(ByteArrayOutputStream bos) throws IOException {
-        int hashCount = 0;
-        // ByteUtil.writeWithVarint(BigInteger.valueOf(size).toByteArray(),
-        // bos);
-        if (this.height == 0) {
-            byte[] hashBytes = hashFunction.hashBytes(this.value);
-            bos.write(hashBytes);
-        } else {
-            if (this.leftChildNode != null) {
-                HashWithCount leftHashCount = this.leftChildNode.getHashWithCount();
-                this.leftChildHash = Objects.requireNonNull(leftHashCount.hash, "this.leftHash was null in writeHashBytes");
-                hashCount += leftHashCount.count;
-            }
-            if (this.rightChildNode != null) {
-                HashWithCount rightHashCount = this.rightChildNode.getHashWithCount();
-                this.rightChildHash = Objects.requireNonNull(rightHashCount.hash, "this.rightHash was null in writeHashBytes");
-                hashCount += rightHashCount.count;
-            }
-            byte[] hashBytesRight = hashFunction.hashBytes(this.rightChildHash);
-            byte[] hashBytesLeft = hashFunction.hashBytes(this.leftChildHash);
-            bos.write(hashBytesLeft);
-            bos.write(hashBytesRight);
-
-        }
-        return hashCount;
+    /**
+     * Writes the bytes this node is hashed from, hashing the children first
+     * 
+     * @return the amount of hashes calculated for the children
+     */
+    int writeHashBytes(ByteArrayOutputStream bos) throws IOException {
+        bos.write(hashFunction.hashBytes(this.value));
+        return 0;
     }
 
+    /**
+     * Hashes the nodes that changed since the last save. A node with a hash has a clean subtree whose children are
+     * hashed already, so the walk stops there.
+     *
+     * @return the hash of this node
+     */
     public byte[] save() {
         if (hash == null) {
             hash = getHashWithCount().hash;
         }
-
-        if (leftChildNode != null) {
-            leftChildHash = leftChildNode.save();
-        }
-        if (rightChildNode != null) {
-            rightChildHash = rightChildNode.save();
-        }
-
         return Arrays.copyOf(hash, hash.length);
     }
 
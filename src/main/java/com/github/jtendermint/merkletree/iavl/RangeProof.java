@@ -0,0 +1,97 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree.iavl;
+
+import java.util.List;
+
+import com.github.jtendermint.merkletree.ProofNode;
+import com.github.jtendermint.merkletree.internal.AbstractRangeProof;
+
+/**
+ * Proves that an {@link AVLTree} with a given root hash contains exactly {@link #getValues()} in the range
+ * [{@link #getFrom()}, {@link #getTo()}), see {@link AVLTree#getRangeWithProof(Comparable, Comparable, int)}. An
+ * empty range proves the absence of its start, see {@link AVLTree#getAbsenceProof(Comparable)}.
+ * <p>
+ * The proof is the tree with the values of the range and their two neighbours revealed and everything else pruned to
+ * a hash. The verifier rejects a pruned subtree whose neighbouring revealed leaves leave room for a value of the range,
+ * see {@link AbstractRangeProof}.
+ */
+public class RangeProof<K extends Comparable<K>> extends AbstractRangeProof<K> {
+
+    /**
+     * @param from
+     *            the first value of the range (inclusive)
+     * @param to
+     *            the end of the range (exclusive)
+     * @param root
+     *            the partially revealed tree
+     */
+    public RangeProof(K from, K to, ProofNode<K> root) {
+        super(from, to, root);
+    }
+
+    /**
+     * @return the revealed values within the range, in ascending order
+     */
+    public List<K> getValues() {
+        return revealedEntries();
+    }
+
+    @Override
+    protected int compare(K a, K b) {
+        return a.compareTo(b);
+    }
+
+    /**
+     * Checks that the proof matches the root hash and that no pruned subtree can contain a value of the range
+     * 
+     * @param proof
+     *            the proof to check
+     * @param rootHash
+     *            the trusted root hash
+     * @param hashing
+     *            the hash function of the tree
+     * @return true if {@link #getValues()} are all values of the tree in the range of the proof
+     */
+    public static <K extends Comparable<K>> boolean verify(RangeProof<K> proof, byte[] rootHash, Hashing<K> hashing) {
+        return proof != null && proof.matches(rootHash, InclusionProof.hasher(hashing));
+    }
+
+    /**
+     * Checks a proof returned by {@link AVLTree#getAbsenceProof(Comparable)}
+     * 
+     * @param proof
+     *            the proof to check
+     * @param value
+     *            the value that should be absent
+     * @param rootHash
+     *            the trusted root hash
+     * @param hashing
+     *            the hash function of the tree
+     * @return true if the proof proves that the tree with the given root hash does not contain value
+     */
+    public static <K extends Comparable<K>> boolean verifyAbsence(RangeProof<K> proof, K value, byte[] rootHash, Hashing<K> hashing) {
+        return proof != null && proof.provesAbsence(value, rootHash, InclusionProof.hasher(hashing));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Inclusion proof of a tree that hashes its nodes with a {@link ProofHasher}: the proven entry and, for every inner
+ * node on the path from the leaf to the root, the height, size and the hash of the child that is not on the path.
+ * Subclasses name the entry and pick the hasher of their tree.
+ * <p>
+ * Internal, shared by the proofs of {@link com.github.jtendermint.merkletree.MerkleTree} and
+ * {@link com.github.jtendermint.merkletree.iavl.AVLTree}. Not part of the API, it may change without notice.
+ */
+public abstract class AbstractInclusionProof<K> {
+
+    private final K entry;
+
+    private final List<PathNode> path;
+
+    /**
+     * @param entry
+     *            the proven entry
+     * @param path
+     *            the inner nodes from the parent of the leaf up to the root
+     */
+    protected AbstractInclusionProof(K entry, List<PathNode> path) {
+        this.entry = entry;
+        this.path = Collections.unmodifiableList(new ArrayList<>(path));
+    }
+
+    public K getEntry() {
+        return entry;
+    }
+
+    /**
+     * @return the inner nodes from the parent of the leaf up to the root
+     */
+    public List<PathNode> getPath() {
+        return path;
+    }
+
+    /**
+     * Recomputes the root hash from the proof and compares it with the expected one
+     * 
+     * @param rootHash
+     *            the trusted root hash
+     * @param hasher
+     *            the node hashing of the tree
+     * @return true if the proof proves that its entry is contained in the tree with the given root hash
+     */
+    protected boolean matches(byte[] rootHash, ProofHasher<? super K> hasher) {
+        if (entry == null || rootHash == null) {
+            return false;
+        }
+        byte[] hash = hasher.hashLeaf(entry);
+        for (PathNode node : path) {
+            hash = node.isSiblingLeft()
+                    ? hasher.hashInner(node.getHeight(), node.getSize(), node.getSiblingHash(), hash)
+                    : hasher.hashInner(node.getHeight(), node.getSize(), hash, node.getSiblingHash());
+        }
+        return Arrays.equals(hash, rootHash);
+    }
+
+    /**
+     * An inner node on the path of a proof
+     */
+    public static final class PathNode {
+
+        private final int height;
+        private final int size;
+        private final byte[] siblingHash;
+        private final boolean siblingLeft;
+
+        /**
+         * @param height
+         *            the height of the node
+         * @param size
+         *            the amount of leaves below the node
+         * @param siblingHash
+         *            the hash of the child that is not on the path
+         * @param siblingLeft
+         *            true if that child is the left one
+         */
+        public PathNode(int height, int size, byte[] siblingHash, boolean siblingLeft) {
+            this.height = height;
+            this.size = size;
+            this.siblingHash = Arrays.copyOf(siblingHash, siblingHash.length);
+            this.siblingLeft = siblingLeft;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public byte[] getSiblingHash() {
+            return Arrays.copyOf(siblingHash, siblingHash.length);
+        }
+
+        public boolean isSiblingLeft() {
+            return siblingLeft;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree.internal;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over the keys of a binary tree whose nodes know the amount of leaves below them. The pending subtrees
+ * are kept in key order, a split hands out all but the last of them, or the left child if only one is left, so every
+ * part knows its exact size. Subclasses give access to the nodes of their tree.
+ * <p>
+ * Internal, shared by {@link com.github.jtendermint.merkletree.MerkleTree} and
+ * {@link com.github.jtendermint.merkletree.iavl.AVLTree}. Not part of the API, it may change without notice.
+ */
+public abstract class AbstractLeafSpliterator<N, K> implements Spliterator<K> {
+
+    private final ArrayDeque<N> pending;
+    private long remaining;
+
+    protected AbstractLeafSpliterator(N root) {
+        this(new ArrayDeque<>(), 0);
+        pending.add(root);
+        remaining = size(root);
+    }
+
+    /**
+     * Starts at the key with the given index
+     */
+    protected AbstractLeafSpliterator(N root, int fromIndex) {
+        this(new ArrayDeque<>(), 0);
+        remaining = size(root) - fromIndex;
+        N node = resolve(root);
+        int skipped = fromIndex;
+        // the right siblings of the path come after the start, deeper ones first
+        while (!isLeaf(node)) {
+            int leftSize = size(left(node));
+            if (skipped < leftSize) {
+                pending.addFirst(right(node));
+                node = resolve(left(node));
+            } else {
+                skipped -= leftSize;
+                node = resolve(right(node));
+            }
+        }
+        pending.addFirst(node);
+    }
+
+    protected AbstractLeafSpliterator(ArrayDeque<N> pending, long remaining) {
+        this.pending = pending;
+        this.remaining = remaining;
+    }
+
+    /**
+     * @return a spliterator of the same kind over the given subtrees
+     */
+    protected abstract AbstractLeafSpliterator<N, K> split(ArrayDeque<N> pending, long remaining);
+
+    /**
+     * @return the node itself, or the loaded node if it is a placeholder
+     */
+    protected N resolve(N node) {
+        return node;
+    }
+
+    protected abstract boolean isLeaf(N resolved);
+
+    protected abstract K key(N resolvedLeaf);
+
+    protected abstract N left(N resolvedInner);
+
+    protected abstract N right(N resolvedInner);
+
+    protected abstract int size(N node);
+
+    @Override
+    public boolean tryAdvance(Consumer<? super K> action) {
+        while (!pending.isEmpty()) {
+            N node = resolve(pending.pollFirst());
+            if (isLeaf(node)) {
+                remaining--;
+                action.accept(key(node));
+                return true;
+            }
+            pending.addFirst(right(node));
+            pending.addFirst(left(node));
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super K> action) {
+        while (!pending.isEmpty()) {
+            forEach(pending.pollFirst(), action);
+        }
+        remaining = 0;
+    }
+
+    private void forEach(N node, Consumer<? super K> action) {
+        N resolved = resolve(node);
+        if (isLeaf(resolved)) {
+            action.accept(key(resolved));
+        } else {
+            forEach(left(resolved), action);
+            forEach(right(resolved), action);
+        }
+    }
+
+    @Override
+    public Spliterator<K> trySplit() {
+        if (pending.size() == 1) {
+            N node = resolve(pending.peekFirst());
+            if (isLeaf(node)) {
+                return null;
+            }
+            pending.clear();
+            pending.add(left(node));
+            pending.add(right(node));
+        } else if (pending.isEmpty()) {
+            return null;
+        }
+        N last = pending.pollLast();
+        AbstractLeafSpliterator<N, K> prefix = split(pending.clone(), remaining - size(last));
+        pending.clear();
+        pending.add(last);
+        remaining = size(last);
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return remaining;
+    }
+
+    @Override
+    public int characteristics() {
+        return SIZED | SUBSIZED | ORDERED | SORTED | DISTINCT | NONNULL;
+    }
+
+    @Override
+    public Comparator<? super K> getComparator() {
+        // the keys are sorted by their natural order
+        return null;
+    }
+}
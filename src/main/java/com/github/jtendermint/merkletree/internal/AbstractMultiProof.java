@@ -0,0 +1,86 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.github.jtendermint.merkletree.ProofNode;
+
+/**
+ * Multiproof of a tree that hashes its nodes with a {@link ProofHasher}: the tree with the proven entries revealed
+ * and every subtree without one pruned to its hash. Subclasses name the entries and pick the hasher of their tree.
+ * <p>
+ * Internal, shared by the proofs of {@link com.github.jtendermint.merkletree.MerkleTree} and
+ * {@link com.github.jtendermint.merkletree.iavl.AVLTree}. Not part of the API, it may change without notice.
+ */
+public abstract class AbstractMultiProof<K> {
+
+    private final ProofNode<K> root;
+
+    /**
+     * @param root
+     *            the partially revealed tree
+     */
+    protected AbstractMultiProof(ProofNode<K> root) {
+        this.root = root;
+    }
+
+    public ProofNode<K> getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the revealed entries in ascending order
+     */
+    protected List<K> revealedEntries() {
+        List<ProofNode<K>> nodes = new ArrayList<>();
+        root.collect(nodes);
+        List<K> entries = new ArrayList<>();
+        for (ProofNode<K> node : nodes) {
+            if (node.isLeaf()) {
+                entries.add(node.getEntry());
+            }
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Recomputes the root hash from the proof, hashing every shared node once, and compares it with the expected one
+     * 
+     * @param rootHash
+     *            the trusted root hash
+     * @param hasher
+     *            the node hashing of the tree
+     * @return true if the proof proves that the revealed entries are contained in the tree with the given root hash
+     */
+    protected boolean matches(byte[] rootHash, ProofHasher<? super K> hasher) {
+        if (root == null || rootHash == null) {
+            return false;
+        }
+        return Arrays.equals(hasher.hash(root), rootHash);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.github.jtendermint.merkletree.ProofNode;
+
+/**
+ * Range proof of a tree that hashes its nodes with a {@link ProofHasher}: the tree with the entries of the range
+ * [{@link #getFrom()}, {@link #getTo()}) and their two neighbours revealed and everything else pruned to a hash. An
+ * empty range proves the absence of its start. Subclasses name the entries, define their order and pick the hasher of
+ * their tree.
+ * <p>
+ * A pruned subtree lies between the revealed leaves around it, so it can only hide keys of the range if the revealed
+ * leaf after it is greater than the start and the revealed leaf before it is smaller than the end. The verification
+ * rejects such proofs, which covers both adjacency and completeness.
+ * <p>
+ * Internal, shared by the proofs of {@link com.github.jtendermint.merkletree.MerkleTree} and
+ * {@link com.github.jtendermint.merkletree.iavl.AVLTree}. Not part of the API, it may change without notice.
+ */
+public abstract class AbstractRangeProof<K> {
+
+    private final K from;
+
+    private final K to;
+
+    private final ProofNode<K> root;
+
+    /**
+     * @param from
+     *            the first key of the range (inclusive)
+     * @param to
+     *            the end of the range (exclusive)
+     * @param root
+     *            the partially revealed tree
+     */
+    protected AbstractRangeProof(K from, K to, ProofNode<K> root) {
+        this.from = from;
+        this.to = to;
+        this.root = root;
+    }
+
+    public K getFrom() {
+        return from;
+    }
+
+    /**
+     * @return the end of the proven range (exclusive). If a limit cut the range short, this is the first key that was
+     *         left out, the next range can start there.
+     */
+    public K getTo() {
+        return to;
+    }
+
+    public ProofNode<K> getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the result of comparing the keys in the order of the tree
+     */
+    protected abstract int compare(K a, K b);
+
+    /**
+     * @return the revealed entries within the range, in ascending order
+     */
+    protected List<K> revealedEntries() {
+        List<K> entries = new ArrayList<>();
+        for (ProofNode<K> node : leavesAndPruned()) {
+            if (node.isLeaf() && compare(node.getEntry(), from) >= 0 && compare(node.getEntry(), to) < 0) {
+                entries.add(node.getEntry());
+            }
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    private List<ProofNode<K>> leavesAndPruned() {
+        List<ProofNode<K>> nodes = new ArrayList<>();
+        root.collect(nodes);
+        return nodes;
+    }
+
+    /**
+     * Checks that the proof matches the root hash and that no pruned subtree can contain a key of the range
+     * 
+     * @param rootHash
+     *            the trusted root hash
+     * @param hasher
+     *            the node hashing of the tree
+     * @return true if the revealed entries are all entries of the tree in the range of the proof
+     */
+    protected boolean matches(byte[] rootHash, ProofHasher<? super K> hasher) {
+        if (root == null || from == null || to == null || rootHash == null || compare(from, to) > 0) {
+            return false;
+        }
+        // pruned subtrees without a revealed leaf between them share the same neighbours
+        boolean pruned = false;
+        K previous = null;
+        for (ProofNode<K> node : leavesAndPruned()) {
+            if (node.isPruned()) {
+                pruned = true;
+            } else {
+                if (pruned && !outsideRange(previous, node.getEntry())) {
+                    return false;
+                }
+                pruned = false;
+                previous = node.getEntry();
+            }
+        }
+        if (pruned && !outsideRange(previous, null)) {
+            return false;
+        }
+        return Arrays.equals(hasher.hash(root), rootHash);
+    }
+
+    /**
+     * @param entry
+     *            the entry that should be absent
+     * @param rootHash
+     *            the trusted root hash
+     * @param hasher
+     *            the node hashing of the tree
+     * @return true if the proof proves that the tree with the given root hash does not contain entry
+     */
+    protected boolean provesAbsence(K entry, byte[] rootHash, ProofHasher<? super K> hasher) {
+        if (root == null || from == null || to == null || compare(from, entry) != 0 || compare(to, entry) != 0) {
+            return false;
+        }
+        for (ProofNode<K> node : leavesAndPruned()) {
+            if (node.isLeaf() && compare(node.getEntry(), entry) == 0) {
+                return false;
+            }
+        }
+        return matches(rootHash, hasher);
+    }
+
+    /**
+     * @return true if no key between the two revealed leaves can be in the range of the proof, null stands for the
+     *         start or end of the tree
+     */
+    private boolean outsideRange(K previous, K next) {
+        boolean beforeRange = next != null && compare(next, from) <= 0;
+        boolean afterRange = previous != null && compare(previous, to) >= 0;
+        return beforeRange || afterRange;
+    }
+}
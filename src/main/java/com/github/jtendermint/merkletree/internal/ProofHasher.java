@@ -0,0 +1,70 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree.internal;
+
+import com.github.jtendermint.merkletree.ProofNode;
+
+/**
+ * The node hashing of a tree, so that its proofs can be verified without the tree itself
+ * <p>
+ * Internal, shared by the proofs of {@link com.github.jtendermint.merkletree.MerkleTree} and
+ * {@link com.github.jtendermint.merkletree.iavl.AVLTree}. Not part of the API, it may change without notice.
+ */
+public interface ProofHasher<K> {
+
+    /**
+     * @param entry
+     *            the entry of the leaf
+     * @return the hash of the leaf
+     */
+    byte[] hashLeaf(K entry);
+
+    /**
+     * @param height
+     *            the height of the inner node
+     * @param size
+     *            the amount of leaves below the inner node
+     * @param leftHash
+     *            the hash of the left child
+     * @param rightHash
+     *            the hash of the right child
+     * @return the hash of the inner node, trees that do not hash height and size ignore them
+     */
+    byte[] hashInner(int height, int size, byte[] leftHash, byte[] rightHash);
+
+    /**
+     * @param node
+     *            the root of a partially revealed subtree
+     * @return the hash of the subtree, calculated like the tree calculates it
+     */
+    default byte[] hash(ProofNode<? extends K> node) {
+        if (node.isPruned()) {
+            return node.getHash();
+        } else if (node.isLeaf()) {
+            return hashLeaf(node.getEntry());
+        } else {
+            return hashInner(node.getHeight(), node.getSize(), hash(node.getLeft()), hash(node.getRight()));
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.jtendermint.crypto.RipeMD160;
+import com.github.jtendermint.merkletree.byteable.types.ByteableLong;
+
+public class FileNodeStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MerkleTree<ByteableLong> randomTree(int size) {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        Random random = new Random(3);
+        while (tree.size() < size) {
+            tree.add(new ByteableLong(random.nextInt(100000)));
+        }
+        return tree;
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        MerkleTree<ByteableLong> tree = randomTree(1000);
+        byte[] rootHash;
+        try (FileNodeStore store = new FileNodeStore(directory)) {
+            rootHash = tree.save(store);
+            assertThat(store.size(), is(2 * 1000 - 1));
+        }
+
+        try (FileNodeStore store = new FileNodeStore(directory)) {
+            MerkleTree<ByteableLong> loaded = MerkleTree.load(store, rootHash, ByteableLong::fromByteArray);
+            assertArrayEquals(rootHash, loaded.getRootHash());
+            assertThat(loaded.size(), is(1000));
+            assertThat(loaded.getHeight(), is(tree.getHeight()));
+            assertThat(loaded.toPrettyString(), is(tree.toPrettyString()));
+            for (int i = 0; i < 1000; i++) {
+                assertThat(loaded.contains(tree.get(i).getEntry()), is(true));
+            }
+        }
+    }
+
+    @Test
+    public void testLoadIsLazyAndSaveWritesOnlyNewNodes() throws IOException {
+        MerkleTree<ByteableLong> tree = randomTree(5000);
+        try (FileNodeStore fileStore = new FileNodeStore(folder.getRoot().toPath())) {
+            AtomicInteger reads = new AtomicInteger();
+            NodeStore store = new NodeStore() {
+                @Override
+                public byte[] get(byte[] hash) {
+                    reads.incrementAndGet();
+                    return fileStore.get(hash);
+                }
+
+                @Override
+                public boolean contains(byte[] hash) {
+                    return fileStore.contains(hash);
+                }
+
+                @Override
+                public void put(byte[] hash, byte[] node) {
+                    fileStore.put(hash, node);
+                }
+
+                @Override
+                public void flush() {
+                    fileStore.flush();
+                }
+            };
+            byte[] rootHash = tree.save(store);
+
+            MerkleTree<ByteableLong> loaded = MerkleTree.load(store, rootHash, ByteableLong::fromByteArray);
+            assertThat(reads.get(), is(0));
+            assertThat(loaded.contains(tree.get(1234).getEntry()), is(true));
+            assertTrue("read " + reads.get() + " nodes", reads.get() <= tree.getHeight() + 1);
+
+            int stored = fileStore.size();
+            loaded.add(new ByteableLong(-1));
+            tree.add(new ByteableLong(-1));
+            assertArrayEquals(tree.getRootHash(), loaded.save(store));
+            assertTrue("wrote " + (fileStore.size() - stored) + " nodes", fileStore.size() - stored <= loaded.getHeight() + 1);
+        }
+    }
+
+    @Test
+    public void testSaveVisitsOnlyChangedNodes() throws IOException {
+        MerkleTree<ByteableLong> tree = randomTree(5000);
+        try (FileNodeStore fileStore = new FileNodeStore(folder.getRoot().toPath())) {
+            AtomicInteger lookups = new AtomicInteger();
+            NodeStore store = new NodeStore() {
+                @Override
+                public byte[] get(byte[] hash) {
+                    return fileStore.get(hash);
+                }
+
+                @Override
+                public boolean contains(byte[] hash) {
+                    lookups.incrementAndGet();
+                    return fileStore.contains(hash);
+                }
+
+                @Override
+                public void put(byte[] hash, byte[] node) {
+                    fileStore.put(hash, node);
+                }
+
+                @Override
+                public void flush() {
+                    fileStore.flush();
+                }
+            };
+            tree.save(store);
+            assertThat(lookups.get(), is(2 * 5000 - 1));
+
+            lookups.set(0);
+            tree.add(new ByteableLong(-1));
+            tree.add(new ByteableLong(-2));
+            byte[] rootHash = tree.save(store);
+            assertTrue("looked up " + lookups.get() + " nodes", lookups.get() <= 2 * (tree.getHeight() + 1));
+
+            // a tree loaded from the store does not look up its placeholders either
+            MerkleTree<ByteableLong> loaded = MerkleTree.load(store, rootHash, ByteableLong::fromByteArray);
+            loaded.add(new ByteableLong(-3));
+            lookups.set(0);
+            loaded.save(store);
+            assertTrue("looked up " + lookups.get() + " nodes", lookups.get() <= 2 * (loaded.getHeight() + 1));
+            tree.add(new ByteableLong(-3));
+            assertArrayEquals(tree.getRootHash(), loaded.getRootHash());
+        }
+    }
+
+    @Test
+    public void testReopenReadsNoRecords() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        MerkleTree<ByteableLong> tree = randomTree(5000);
+        byte[] rootHash;
+        try (FileNodeStore store = new FileNodeStore(directory)) {
+            rootHash = tree.save(store);
+        }
+
+        try (FileNodeStore store = new FileNodeStore(directory)) {
+            assertThat(store.getScannedBytes(), is(0L));
+            assertThat(store.size(), is(2 * 5000 - 1));
+            MerkleTree<ByteableLong> loaded = MerkleTree.load(store, rootHash, ByteableLong::fromByteArray);
+            assertArrayEquals(rootHash, loaded.getRootHash());
+            assertThat(loaded.contains(tree.get(4321).getEntry()), is(true));
+
+            // only what is appended behind the index is read on the next open
+            store.put(new byte[] { 1, 2, 3 }, new byte[] { 4 });
+        }
+        Path index = directory.resolve("nodes-0.idx");
+        byte[] indexBytes = Files.readAllBytes(index);
+        try (FileNodeStore store = new FileNodeStore(directory)) {
+            assertThat(store.getScannedBytes(), is(0L));
+        }
+        long segmentSize = Files.size(directory.resolve("nodes-0.seg"));
+        // an index that was saved before the last record was appended
+        try (FileNodeStore store = new FileNodeStore(directory)) {
+            store.put(new byte[] { 5, 6, 7 }, new byte[] { 8, 9 });
+        }
+        Files.write(index, indexBytes);
+        try (FileNodeStore store = new FileNodeStore(directory)) {
+            assertThat(store.getScannedBytes(), is(Files.size(directory.resolve("nodes-0.seg")) - segmentSize));
+            assertArrayEquals(new byte[] { 8, 9 }, store.get(new byte[] { 5, 6, 7 }));
+            assertArrayEquals(new byte[] { 4 }, store.get(new byte[] { 1, 2, 3 }));
+        }
+    }
+
+    @Test
+    public void testMissingIndexIsRebuilt() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        byte[] rootHash;
+        try (FileNodeStore store = new FileNodeStore(directory)) {
+            rootHash = randomTree(1000).save(store);
+        }
+        Files.delete(directory.resolve("nodes-0.idx"));
+
+        try (FileNodeStore store = new FileNodeStore(directory)) {
+            assertThat(store.getScannedBytes(), is(Files.size(directory.resolve("nodes-0.seg"))));
+            assertThat(store.size(), is(2 * 1000 - 1));
+            assertThat(MerkleTree.load(store, rootHash, ByteableLong::fromByteArray).size(), is(1000));
+        }
+        try (FileNodeStore store = new FileNodeStore(directory)) {
+            assertThat(store.getScannedBytes(), is(0L));
+        }
+    }
+
+    @Test
+    public void testSaveAfterCompactionRestoresDroppedNodes() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        MerkleTree<ByteableLong> tree = randomTree(1000);
+        byte[] rootHash;
+        try (FileNodeStore store = new FileNodeStore(directory)) {
+            // saved but never registered as a version, so the compaction drops all of it
+            tree.save(store);
+            assertThat(store.compact(), is(2 * 1000 - 1));
+            assertThat(store.size(), is(0));
+
+            tree.add(new ByteableLong(-1));
+            rootHash = tree.save(store);
+            store.putVersion(1, rootHash);
+            assertThat(store.size(), is(2 * 1001 - 1));
+        }
+
+        try (FileNodeStore store = new FileNodeStore(directory)) {
+            MerkleTree<ByteableLong> loaded = MerkleTree.load(store, store.getVersion(1), ByteableLong::fromByteArray);
+            assertArrayEquals(rootHash, loaded.getRootHash());
+            assertThat(loaded.toPrettyString(), is(tree.toPrettyString()));
+        }
+    }
+
+    @Test
+    public void testUnregisteredTreeFailsClearlyAfterCompaction() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (FileNodeStore store = new FileNodeStore(directory)) {
+            store.putVersion(1, randomTree(1000).save(store));
+            MerkleTree<ByteableLong> tree = MerkleTree.load(RipeMD160::new, store, store.getVersion(1),
+                    ByteableLong::fromByteArray, new NodeCache<>(0, 2));
+            for (int i = 0; i < 100; i++) {
+                tree.add(new ByteableLong(-i - 1));
+            }
+            // the new nodes are released to the empty cache, but no version keeps them
+            tree.save(store);
+            store.compact();
+            try {
+                for (int i = 0; i < tree.size(); i++) {
+                    tree.get(i);
+                }
+                fail("the dropped nodes were read");
+            } catch (IllegalStateException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("compaction"));
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosedStore() throws IOException {
+        FileNodeStore store = new FileNodeStore(folder.getRoot().toPath());
+        byte[] rootHash = randomTree(10).save(store);
+        store.compact();
+        store.close();
+        store.close();
+        store.get(rootHash);
+    }
+
+    @Test
+    public void testTruncatedRecordIsDiscarded() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        byte[] rootHash;
+        try (FileNodeStore store = new FileNodeStore(directory)) {
+            rootHash = randomTree(10).save(store);
+        }
+        Files.write(directory.resolve("nodes-0.seg"), new byte[] { 0, 0, 0, 20, 0, 0 }, StandardOpenOption.APPEND);
+
+        try (FileNodeStore store = new FileNodeStore(directory)) {
+            assertThat(store.size(), is(19));
+            store.put(new byte[] { 1, 2, 3 }, new byte[] { 4 });
+            assertArrayEquals(new byte[] { 4 }, store.get(new byte[] { 1, 2, 3 }));
+            assertThat(MerkleTree.load(store, rootHash, ByteableLong::fromByteArray).size(), is(10));
+        }
+    }
+
+    @Test
+    public void testDeletedVersionsAreCompactedAway() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        MerkleTree<ByteableLong> tree = randomTree(1000);
+        try (FileNodeStore store = new FileNodeStore(directory)) {
+            store.putVersion(1, tree.save(store));
+            for (int i = 0; i < 100; i++) {
+                tree.remove(tree.get(i).getEntry());
+                tree.add(new ByteableLong(-i - 1));
+            }
+            store.putVersion(2, tree.save(store));
+            int stored = store.size();
+
+            store.deleteVersionsBefore(2);
+            assertThat(store.getVersions().toString(), is("[2]"));
+            assertThat(store.compact(), is(stored - (2 * 1000 - 1)));
+            assertThat(store.size(), is(2 * 1000 - 1));
+
+            tree.add(new ByteableLong(-1000));
+            store.putVersion(3, tree.save(store));
+        }
+
+        try (FileNodeStore store = new FileNodeStore(directory)) {
+            assertThat(store.getVersions().toString(), is("[2, 3]"));
+            assertThat(store.getVersion(1), is(nullValue()));
+            MerkleTree<ByteableLong> loaded = MerkleTree.load(store, store.getVersion(3), ByteableLong::fromByteArray);
+            assertArrayEquals(tree.getRootHash(), loaded.getRootHash());
+            assertThat(loaded.size(), is(1001));
+            assertThat(MerkleTree.load(store, store.getVersion(2), ByteableLong::fromByteArray).size(), is(1000));
+            try (Stream<Path> files = Files.list(directory)) {
+                assertThat(files.filter(file -> file.toString().endsWith(".seg")).count(), is(1L));
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.jtendermint.crypto.gowire.WireEncode;
+import com.github.jtendermint.merkletree.byteable.types.ByteableLong;
+
+public class HashEncoderTest {
+
+    @Test
+    public void testVarintBytesMatchWireEncode() throws IOException {
+        Random random = new Random(5);
+        int[] lengths = { 0, 1, 20, 127, 128, 255, 256, 40000 };
+        for (int length : lengths) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+
+            HashEncoder encoder = HashEncoder.get();
+            encoder.writeVarintBytes(bytes);
+            assertArrayEquals(WireEncode.writeWithVarint(bytes), encoder.toByteArray());
+        }
+
+        HashEncoder encoder = HashEncoder.get();
+        encoder.writeVarintBytes(null);
+        assertArrayEquals(WireEncode.writeWithVarint(null), encoder.toByteArray());
+    }
+
+    @Test
+    public void testVarintBigIntegerMatchesWireEncode() throws IOException {
+        int[] values = { 0, 1, 127, 128, 255, 256, 32767, 32768, 8388608, Integer.MAX_VALUE };
+        for (int value : values) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expected.write(7);
+            expected.write(WireEncode.writeWithVarint(BigInteger.valueOf(value).toByteArray()));
+
+            HashEncoder encoder = HashEncoder.get();
+            encoder.writeByte(7);
+            encoder.writeVarintBigInteger(value);
+            assertArrayEquals(expected.toByteArray(), encoder.toByteArray());
+        }
+    }
+
+    @Test
+    public void testVarintLongMatchesByteableLong() throws IOException {
+        long[] values = { 0, 1, 255, 256, 65535, 1L << 40, Long.MAX_VALUE, -1, Long.MIN_VALUE };
+        for (long value : values) {
+            HashEncoder encoder = HashEncoder.get();
+            encoder.writeVarintLong(value);
+            assertArrayEquals(WireEncode.writeWithVarint(new ByteableLong(value).toByteArray()), encoder.toByteArray());
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.jtendermint.merkletree.byteable.types.ByteableLong;
+
+public class LongMerkleTreeTest {
+
+    @Test
+    public void testMatchesMerkleTree() {
+        MerkleTree<ByteableLong> heapTree = new MerkleTree<>();
+        LongMerkleTree longTree = new LongMerkleTree();
+        List<Long> keys = new ArrayList<>();
+        Random random = new Random(9);
+
+        for (int i = 0; i < 3000; i++) {
+            long key = random.nextInt(2000) - 1000;
+            if (random.nextInt(3) == 0 && !keys.isEmpty()) {
+                ByteableLong removed = new ByteableLong(keys.remove(random.nextInt(keys.size())));
+                assertArrayEquals(heapTree.remove(removed).getHash(), longTree.remove(removed).getHash());
+            } else {
+                assertThat(longTree.add(key), is(heapTree.add(new ByteableLong(key))));
+                if (!keys.contains(key)) {
+                    keys.add(key);
+                }
+            }
+            if (i % 100 == 0) {
+                assertArrayEquals(heapTree.getRootHash(), longTree.getRootHash());
+            }
+        }
+
+        assertThat(longTree.size(), is(heapTree.size()));
+        assertThat(longTree.getHeight(), is(heapTree.getHeight()));
+        assertArrayEquals(heapTree.getRootHash(), longTree.getRootHash());
+        for (long key : keys) {
+            assertThat(longTree.contains(key), is(true));
+        }
+        assertThat(longTree.get(new ByteableLong(5000)), is(nullValue()));
+        for (int i = 0; i < longTree.size(); i++) {
+            assertThat(longTree.get(i).getEntry(), is(heapTree.get(i).getEntry()));
+        }
+    }
+
+    @Test
+    public void testEncodesKeysLikeByteableLong() {
+        // 0 keeps all eight bytes in ByteableLong, negative keys never lose a byte
+        long[] keys = { 0, 1, 255, 256, -1, Long.MIN_VALUE, Long.MAX_VALUE, 1L << 32 };
+        MerkleTree<ByteableLong> heapTree = new MerkleTree<>();
+        LongMerkleTree longTree = new LongMerkleTree();
+        for (long key : keys) {
+            heapTree.add(new ByteableLong(key));
+            longTree.add(key);
+            assertArrayEquals(heapTree.getRootHash(), longTree.getRootHash());
+        }
+
+        List<String> expected = new ArrayList<>();
+        heapTree.iterateNodes(node -> {
+            expected.add(node.getKey().getValue() + "/" + Arrays.toString(node.hash));
+            return false;
+        });
+        List<String> visited = new ArrayList<>();
+        longTree.iterateNodes(node -> {
+            visited.add(node.getKey().getValue() + "/" + Arrays.toString(node.hash));
+            return false;
+        });
+        assertThat(visited, is(expected));
+    }
+
+    @Test
+    public void testKeysInOrder() {
+        LongMerkleTree tree = new LongMerkleTree();
+        for (long key = 99; key >= 0; key--) {
+            tree.add(key * 3);
+        }
+        List<Long> visited = new ArrayList<>();
+        tree.forEach(visited::add);
+        for (int i = 0; i < 100; i++) {
+            assertThat(visited.get(i), is(i * 3L));
+            assertThat(tree.keyAt(i), is(i * 3L));
+        }
+
+        assertThat(tree.remove(3), is(true));
+        assertThat(tree.remove(3), is(false));
+        assertThat(tree.keyAt(1), is(6L));
+    }
+
+    @Test
+    public void testExistingAndMissingKeysKeepHashes() {
+        LongMerkleTree tree = new LongMerkleTree();
+        for (long key = 0; key < 100; key++) {
+            tree.add(key * 2);
+        }
+        byte[] rootHash = tree.getRootHash();
+
+        assertThat(tree.add(40), is(true));
+        assertThat(tree.remove(41), is(false));
+        assertThat(tree.remove(-1), is(false));
+        assertThat(tree.remove(1000), is(false));
+        assertThat(tree.size(), is(100));
+        // nothing changed, so no node has to be hashed again
+        assertThat(tree.getHashWithCount().count, is(0));
+        assertArrayEquals(rootHash, tree.getRootHash());
+
+        assertThat(tree.remove(40), is(true));
+        assertThat(tree.contains(40), is(false));
+        assertThat(tree.add(40), is(false));
+        assertThat(tree.size(), is(100));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.github.jtendermint.merkletree.byteable.types.ByteableLong;
+import com.github.jtendermint.merkletree.byteable.types.ByteableString;
+
+public class MerkleMapTest {
+
+    @Test
+    public void testPutGetRemove() {
+        MerkleMap<ByteableLong, ByteableString> map = new MerkleMap<>();
+        assertThat(map.getRootHash(), is(nullValue()));
+        for (long i = 0; i < 100; i++) {
+            assertThat(map.put(new ByteableLong(i), new ByteableString("value" + i)), is(nullValue()));
+        }
+        assertThat(map.size(), is(100));
+        assertThat(map.get(new ByteableLong(42)), is(new ByteableString("value42")));
+        assertThat(map.get(new ByteableLong(100)), is(nullValue()));
+
+        assertThat(map.put(new ByteableLong(42), new ByteableString("changed")), is(new ByteableString("value42")));
+        assertThat(map.get(new ByteableLong(42)), is(new ByteableString("changed")));
+        assertThat(map.size(), is(100));
+
+        assertThat(map.remove(new ByteableLong(42)), is(new ByteableString("changed")));
+        assertThat(map.containsKey(new ByteableLong(42)), is(false));
+        assertThat(map.remove(new ByteableLong(42)), is(nullValue()));
+
+        List<ByteableLong> keys = new ArrayList<>();
+        map.forEach((key, value) -> {
+            assertThat(value, is(map.get(key)));
+            keys.add(key);
+        });
+        assertThat(keys.size(), is(99));
+        assertThat(keys.get(42), is(new ByteableLong(43)));
+    }
+
+    @Test
+    public void testValueUpdateRehashesPathOnly() {
+        MerkleMap<ByteableLong, ByteableString> map = new MerkleMap<>();
+        for (long i = 0; i < 1000; i++) {
+            map.put(new ByteableLong(i), new ByteableString("value" + i));
+        }
+        byte[] before = map.getRootHash();
+
+        map.put(new ByteableLong(500), new ByteableString("changed"));
+        HashWithCount after = map.getHashWithCount();
+        assertThat(after.count, is(map.getHeight() + 1));
+        assertThat(after.hash, not(is(before)));
+
+        // the root hash depends on the values only, not on the order of updates
+        map.put(new ByteableLong(500), new ByteableString("value500"));
+        assertThat(map.getRootHash(), is(before));
+    }
+}
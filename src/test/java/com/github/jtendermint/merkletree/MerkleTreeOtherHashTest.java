@@ -1,18 +1,19 @@
 package com.github.jtendermint.merkletree;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 
-import com.github.jtendermint.merkletree.MerkleNode;
 import com.github.jtendermint.merkletree.MerkleTree;
 import org.junit.Test;
 
 import com.github.jtendermint.crypto.ByteUtil;
 import com.github.jtendermint.crypto.HashFunction;
 import com.github.jtendermint.merkletree.byteable.types.ByteableLong;
-import com.github.jtendermint.merkletree.byteable.types.IByteable;
 
 public class MerkleTreeOtherHashTest {
 
@@ -20,8 +21,8 @@ public class MerkleTreeOtherHashTest {
     public void testSha1() {
 
         MerkleTree<ByteableLong> treeRipe = new MerkleTree<>();
-        MerkleTree<ByteableLong> treeSHA = new SHA1Tree<>();
-        MerkleTree<ByteableLong> treeSHA512 = new SHA512Tree<>();
+        MerkleTree<ByteableLong> treeSHA = new MerkleTree<>(SHA1Func::new);
+        MerkleTree<ByteableLong> treeSHA512 = new MerkleTree<>(SHA512Func::new);
 
         treeRipe.add(new ByteableLong(1l));
         treeSHA.add(new ByteableLong(1l));
@@ -36,23 +37,48 @@ public class MerkleTreeOtherHashTest {
         assertNotEquals(ByteUtil.toString00(treeSHA512.getRootHash()), ByteUtil.toString00(treeRipe.getRootHash()));
     }
 
-    public class SHA1Tree<K extends IByteable> extends MerkleTree<K> {
+    @Test
+    public void testInnerNodesUseTreeHashFunction() {
+        MerkleTree<ByteableLong> treeSHA = new MerkleTree<>(SHA1Func::new);
+        treeSHA.add(new ByteableLong(1l));
+        treeSHA.add(new ByteableLong(2l));
 
-        protected MerkleNode<K> createNode(K entry) {
-            return new SHA1Node<K>(entry);
-        };
+        // SHA-1 digests are 20 bytes as well, but the root hash of two leaves must not match the RipeMD160 tree
+        MerkleTree<ByteableLong> treeRipe = new MerkleTree<>();
+        treeRipe.add(new ByteableLong(1l));
+        treeRipe.add(new ByteableLong(2l));
+        assertNotEquals(ByteUtil.toString00(treeSHA.getRootHash()), ByteUtil.toString00(treeRipe.getRootHash()));
+
+        byte[] leftHash = new SHA1Func().hashBytes(new byte[] { 0, 1, 1, 1, 1, 1, 1 });
+        byte[] rightHash = new SHA1Func().hashBytes(new byte[] { 0, 1, 1, 1, 1, 1, 2 });
+        byte[] rootBytes = new byte[1 + 3 + 22 + 22];
+        rootBytes[0] = 1;
+        rootBytes[1] = 1;
+        rootBytes[2] = 1;
+        rootBytes[3] = 2;
+        rootBytes[4] = 1;
+        rootBytes[5] = 20;
+        System.arraycopy(leftHash, 0, rootBytes, 6, 20);
+        rootBytes[26] = 1;
+        rootBytes[27] = 20;
+        System.arraycopy(rightHash, 0, rootBytes, 28, 20);
+        assertEquals(ByteUtil.toString00(new SHA1Func().hashBytes(rootBytes)), ByteUtil.toString00(treeSHA.getRootHash()));
     }
 
-    public class SHA1Node<V extends IByteable> extends MerkleNode<V> {
-        public SHA1Node(V key) {
-            super(key);
-            hashFunction = new SHA1Func();
+    @Test
+    public void testFromSortedUsesTreeHashFunction() {
+        List<ByteableLong> keys = new ArrayList<>();
+        MerkleTree<ByteableLong> incremental = new MerkleTree<>(SHA1Func::new);
+        for (long i = 1; i <= 4; i++) {
+            keys.add(new ByteableLong(i));
+            incremental.add(new ByteableLong(i));
         }
+        MerkleTree<ByteableLong> bulk = MerkleTree.fromSorted(SHA1Func::new, keys.iterator());
+        MerkleTree<ByteableLong> bulkRipe = MerkleTree.fromSorted(keys.iterator());
 
-        @Override
-        protected MerkleNode<V> createNode(V entry) {
-            return new SHA1Node<V>(entry);
-        }
+        assertEquals(incremental.toPrettyString(), bulk.toPrettyString());
+        assertEquals(ByteUtil.toString00(incremental.getRootHash()), ByteUtil.toString00(bulk.getRootHash()));
+        assertNotEquals(ByteUtil.toString00(bulkRipe.getRootHash()), ByteUtil.toString00(bulk.getRootHash()));
     }
 
     public class SHA1Func implements HashFunction {
@@ -74,25 +100,6 @@ public class MerkleTreeOtherHashTest {
 
     }
     
-    public class SHA512Tree<K extends IByteable> extends MerkleTree<K> {
-
-        protected MerkleNode<K> createNode(K entry) {
-            return new SHA512Node<K>(entry);
-        };
-    }
-
-    public class SHA512Node<V extends IByteable> extends MerkleNode<V> {
-        public SHA512Node(V key) {
-            super(key);
-            hashFunction = new SHA512Func();
-        }
-
-        @Override
-        protected MerkleNode<V> createNode(V entry) {
-            return new SHA512Node<V>(entry);
-        }
-    }
-
     public class SHA512Func implements HashFunction {
 
         MessageDigest digest;
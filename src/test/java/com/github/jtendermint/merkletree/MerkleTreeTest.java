@@ -28,13 +28,25 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import com.github.jtendermint.crypto.ByteUtil;
+import com.github.jtendermint.crypto.RipeMD160;
 import com.github.jtendermint.merkletree.byteable.types.ByteableLong;
 import com.github.jtendermint.merkletree.byteable.types.ByteableString;
 
@@ -128,18 +140,54 @@ public class MerkleTreeTest {
         assertThat(stringTree.getHeight(), is(2));
     }
 
-    @Test(expected = UnsupportedOperationException.class)
+    @Test
     public void testGetAndRemove() {
         assertThat(stringTree.get(new ByteableString("test")), is(nullValue()));
         assertThat(stringTree.get(0), is(nullValue()));
+        assertThat(stringTree.remove(new ByteableString("test")).wasRemoved(), is(false));
 
         stringTree.add(new ByteableString("test"));
         assertThat(stringTree.get(new ByteableString("test")), is(notNullValue()));
         assertThat(stringTree.get(0), is(notNullValue()));
 
-        stringTree.remove(new ByteableString("test")); // throws UnsupportedOperationException
+        RemoveResult<ByteableString> result = stringTree.remove(new ByteableString("test"));
+        assertThat(result.wasRemoved(), is(true));
+        assertThat(result.getByteable(), is(new ByteableString("test")));
+        assertThat(result.getNode(), is(nullValue()));
+        assertThat(result.getHash(), is(nullValue()));
         assertThat(stringTree.get(new ByteableString("test")), is(nullValue()));
+        assertThat(stringTree.size(), is(0));
+    }
 
+    @Test
+    public void testRemove() {
+        TreeSet<Long> expected = new TreeSet<>();
+        Random random = new Random(3);
+        for (int i = 0; i < 300; i++) {
+            long value = random.nextInt(500);
+            longTree.add(new ByteableLong(value));
+            expected.add(value);
+        }
+        MerkleNode<ByteableLong> oldRoot = longTree.getRoot();
+        int oldSize = oldRoot.getSize();
+
+        for (int i = 0; i < 400; i++) {
+            long value = random.nextInt(500);
+            RemoveResult<ByteableLong> result = longTree.remove(new ByteableLong(value));
+            assertThat(result.wasRemoved(), is(expected.remove(value)));
+            if (result.wasRemoved()) {
+                assertThat(ByteUtil.toString00(result.getHash()), is(ByteUtil.toString00(longTree.getRootHash())));
+                assertThat(result.getNode(), is(longTree.getRoot()));
+            }
+            assertThat(longTree.size(), is(expected.size()));
+            assertTrue(longTree.getHeight() <= 1.45 * Math.log(expected.size() + 2) / Math.log(2));
+        }
+        int index = 0;
+        for (Long value : expected) {
+            assertThat(longTree.get(index++).getEntry(), is(new ByteableLong(value)));
+            assertThat(longTree.contains(new ByteableLong(value)), is(true));
+        }
+        assertThat(oldRoot.getSize(), is(oldSize));
     }
 
     @Test
@@ -185,4 +233,586 @@ public class MerkleTreeTest {
 
     }
 
+    @Test
+    public void testSameNodesAsBefore() {
+        // reference values of the version in which MerkleNode still held the children of inner nodes
+        Random random = new Random(8);
+        for (int i = 0; i < 1000; i++) {
+            longTree.add(new ByteableLong(random.nextInt(5000)));
+        }
+        assertThat(ByteUtil.toString00(longTree.getRootHash()), is("485DF5A7CDD028C7052A5C0803C35E2368454FE4"));
+        assertThat(longTree.size(), is(887));
+        assertThat(longTree.getHeight(), is(12));
+
+        StringBuilder nodes = new StringBuilder();
+        longTree.iterateNodes(node -> {
+            nodes.append(node.getHeight()).append(',').append(node.getSize()).append(',').append(node.getKey()).append(';');
+            return false;
+        });
+        assertThat(nodes.length(), is(15755));
+        assertThat(ByteUtil.toString00(new RipeMD160().hashBytes(nodes.toString().getBytes())), is("FE5C49055FAB33CE49D7C14E8F394D17F86622D3"));
+    }
+
+    @Test
+    public void testFromSorted() {
+        List<ByteableLong> keys = new ArrayList<>();
+        for (long i = 0; i < 1000; i++) {
+            keys.add(new ByteableLong(i));
+        }
+        MerkleTree<ByteableLong> tree = MerkleTree.fromSorted(keys.iterator());
+
+        assertThat(tree.size(), is(1000));
+        assertThat(tree.getHeight(), is(10));
+        for (int i = 0; i < keys.size(); i++) {
+            assertThat(tree.contains(keys.get(i)), is(true));
+            assertThat(tree.get(i).getEntry(), is(keys.get(i)));
+        }
+        assertThat(tree.contains(new ByteableLong(1000)), is(false));
+    }
+
+    @Test
+    public void testFromSortedHashEqualsIncremental() {
+        for (int count = 1; count <= 4; count++) {
+            List<ByteableLong> keys = new ArrayList<>();
+            MerkleTree<ByteableLong> incremental = new MerkleTree<>();
+            for (long i = 1; i <= count; i++) {
+                keys.add(new ByteableLong(i));
+                incremental.add(new ByteableLong(i));
+            }
+            MerkleTree<ByteableLong> bulk = MerkleTree.fromSorted(keys.iterator());
+            assertThat(bulk.toPrettyString(), is(incremental.toPrettyString()));
+            assertThat(ByteUtil.toString00(bulk.getRootHash()), is(ByteUtil.toString00(incremental.getRootHash())));
+        }
+    }
+
+    @Test
+    public void testAddAllSortedMergesAndUpdates() {
+        longTree.add(new ByteableLong(2));
+        longTree.add(new ByteableLong(4));
+
+        ((MerkleTree<ByteableLong>) longTree).addAllSorted(
+                Arrays.asList(new ByteableLong(1), new ByteableLong(3), new ByteableLong(3), new ByteableLong(4)).iterator());
+
+        assertThat(longTree.size(), is(4));
+        assertThat(longTree.toPrettyString(), is("((1 2) (3 4))"));
+        assertTrue(longTree.getRoot().getHeight() <= 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddAllSortedRejectsUnsorted() {
+        ((MerkleTree<ByteableLong>) longTree).addAllSorted(Arrays.asList(new ByteableLong(2), new ByteableLong(1)).iterator());
+    }
+
+    @Test
+    public void testApplyBatch() {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        TreeSet<Long> expected = new TreeSet<>();
+        Random random = new Random(42);
+
+        for (int round = 0; round < 50; round++) {
+            List<ByteableLong> adds = new ArrayList<>();
+            List<ByteableLong> removes = new ArrayList<>();
+            List<Long> addValues = new ArrayList<>();
+            List<Long> removeValues = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                long add = random.nextInt(2000);
+                long remove = random.nextInt(2000);
+                adds.add(new ByteableLong(add));
+                removes.add(new ByteableLong(remove));
+                addValues.add(add);
+                removeValues.add(remove);
+            }
+            tree.applyBatch(adds, removes);
+            expected.addAll(addValues);
+            expected.removeAll(removeValues);
+
+            assertThat(tree.size(), is(expected.size()));
+            assertTrue(tree.getHeight() <= 1.45 * Math.log(expected.size() + 2) / Math.log(2));
+            int index = 0;
+            for (Long value : expected) {
+                assertThat(tree.get(index++).getEntry(), is(new ByteableLong(value)));
+                assertThat(tree.contains(new ByteableLong(value)), is(true));
+            }
+        }
+        assertThat(tree.getRootHash(), is(notNullValue()));
+
+        List<ByteableLong> all = new ArrayList<>();
+        expected.forEach(v -> all.add(new ByteableLong(v)));
+        tree.applyBatch(new ArrayList<>(), all);
+        assertThat(tree.size(), is(0));
+        assertThat(tree.getRoot(), is(nullValue()));
+    }
+
+    @Test
+    public void testTransientAddsMatchPersistentAdds() {
+        MerkleNode<ByteableLong> persistentRoot = new MerkleNode<>(new ByteableLong(0));
+        longTree.add(new ByteableLong(0));
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i++) {
+            ByteableLong key = new ByteableLong(random.nextInt(1000));
+            persistentRoot = persistentRoot.add(key).getNode();
+            longTree.add(key);
+            if (i % 50 == 0) {
+                // caches hashes on nodes that are still mutated in place afterwards
+                longTree.getRootHash();
+            }
+        }
+        assertThat(ByteUtil.toString00(longTree.getRootHash()),
+                is(ByteUtil.toString00(persistentRoot.getHashWithCount().hash)));
+    }
+
+    @Test
+    public void testRootStaysValidAfterFurtherAdds() {
+        for (long i = 0; i < 20; i++) {
+            longTree.add(new ByteableLong(i));
+        }
+        MerkleNode<ByteableLong> oldRoot = longTree.getRoot();
+        String oldHash = ByteUtil.toString00(oldRoot.getHashWithCount().hash);
+        String oldPretty = oldRoot.toPrettyString();
+
+        for (long i = 20; i < 40; i++) {
+            longTree.add(new ByteableLong(i));
+        }
+
+        assertThat(oldRoot.getSize(), is(20));
+        assertThat(oldRoot.toPrettyString(), is(oldPretty));
+        assertThat(ByteUtil.toString00(oldRoot.getHashWithCount().hash), is(oldHash));
+        assertThat(longTree.size(), is(40));
+    }
+
+    @Test
+    public void testParallelHashEqualsSequential() {
+        MerkleTree<ByteableLong> sequential = new MerkleTree<>();
+        MerkleTree<ByteableLong> parallel = new MerkleTree<>();
+        parallel.setParallelHashThreshold(16);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Random random = new Random(11);
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 2000; i++) {
+                ByteableLong key = new ByteableLong(random.nextLong());
+                sequential.add(key);
+                parallel.add(key);
+            }
+            HashWithCount expected = sequential.getHashWithCount();
+            HashWithCount actual = parallel.getHashWithCount(pool);
+            assertThat(ByteUtil.toString00(actual.hash), is(ByteUtil.toString00(expected.hash)));
+            assertThat(actual.count, is(expected.count));
+        }
+        assertThat(parallel.getHashWithCount(pool).count, is(0));
+        pool.shutdown();
+    }
+
+    @Test
+    public void testParallelHashSplitsDirtySubtreeBelowCleanPath() {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        MerkleTree<ByteableLong> reference = new MerkleTree<>();
+        for (long i = 0; i < 8192; i += 2) {
+            tree.add(new ByteableLong(i));
+            reference.add(new ByteableLong(i));
+        }
+        tree.getRootHash();
+        // a subtree deep on the left becomes dirty, the rest of the tree stays hashed
+        for (long i = 1001; i < 2000; i += 2) {
+            tree.add(new ByteableLong(i));
+            reference.add(new ByteableLong(i));
+        }
+
+        AtomicInteger tasks = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        HashWithCount actual = tree.getRoot().getHashWithCount(pool, 16, () -> {
+            tasks.incrementAndGet();
+            return new RipeMD160();
+        });
+        pool.shutdown();
+        assertThat(ByteUtil.toString00(actual.hash), is(ByteUtil.toString00(reference.getRootHash())));
+        assertTrue("ran " + tasks.get() + " tasks", tasks.get() > 1);
+    }
+
+    @Test
+    public void testSnapshotIsNotAffectedByChanges() {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        for (int i = 0; i < 100; i++) {
+            tree.add(new ByteableLong(i));
+        }
+        byte[] rootHash = tree.getRootHash();
+        MerkleTreeSnapshot<ByteableLong> snapshot = tree.snapshot();
+
+        for (int i = 0; i < 100; i += 2) {
+            tree.remove(new ByteableLong(i));
+        }
+        tree.add(new ByteableLong(1000));
+
+        assertThat(snapshot.size(), is(100));
+        assertThat(snapshot.contains(new ByteableLong(0)), is(true));
+        assertThat(snapshot.contains(new ByteableLong(1000)), is(false));
+        assertThat(ByteUtil.toString00(snapshot.getRootHash()), is(ByteUtil.toString00(rootHash)));
+        assertThat(tree.size(), is(51));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSnapshotIsReadOnly() {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        tree.snapshot().add(new ByteableLong(1));
+    }
+
+    @Test
+    public void testCommitRetainsVersions() {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        tree.setRetainedVersions(2);
+        assertThat(tree.getVersion(), is(0L));
+
+        for (int version = 1; version <= 3; version++) {
+            tree.add(new ByteableLong(version));
+            MerkleTreeSnapshot<ByteableLong> committed = tree.commit();
+            assertThat(committed.getVersion(), is((long) version));
+            assertThat(committed.size(), is(version));
+        }
+
+        assertThat(tree.getVersion(), is(3L));
+        assertThat(tree.getVersion(1), is(nullValue()));
+        assertThat(tree.getVersion(2).size(), is(2));
+        assertThat(tree.getVersion(3).size(), is(3));
+
+        tree.setRetainedVersions(1);
+        assertThat(tree.getVersion(2), is(nullValue()));
+        assertThat(tree.getVersion(3).getRootHash(), is(notNullValue()));
+    }
+
+    @Test
+    public void testInclusionProof() {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        Random random = new Random(13);
+        while (tree.size() < 500) {
+            tree.add(new ByteableLong(random.nextInt(100000)));
+        }
+        byte[] rootHash = tree.getRootHash();
+        RipeMD160 hashFunction = new RipeMD160();
+
+        for (int i = 0; i < tree.size(); i += 11) {
+            ByteableLong entry = tree.get(i).getEntry();
+            InclusionProof<ByteableLong> proof = tree.getWithProof(entry);
+            assertThat(proof.getEntry(), is(entry));
+            assertThat(proof.getPath().size() <= tree.getHeight(), is(true));
+            assertThat(InclusionProof.verify(proof, rootHash, hashFunction), is(true));
+        }
+
+        InclusionProof<ByteableLong> proof = tree.getWithProof(tree.get(7).getEntry());
+        byte[] otherRoot = Arrays.copyOf(rootHash, rootHash.length);
+        otherRoot[0]++;
+        assertThat(InclusionProof.verify(proof, otherRoot, hashFunction), is(false));
+        InclusionProof<ByteableLong> forged = new InclusionProof<>(tree.get(8).getEntry(), proof.getPath());
+        assertThat(InclusionProof.verify(forged, rootHash, hashFunction), is(false));
+
+        assertThat(tree.getWithProof(new ByteableLong(-1)), is(nullValue()));
+    }
+
+    @Test
+    public void testRangeProof() {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        TreeSet<Long> expected = new TreeSet<>();
+        Random random = new Random(17);
+        while (tree.size() < 500) {
+            long value = random.nextInt(100000);
+            tree.add(new ByteableLong(value));
+            expected.add(value);
+        }
+        byte[] rootHash = tree.getRootHash();
+        RipeMD160 hashFunction = new RipeMD160();
+
+        for (int from = -5000; from < 105000; from += 9000) {
+            int to = from + 7000;
+            RangeProof<ByteableLong> proof = tree.getRangeWithProof(new ByteableLong(from), new ByteableLong(to), 1000);
+            List<ByteableLong> values = new ArrayList<>();
+            expected.subSet((long) from, (long) to).forEach(value -> values.add(new ByteableLong(value)));
+            assertThat(proof.getEntries(), is(values));
+            assertThat(RangeProof.verify(proof, rootHash, hashFunction), is(true));
+        }
+
+        // a limit cuts the range short at the first entry left out
+        RangeProof<ByteableLong> limited = tree.getRangeWithProof(new ByteableLong(0), new ByteableLong(100000), 10);
+        assertThat(limited.getEntries().size(), is(10));
+        assertThat(limited.getTo(), is(new ByteableLong(new ArrayList<>(expected).get(10))));
+        assertThat(RangeProof.verify(limited, rootHash, hashFunction), is(true));
+
+        // claiming a wider range than the revealed leaves cover must fail
+        RangeProof<ByteableLong> widened = new RangeProof<>(limited.getFrom(), new ByteableLong(100000), limited.getRoot());
+        assertThat(RangeProof.verify(widened, rootHash, hashFunction), is(false));
+        byte[] otherRoot = Arrays.copyOf(rootHash, rootHash.length);
+        otherRoot[0]++;
+        assertThat(RangeProof.verify(limited, otherRoot, hashFunction), is(false));
+    }
+
+    @Test
+    public void testStats() {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        assertThat(tree.getStats(), is(nullValue()));
+        List<TreeStats.Snapshot> published = new ArrayList<>();
+        tree.setStats(new TreeStats());
+        for (long i = 0; i < 100; i++) {
+            tree.add(new ByteableLong(i));
+        }
+        tree.add(new ByteableLong(50));
+        HashWithCount hashWithCount = tree.getHashWithCount();
+
+        TreeStats.Snapshot stats = tree.getStats();
+        assertThat(stats.getInserts(), is(100L));
+        assertThat(stats.getUpdates(), is(1L));
+        assertThat(stats.getSingleRotations() > 0, is(true));
+        assertThat(stats.getHashes(), is((long) hashWithCount.count));
+        assertThat(stats.getHashedBytes() > stats.getHashes(), is(true));
+        // a single session mutates its own nodes in place
+        assertThat(stats.getCopies(), is(0L));
+        assertThat(stats.getSize(), is(100));
+        assertThat(stats.getHeight(), is(tree.getHeight()));
+
+        tree.commit();
+        TreeStats collector = new TreeStats();
+        collector.addListener(published::add);
+        tree.setStats(collector);
+        tree.add(new ByteableLong(100));
+        tree.commit();
+        assertThat(published.size(), is(1));
+        assertThat(published.get(0).getInserts(), is(1L));
+        // the committed path is copied and rehashed
+        assertThat(published.get(0).getCopies() >= tree.getHeight() - 1, is(true));
+        assertThat(published.get(0).getHashes() <= 2 * (tree.getHeight() + 1), is(true));
+    }
+
+    @Test
+    public void testRemoveResultHashesOnRead() {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        MerkleTree<ByteableLong> reference = new MerkleTree<>();
+        tree.setStats(new TreeStats());
+        for (long i = 0; i < 100; i++) {
+            tree.add(new ByteableLong(i));
+            reference.add(new ByteableLong(i));
+        }
+        RemoveResult<ByteableLong> result = null;
+        for (long i = 0; i < 50; i += 2) {
+            result = tree.remove(new ByteableLong(i));
+            reference.remove(new ByteableLong(i));
+        }
+        // nothing is hashed until the hash is read
+        assertThat(tree.getStats().getHashes(), is(0L));
+        assertThat(ByteUtil.toString00(result.getHash()), is(ByteUtil.toString00(reference.getRootHash())));
+
+        // removing a missing entry changes nothing
+        assertThat(tree.remove(new ByteableLong(0)).wasRemoved(), is(false));
+        assertThat(result.getNode().getSize(), is(75));
+    }
+
+    @Test
+    public void testRemoveResultStaysValid() {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        for (long i = 0; i < 10; i++) {
+            tree.add(new ByteableLong(i));
+        }
+        RemoveResult<ByteableLong> result = tree.remove(new ByteableLong(7));
+        tree.add(new ByteableLong(7));
+        tree.remove(new ByteableLong(3));
+        tree.add(new ByteableLong(100));
+
+        MerkleTree<ByteableLong> reference = new MerkleTree<>();
+        for (long i = 0; i < 10; i++) {
+            if (i != 7) {
+                reference.add(new ByteableLong(i));
+            }
+        }
+        assertThat(result.getNode().getSize(), is(9));
+        assertThat(result.getNode().contains(new ByteableLong(7)), is(false));
+        assertThat(result.getNode().contains(new ByteableLong(3)), is(true));
+        assertThat(ByteUtil.toString00(result.getHash()), is(ByteUtil.toString00(reference.getRootHash())));
+        assertThat(result.getByteable(), is(new ByteableLong(7)));
+    }
+
+    @Test
+    public void testIndexOf() {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        assertThat(tree.indexOf(new ByteableLong(1)), is(-1));
+        for (long i = 0; i < 1000; i += 2) {
+            tree.add(new ByteableLong(i));
+        }
+
+        for (int i = 0; i < 500; i += 7) {
+            KeyIndex<ByteableLong> keyIndex = tree.get(i);
+            assertThat(keyIndex.getIndex(), is(i));
+            assertThat(keyIndex.getEntry(), is(new ByteableLong(2 * i)));
+            assertThat(tree.indexOf(new ByteableLong(2 * i)), is(i));
+            assertThat(tree.indexOf(new ByteableLong(2 * i + 1)), is(-(i + 1) - 1));
+        }
+        assertThat(tree.indexOf(new ByteableLong(-1)), is(-1));
+
+        Iterator<ByteableLong> iterator = tree.iterator(498);
+        assertThat(iterator.next(), is(new ByteableLong(996)));
+        assertThat(iterator.next(), is(new ByteableLong(998)));
+        assertThat(iterator.hasNext(), is(false));
+        assertThat(tree.iterator(500).hasNext(), is(false));
+
+        List<ByteableLong> page = new ArrayList<>();
+        tree.iterator(tree.indexOf(new ByteableLong(100))).forEachRemaining(page::add);
+        assertThat(page.size(), is(450));
+        assertThat(page.get(0), is(new ByteableLong(100)));
+    }
+
+    @Test
+    public void testStream() {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        assertThat(tree.stream().count(), is(0L));
+        List<ByteableLong> expected = new ArrayList<>();
+        for (long i = 0; i < 10000; i++) {
+            tree.add(new ByteableLong(i));
+            expected.add(new ByteableLong(i));
+        }
+
+        assertThat(tree.stream().collect(Collectors.toList()), is(expected));
+        assertThat(tree.parallelStream().collect(Collectors.toList()), is(expected));
+        assertThat(tree.parallelStream().count(), is(10000L));
+
+        Spliterator<ByteableLong> spliterator = tree.spliterator();
+        assertThat(spliterator.hasCharacteristics(Spliterator.SUBSIZED | Spliterator.SORTED), is(true));
+        Spliterator<ByteableLong> prefix = spliterator.trySplit();
+        assertThat(prefix.estimateSize() + spliterator.estimateSize(), is(10000L));
+        assertThat(prefix.estimateSize() > 2000 && spliterator.estimateSize() > 2000, is(true));
+
+        // the stream works on the sealed tree, later changes are not visible
+        Stream<ByteableLong> stream = tree.stream();
+        tree.add(new ByteableLong(-1));
+        assertThat(stream.count(), is(10000L));
+    }
+
+    @Test
+    public void testIterateRange() {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        for (long i = 0; i < 1000; i += 2) {
+            tree.add(new ByteableLong(i));
+        }
+
+        List<ByteableLong> visited = new ArrayList<>();
+        tree.iterateRange(new ByteableLong(101), new ByteableLong(111), true, node -> {
+            visited.add(node.getKey());
+            return false;
+        });
+        assertThat(visited, is(Arrays.asList(new ByteableLong(102), new ByteableLong(104), new ByteableLong(106),
+                new ByteableLong(108), new ByteableLong(110))));
+
+        visited.clear();
+        boolean stopped = tree.iterateRange(null, new ByteableLong(500), false, node -> {
+            visited.add(node.getKey());
+            return visited.size() == 3;
+        });
+        assertThat(stopped, is(true));
+        assertThat(visited, is(Arrays.asList(new ByteableLong(498), new ByteableLong(496), new ByteableLong(494))));
+
+        visited.clear();
+        tree.iterateRange(new ByteableLong(990), null, true, node -> {
+            visited.add(node.getKey());
+            return false;
+        });
+        assertThat(visited.size(), is(5));
+    }
+
+    @Test
+    public void testMultiProof() {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        for (long i = 0; i < 1000; i++) {
+            tree.add(new ByteableLong(i));
+        }
+        byte[] rootHash = tree.getRootHash();
+        RipeMD160 hashFunction = new RipeMD160();
+
+        List<ByteableLong> entries = new ArrayList<>();
+        for (long i = 990; i >= 0; i -= 10) {
+            entries.add(new ByteableLong(i));
+        }
+        entries.add(new ByteableLong(500));
+        MultiProof<ByteableLong> proof = tree.getAllWithProof(entries);
+        assertThat(proof.getEntries().size(), is(100));
+        assertThat(proof.getEntries().get(0), is(new ByteableLong(0)));
+        assertThat(MultiProof.verify(proof, rootHash, hashFunction), is(true));
+
+        // the shared paths are included once: fewer pruned hashes than the separate inclusion proofs contain
+        List<ProofNode<ByteableLong>> nodes = new ArrayList<>();
+        proof.getRoot().collect(nodes);
+        int separate = 0;
+        for (ByteableLong entry : entries) {
+            separate += tree.getWithProof(entry).getPath().size();
+        }
+        assertThat(nodes.size() - 100 < separate / 3, is(true));
+
+        byte[] otherRoot = Arrays.copyOf(rootHash, rootHash.length);
+        otherRoot[0]++;
+        assertThat(MultiProof.verify(proof, otherRoot, hashFunction), is(false));
+        assertThat(tree.getAllWithProof(Arrays.asList(new ByteableLong(5), new ByteableLong(5000))), is(nullValue()));
+    }
+
+    @Test
+    public void testTamperedProof() {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        for (long i = 0; i < 100; i++) {
+            tree.add(new ByteableLong(i));
+        }
+        byte[] rootHash = tree.getRootHash();
+        RipeMD160 hashFunction = new RipeMD160();
+        MultiProof<ByteableLong> proof = tree.getAllWithProof(Arrays.asList(new ByteableLong(10), new ByteableLong(70)));
+        assertThat(MultiProof.verify(proof, rootHash, hashFunction), is(true));
+
+        ProofNode<ByteableLong> root = proof.getRoot();
+        // a revealed leaf with another entry, the sizes and heights still match
+        assertThat(MultiProof.verify(new MultiProof<>(replaceLeaf(root, new ByteableLong(11))), rootHash, hashFunction), is(false));
+        // the revealed half swapped for a pruned hash of the other half
+        ProofNode<ByteableLong> swapped = ProofNode.inner(root.getHeight(), root.getSize(), root.getLeft(),
+                ProofNode.pruned(InclusionProof.<ByteableLong>hasher(hashFunction).hash(root.getLeft())));
+        assertThat(MultiProof.verify(new MultiProof<>(swapped), rootHash, hashFunction), is(false));
+        assertThat(MultiProof.verify(new MultiProof<ByteableLong>(null), rootHash, hashFunction), is(false));
+        assertThat(RangeProof.verify(new RangeProof<>(new ByteableLong(10), null, root), rootHash, hashFunction), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testProofNodeWithoutChild() {
+        ProofNode.inner(1, 2, ProofNode.leaf(new ByteableLong(1)), null);
+    }
+
+    private static ProofNode<ByteableLong> replaceLeaf(ProofNode<ByteableLong> node, ByteableLong entry) {
+        if (node.isLeaf()) {
+            return ProofNode.leaf(entry);
+        } else if (node.isPruned()) {
+            return node;
+        }
+        ProofNode<ByteableLong> left = node.getLeft();
+        ProofNode<ByteableLong> right = node.getRight();
+        if (left.isPruned()) {
+            right = replaceLeaf(right, entry);
+        } else {
+            left = replaceLeaf(left, entry);
+        }
+        return ProofNode.inner(node.getHeight(), node.getSize(), left, right);
+    }
+
+    @Test
+    public void testAbsenceProof() {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        for (long i = 0; i < 300; i += 3) {
+            tree.add(new ByteableLong(i));
+        }
+        byte[] rootHash = tree.getRootHash();
+        RipeMD160 hashFunction = new RipeMD160();
+
+        for (long i = -1; i < 302; i++) {
+            ByteableLong entry = new ByteableLong(i);
+            RangeProof<ByteableLong> proof = tree.getAbsenceProof(entry);
+            if (i >= 0 && i < 300 && i % 3 == 0) {
+                assertThat(proof, is(nullValue()));
+            } else {
+                assertThat(RangeProof.verifyAbsence(proof, entry, rootHash, hashFunction), is(true));
+            }
+        }
+
+        // the proof for 4 reveals 3, so it can not prove the absence of 3
+        RangeProof<ByteableLong> proof = tree.getAbsenceProof(new ByteableLong(4));
+        RangeProof<ByteableLong> forged = new RangeProof<>(new ByteableLong(3), new ByteableLong(3), proof.getRoot());
+        assertThat(RangeProof.verifyAbsence(forged, new ByteableLong(3), rootHash, hashFunction), is(false));
+        assertThat(RangeProof.verifyAbsence(proof, new ByteableLong(5), rootHash, hashFunction), is(false));
+    }
+
 }
@@ -0,0 +1,234 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.jtendermint.crypto.RipeMD160;
+import com.github.jtendermint.merkletree.byteable.types.ByteableLong;
+
+public class NodeCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testBudgetAndPinnedLevels() throws IOException {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        Random random = new Random(5);
+        while (tree.size() < 5000) {
+            tree.add(new ByteableLong(random.nextInt(1000000)));
+        }
+
+        try (FileNodeStore fileStore = new FileNodeStore(folder.getRoot().toPath())) {
+            byte[] rootHash = tree.save(fileStore);
+            AtomicInteger reads = new AtomicInteger();
+            NodeStore store = new NodeStore() {
+                @Override
+                public byte[] get(byte[] hash) {
+                    reads.incrementAndGet();
+                    return fileStore.get(hash);
+                }
+
+                @Override
+                public boolean contains(byte[] hash) {
+                    return fileStore.contains(hash);
+                }
+
+                @Override
+                public void put(byte[] hash, byte[] node) {
+                    fileStore.put(hash, node);
+                }
+
+                @Override
+                public void flush() {
+                    fileStore.flush();
+                }
+            };
+
+            NodeCache<ByteableLong> cache = new NodeCache<>(20000, 4);
+            MerkleTree<ByteableLong> loaded = MerkleTree.load(RipeMD160::new, store, rootHash, ByteableLong::fromByteArray, cache);
+            for (int i = 0; i < 5000; i++) {
+                assertThat(loaded.contains(tree.get(i).getEntry()), is(true));
+                assertTrue(cache.getBytes() <= 20000);
+            }
+
+            ByteableLong entry = tree.get(2500).getEntry();
+            loaded.contains(entry);
+            reads.set(0);
+            loaded.contains(entry);
+            // the pinned levels and the cached rest of the path are not read again
+            assertThat(reads.get(), is(0));
+
+            NodeCache<ByteableLong> empty = new NodeCache<>(0, 4);
+            MerkleTree<ByteableLong> uncached = MerkleTree.load(RipeMD160::new, store, rootHash, ByteableLong::fromByteArray, empty);
+            uncached.contains(entry);
+            reads.set(0);
+            uncached.contains(entry);
+            assertThat(empty.size(), is(0));
+            assertTrue("read " + reads.get() + " nodes", reads.get() > 0 && reads.get() <= tree.getHeight() + 1 - 4);
+        }
+    }
+
+    @Test
+    public void testWrittenNodesStayWithinBudget() throws IOException {
+        try (FileNodeStore store = new FileNodeStore(folder.getRoot().toPath())) {
+            NodeCache<ByteableLong> cache = new NodeCache<>(50000, 4);
+            MerkleTree<ByteableLong> tree = MerkleTree.load(RipeMD160::new, store, null, ByteableLong::fromByteArray, cache);
+            MerkleTree<ByteableLong> reference = new MerkleTree<>();
+            Random random = new Random(7);
+            byte[] rootHash = null;
+            for (int block = 0; block < 50; block++) {
+                for (int i = 0; i < 200; i++) {
+                    ByteableLong entry = new ByteableLong(random.nextInt(1000000));
+                    tree.add(entry);
+                    reference.add(entry);
+                }
+                rootHash = tree.save(store);
+                assertTrue(cache.getBytes() <= 50000);
+                // the pinned levels and nothing else
+                assertTrue("resident " + resident(tree.getRoot()), resident(tree.getRoot()) < 1 << 4);
+            }
+            assertArrayEquals(reference.getRootHash(), rootHash);
+            assertThat(tree.size(), is(reference.size()));
+            for (int i = 0; i < reference.size(); i += 97) {
+                assertThat(tree.contains(reference.get(i).getEntry()), is(true));
+            }
+        }
+    }
+
+    @Test
+    public void testSnapshotIsReadWhileTheTreeIsSaved() throws Exception {
+        try (FileNodeStore store = new FileNodeStore(folder.getRoot().toPath())) {
+            NodeCache<ByteableLong> cache = new NodeCache<>(20000, 2);
+            MerkleTree<ByteableLong> tree = MerkleTree.load(RipeMD160::new, store, null, ByteableLong::fromByteArray, cache);
+            for (long i = 0; i < 2000; i++) {
+                tree.add(new ByteableLong(i));
+            }
+            MerkleTreeSnapshot<ByteableLong> snapshot = tree.snapshot();
+            byte[] rootHash = snapshot.getRootHash();
+
+            // the saves replace children of the shared nodes by placeholders while the snapshot is read
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                try {
+                    while (!done.get()) {
+                        for (long i = 0; i < 2000; i += 37) {
+                            assertThat(snapshot.contains(new ByteableLong(i)), is(true));
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            reader.start();
+            Random random = new Random(3);
+            for (int block = 0; block < 20; block++) {
+                for (int i = 0; i < 100; i++) {
+                    tree.add(new ByteableLong(2000 + random.nextInt(100000)));
+                }
+                tree.save(store);
+            }
+            done.set(true);
+            reader.join();
+            assertThat(failure.get(), is(nullValue()));
+            assertArrayEquals(rootHash, snapshot.getRootHash());
+            assertThat(snapshot.size(), is(2000));
+        }
+    }
+
+    @Test
+    public void testPinnedLevelsFollowRotations() throws IOException {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        for (long i = 0; i < 5000; i++) {
+            tree.add(new ByteableLong(2 * i));
+        }
+        try (FileNodeStore store = new FileNodeStore(folder.getRoot().toPath())) {
+            byte[] rootHash = tree.save(store);
+            NodeCache<ByteableLong> cache = new NodeCache<>(20000, 4);
+            MerkleTree<ByteableLong> loaded = MerkleTree.load(RipeMD160::new, store, rootHash, ByteableLong::fromByteArray, cache);
+            for (int i = 0; i < 5000; i++) {
+                loaded.contains(new ByteableLong(2 * i));
+            }
+            // growing the right end rotates the right spine and moves pinned nodes down
+            for (long i = 10000; i < 14000; i++) {
+                loaded.add(new ByteableLong(i));
+            }
+            // removing from the left end lets siblings take the place of their parents
+            for (long i = 0; i < 3000; i += 2) {
+                loaded.remove(new ByteableLong(i));
+            }
+            loaded.save(store);
+            for (int i = 0; i < loaded.size(); i++) {
+                loaded.contains(loaded.get(i).getEntry());
+            }
+            // every node the tree keeps is within the pinned levels
+            int minHeight = loaded.getHeight() - 4 + 1;
+            assertTrue(held(loaded.getRoot(), minHeight) < 1 << 4);
+        }
+    }
+
+    /**
+     * @return the amount of nodes the tree and its placeholders keep, each of them is asserted to be at least minHeight
+     *         high
+     */
+    private static int held(MerkleNode<ByteableLong> node, int minHeight) {
+        if (node instanceof StoredNode && !((StoredNode<ByteableLong>) node).isPinned()) {
+            return 0;
+        }
+        MerkleNode<ByteableLong> resolved = node.resolve();
+        assertTrue("height " + resolved.getHeight() + " is kept", resolved.getHeight() >= minHeight);
+        if (resolved.isLeafNode()) {
+            return 1;
+        }
+        InnerNode<ByteableLong> inner = (InnerNode<ByteableLong>) resolved;
+        return 1 + held(inner.getLeftChildNode(), minHeight) + held(inner.getRightChildNode(), minHeight);
+    }
+
+    /**
+     * @return the amount of nodes the tree holds itself, without the ones behind placeholders
+     */
+    private static int resident(MerkleNode<ByteableLong> node) {
+        if (node instanceof StoredNode || node.isLeafNode()) {
+            return node instanceof StoredNode ? 0 : 1;
+        }
+        InnerNode<ByteableLong> inner = (InnerNode<ByteableLong>) node;
+        return 1 + resident(inner.getLeftChildNode()) + resident(inner.getRightChildNode());
+    }
+}
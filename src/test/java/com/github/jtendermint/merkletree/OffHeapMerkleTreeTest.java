@@ -0,0 +1,170 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.github.jtendermint.merkletree.byteable.types.ByteableLong;
+import com.github.jtendermint.merkletree.byteable.types.ByteableString;
+
+public class OffHeapMerkleTreeTest {
+
+    @Test
+    public void testMatchesMerkleTree() {
+        MerkleTree<ByteableLong> heapTree = new MerkleTree<>();
+        OffHeapMerkleTree<ByteableLong> offHeapTree = new OffHeapMerkleTree<>(ByteableLong::fromByteArray);
+        List<ByteableLong> entries = new ArrayList<>();
+        Random random = new Random(9);
+
+        for (int i = 0; i < 3000; i++) {
+            ByteableLong entry = new ByteableLong(random.nextInt(2000) - 1000);
+            if (random.nextInt(3) == 0 && !entries.isEmpty()) {
+                ByteableLong removed = entries.remove(random.nextInt(entries.size()));
+                assertArrayEquals(heapTree.remove(removed).getHash(), offHeapTree.remove(removed).getHash());
+            } else {
+                assertThat(offHeapTree.add(entry), is(heapTree.add(entry)));
+                if (!entries.contains(entry)) {
+                    entries.add(entry);
+                }
+            }
+            if (i % 100 == 0) {
+                assertArrayEquals(heapTree.getRootHash(), offHeapTree.getRootHash());
+            }
+        }
+
+        assertThat(offHeapTree.size(), is(heapTree.size()));
+        assertThat(offHeapTree.getHeight(), is(heapTree.getHeight()));
+        assertThat(offHeapTree.toPrettyString(), is(heapTree.toPrettyString()));
+        assertArrayEquals(heapTree.getRootHash(), offHeapTree.getRootHash());
+        for (ByteableLong entry : entries) {
+            assertThat(offHeapTree.contains(entry), is(true));
+        }
+        assertThat(offHeapTree.get(new ByteableLong(5000)), is(nullValue()));
+        for (int i = 0; i < offHeapTree.size(); i++) {
+            assertThat(offHeapTree.get(i).getEntry(), is(heapTree.get(i).getEntry()));
+        }
+    }
+
+    @Test
+    public void testIterateNodesWalksTheSlots() {
+        OffHeapMerkleTree<ByteableLong> offHeapTree = new OffHeapMerkleTree<>(ByteableLong::fromByteArray);
+        MerkleTree<ByteableLong> heapTree = new MerkleTree<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 500; i++) {
+            ByteableLong entry = new ByteableLong(random.nextInt(10000));
+            offHeapTree.add(entry);
+            heapTree.add(entry);
+        }
+
+        List<String> expected = new ArrayList<>();
+        heapTree.iterateNodes(node -> {
+            expected.add(describe(node));
+            return false;
+        });
+        List<String> visited = new ArrayList<>();
+        offHeapTree.iterateNodes(node -> {
+            visited.add(describe(node));
+            return false;
+        });
+        assertThat(visited, is(expected));
+
+        AtomicInteger calls = new AtomicInteger();
+        assertThat(offHeapTree.iterateNodes(node -> calls.incrementAndGet() == 10), is(true));
+        assertThat(calls.get(), is(10));
+    }
+
+    private static String describe(MerkleNode<ByteableLong> node) {
+        return node.getKey().getValue() + "/" + node.getHeight() + "/" + node.getSize() + "/"
+                + Arrays.toString(node.getHashWithCount().hash);
+    }
+
+    @Test
+    public void testSlotsAreReused() {
+        OffHeapMerkleTree<ByteableLong> tree = new OffHeapMerkleTree<>(ByteableLong::fromByteArray);
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 40000; i++) {
+                tree.add(new ByteableLong(i));
+            }
+            for (int i = 0; i < 40000; i++) {
+                tree.remove(new ByteableLong(i));
+            }
+        }
+        assertThat(tree.size(), is(0));
+        assertThat(tree.getRootHash(), is(nullValue()));
+        // the 80k slots of one round fit into two slabs, the second round reuses them
+        assertThat(tree.getAllocatedBytes(), is(2L * 65536 * 72));
+
+        tree.removeAll();
+        assertThat(tree.getAllocatedBytes(), is(0L));
+    }
+
+    @Test
+    public void testKeyComparatorsDoNotDecode() {
+        AtomicInteger decoded = new AtomicInteger();
+        MerkleTree<ByteableLong> heapTree = new MerkleTree<>();
+        OffHeapMerkleTree<ByteableLong> longTree = new OffHeapMerkleTree<>(bytes -> {
+            decoded.incrementAndGet();
+            return ByteableLong.fromByteArray(bytes);
+        }, OffHeapMerkleTree.LONG_VALUE);
+        Random random = new Random(3);
+        for (int i = 0; i < 2000; i++) {
+            ByteableLong entry = new ByteableLong(random.nextInt(1 << 20) - (1 << 19));
+            assertThat(longTree.add(entry), is(heapTree.add(entry)));
+            assertThat(longTree.contains(entry), is(true));
+        }
+        assertThat(longTree.add(new ByteableLong(0)), is(heapTree.add(new ByteableLong(0))));
+        assertThat(longTree.contains(new ByteableLong(Long.MIN_VALUE)), is(false));
+        assertThat(decoded.get(), is(0));
+        assertThat(longTree.toPrettyString(), is(heapTree.toPrettyString()));
+        assertArrayEquals(heapTree.getRootHash(), longTree.getRootHash());
+
+        MerkleTree<ByteableString> stringHeapTree = new MerkleTree<>();
+        OffHeapMerkleTree<ByteableString> stringTree = new OffHeapMerkleTree<>(ByteableString::fromByteArray,
+                OffHeapMerkleTree.UNSIGNED_BYTES);
+        for (String key : new String[] { "b", "ab", "a", "", "abc", "z", "ba" }) {
+            stringTree.add(new ByteableString(key));
+            stringHeapTree.add(new ByteableString(key));
+        }
+        assertThat(stringTree.remove(new ByteableString("ab")).wasRemoved(), is(true));
+        stringHeapTree.remove(new ByteableString("ab"));
+        assertArrayEquals(stringHeapTree.getRootHash(), stringTree.getRootHash());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeyTooLong() {
+        OffHeapMerkleTree<ByteableString> tree = new OffHeapMerkleTree<>(ByteableString::fromByteArray);
+        tree.add(new ByteableString("0123456789012345678901234567890123456789"));
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2016 - 2018 
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.jtendermint.merkletree;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.jtendermint.crypto.RipeMD160;
+import com.github.jtendermint.merkletree.byteable.types.ByteableLong;
+import com.github.jtendermint.merkletree.iavl.AVLTree;
+import com.github.jtendermint.merkletree.iavl.Hashing;
+
+public class TreeImageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMerkleTreeImage() throws IOException {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        TreeSet<Long> values = new TreeSet<>();
+        Random random = new Random(11);
+        while (values.size() < 2000) {
+            long value = random.nextLong();
+            values.add(value);
+            tree.add(new ByteableLong(value));
+        }
+        Path file = folder.newFile().toPath();
+        TreeImage.write(tree, file);
+
+        // tiny chunks make records and keys cross chunk boundaries
+        for (long chunkSize : new long[] { TreeImage.DEFAULT_CHUNK_SIZE, 1000 }) {
+            TreeImage<ByteableLong> image = new TreeImage<>(file, ByteableLong::fromByteArray, (a, b) -> a.compareTo(b), chunkSize);
+            assertArrayEquals(tree.getRootHash(), image.getRootHash());
+            assertThat(image.size(), is(2000));
+            assertThat(image.getHeight(), is(tree.getHeight()));
+
+            List<Long> iterated = new ArrayList<>();
+            for (ByteableLong entry : image) {
+                iterated.add(Long.valueOf(entry.toString()));
+            }
+            assertThat(iterated, is(new ArrayList<>(values)));
+
+            for (int i = 0; i < 2000; i += 7) {
+                ByteableLong entry = image.get(i).getEntry();
+                assertThat(entry, is(tree.get(i).getEntry()));
+                assertThat(image.contains(entry), is(true));
+            }
+            assertThat(image.get(new ByteableLong(values.first() - 1)), is(nullValue()));
+        }
+    }
+
+    @Test
+    public void testAVLTreeImage() throws IOException {
+        AVLTree<String> tree = new AVLTree<>(new Hashing<String>() {
+            @Override
+            public byte[] hashBytes(byte[] byteArray) {
+                return RipeMD160.hash(byteArray);
+            }
+
+            @Override
+            public byte[] hashBytes(String k) {
+                return hashBytes(k.getBytes());
+            }
+        });
+        for (int i = 0; i < 300; i++) {
+            tree.add("key" + i);
+        }
+        Path file = folder.newFile().toPath();
+        TreeImage.write(tree, key -> key.getBytes(StandardCharsets.UTF_8), file);
+
+        TreeImage<String> image = TreeImage.openAVLTree(file, bytes -> new String(bytes, StandardCharsets.UTF_8));
+        assertArrayEquals(tree.getRootHash(), image.getRootHash());
+        assertThat(image.size(), is(300));
+        assertThat(image.contains("key42"), is(true));
+        assertThat(image.contains("key300"), is(false));
+        assertThat(image.get(0).getEntry(), is("key0"));
+        assertThat(image.iterator().next(), is("key0"));
+    }
+
+    @Test
+    public void testImageKeepsTheHashesOfTheTree() throws IOException {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>(() -> TreeImageTest::sha256);
+        for (long value = 0; value < 100; value++) {
+            tree.add(new ByteableLong(value));
+        }
+        Path file = folder.newFile().toPath();
+        TreeImage.write(tree, file);
+
+        try (TreeImage<ByteableLong> image = TreeImage.openMerkleTree(file, ByteableLong::fromByteArray)) {
+            assertThat(image.getRootHash().length, is(32));
+            assertArrayEquals(tree.getRootHash(), image.getRootHash());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosedImage() throws IOException {
+        MerkleTree<ByteableLong> tree = new MerkleTree<>();
+        tree.add(new ByteableLong(1));
+        Path file = folder.newFile().toPath();
+        TreeImage.write(tree, file);
+
+        TreeImage<ByteableLong> image = TreeImage.openMerkleTree(file, ByteableLong::fromByteArray);
+        assertThat(image.size(), is(1));
+        image.close();
+        image.close();
+        image.size();
+    }
+
+    @Test
+    public void testEmptyImage() throws IOException {
+        Path file = folder.newFile().toPath();
+        TreeImage.write(new MerkleTree<ByteableLong>(), file);
+
+        TreeImage<ByteableLong> image = TreeImage.openMerkleTree(file, ByteableLong::fromByteArray);
+        assertThat(image.size(), is(0));
+        assertThat(image.getRootHash(), is(nullValue()));
+        assertThat(image.contains(new ByteableLong(1)), is(false));
+        assertThat(image.iterator().hasNext(), is(false));
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -66,4 +66,12 @@ public class ByteableLongTest {
 
     }
 
+    @Test
+    public void testFromByteArray() {
+        for (long value : new long[] { 0l, 1l, -1l, 0x80l, 0x8000l, Long.MAX_VALUE, Long.MIN_VALUE }) {
+            ByteableLong original = new ByteableLong(value);
+            assertEquals(original, ByteableLong.fromByteArray(original.toByteArray()));
+        }
+    }
+
 }
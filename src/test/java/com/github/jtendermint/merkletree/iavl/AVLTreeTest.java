@@ -29,7 +29,15 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -38,6 +46,8 @@ import com.github.jtendermint.crypto.ByteUtil;
 import com.github.jtendermint.crypto.RipeMD160;
 import com.github.jtendermint.merkletree.iavl.IterateFunct.Loop;
 import com.github.jtendermint.merkletree.HashWithCount;
+import com.github.jtendermint.merkletree.ProofNode;
+import com.github.jtendermint.merkletree.TreeStats;
 
 public class AVLTreeTest {
 
@@ -195,4 +205,172 @@ public class AVLTreeTest {
 
         assertEquals(5, count.get());
     }
+    @Test
+    public void testStats() {
+        TreeStats collector = new TreeStats();
+        List<TreeStats.Snapshot> published = new ArrayList<>();
+        collector.addListener(published::add);
+        tree = new AVLTree<>(hashFunc, collector);
+        for (int i = 0; i < 100; i++) {
+            tree.add("key" + i);
+        }
+        tree.add("key5");
+        tree.getRootHash();
+        assertEquals(0, published.size());
+        tree.commit();
+
+        assertEquals(1, published.size());
+        TreeStats.Snapshot stats = published.get(0);
+        assertEquals(100, stats.getInserts());
+        assertEquals(1, stats.getUpdates());
+        assertTrue(stats.getCopies() > 0);
+        assertTrue(stats.getSingleRotations() + stats.getDoubleRotations() > 0);
+        assertTrue(stats.getHashes() > 0);
+        assertEquals(100, stats.getSize());
+        assertEquals(stats.getHashes(), tree.getStats().getHashes());
+
+        // a commit without changes is still a block
+        tree.commit();
+        assertEquals(2, published.size());
+        assertEquals(0, published.get(1).getHashes());
+    }
+
+    @Test
+    public void testIndexOf() {
+        for (int i = 10; i < 90; i += 2) {
+            tree.add("key" + i);
+        }
+        assertEquals(5, tree.get(5).getIndex());
+        assertEquals("key20", tree.get(5).getValue());
+        assertEquals(5, tree.indexOf("key20"));
+        assertEquals(-7, tree.indexOf("key21"));
+        assertEquals(-1, tree.indexOf("a"));
+
+        Iterator<String> iterator = tree.iterator(38);
+        assertEquals("key86", iterator.next());
+        assertEquals("key88", iterator.next());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testStream() {
+        assertEquals(0, tree.stream().count());
+        for (int i = 0; i < 1000; i++) {
+            tree.add("key" + i);
+        }
+        List<String> expected = tree.stream().collect(Collectors.toList());
+        assertEquals(1000, expected.size());
+        assertEquals(new ArrayList<>(new TreeSet<>(expected)), expected);
+        assertEquals(expected, tree.parallelStream().collect(Collectors.toList()));
+
+        // the spliterator keeps the root it was created with
+        Spliterator<String> spliterator = tree.spliterator();
+        assertTrue(spliterator.hasCharacteristics(Spliterator.IMMUTABLE));
+        for (int i = 1000; i < 2000; i++) {
+            tree.add("key" + i);
+        }
+        assertEquals(expected, StreamSupport.stream(spliterator, false).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testIterateRange() {
+        for (int i = 10; i < 60; i++) {
+            tree.add("key" + i);
+        }
+        List<String> visited = new ArrayList<>();
+        Loop result = tree.iterateRange("key25", "key29", false, node -> {
+            visited.add(node.getValue());
+            return Loop.CONTINUE;
+        });
+        assertEquals(Loop.CONTINUE, result);
+        assertEquals(Arrays.asList("key28", "key27", "key26", "key25"), visited);
+
+        visited.clear();
+        result = tree.iterateRange("key55", null, true, node -> {
+            visited.add(node.getValue());
+            return visited.size() == 2 ? Loop.STOP : Loop.CONTINUE;
+        });
+        assertEquals(Loop.STOP, result);
+        assertEquals(Arrays.asList("key55", "key56"), visited);
+    }
+
+    @Test
+    public void testInclusionProof() {
+        for (int i = 0; i < 200; i++) {
+            tree.add("key" + i);
+        }
+        byte[] rootHash = tree.getRootHash();
+
+        for (int i = 0; i < 200; i += 7) {
+            InclusionProof<String> proof = tree.getWithProof("key" + i);
+            assertEquals("key" + i, proof.getValue());
+            assertTrue(InclusionProof.verify(proof, rootHash, hashFunc));
+        }
+
+        InclusionProof<String> proof = tree.getWithProof("key5");
+        assertFalse(InclusionProof.verify(new InclusionProof<>("key6", proof.getPath()), rootHash, hashFunc));
+        assertNull(tree.getWithProof("key200"));
+    }
+
+    @Test
+    public void testMultiProof() {
+        for (int i = 0; i < 200; i++) {
+            tree.add("key" + i);
+        }
+        byte[] rootHash = tree.getRootHash();
+
+        MultiProof<String> proof = tree.getAllWithProof(Arrays.asList("key7", "key150", "key42", "key7"));
+        assertEquals(Arrays.asList("key150", "key42", "key7"), proof.getValues());
+        assertTrue(MultiProof.verify(proof, rootHash, hashFunc));
+        tree.add("key200");
+        assertFalse(MultiProof.verify(proof, tree.getRootHash(), hashFunc));
+        assertNull(tree.getAllWithProof(Arrays.asList("key7", "key201")));
+    }
+
+    @Test
+    public void testTamperedProof() {
+        for (int i = 0; i < 50; i++) {
+            tree.add("key" + i);
+        }
+        byte[] rootHash = tree.getRootHash();
+        MultiProof<String> proof = tree.getAllWithProof(Arrays.asList("key7", "key42"));
+        ProofNode<String> root = proof.getRoot();
+
+        ProofNode<String> swapped = ProofNode.inner(root.getHeight(), root.getSize(), root.getRight(), root.getLeft());
+        assertFalse(MultiProof.verify(new MultiProof<>(swapped), rootHash, hashFunc));
+        ProofNode<String> forged = ProofNode.inner(root.getHeight(), root.getSize(), ProofNode.pruned(rootHash), root.getRight());
+        assertFalse(MultiProof.verify(new MultiProof<>(forged), rootHash, hashFunc));
+        assertFalse(MultiProof.verify(new MultiProof<String>(null), rootHash, hashFunc));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testProofNodeWithoutChild() {
+        ProofNode.inner(1, 2, null, ProofNode.leaf("key1"));
+    }
+
+    @Test
+    public void testRangeProof() {
+        for (int i = 10; i < 90; i += 2) {
+            tree.add("key" + i);
+        }
+        byte[] rootHash = tree.getRootHash();
+
+        RangeProof<String> proof = tree.getRangeWithProof("key20", "key31", 100);
+        assertEquals(Arrays.asList("key20", "key22", "key24", "key26", "key28", "key30"), proof.getValues());
+        assertTrue(RangeProof.verify(proof, rootHash, hashFunc));
+
+        RangeProof<String> limited = tree.getRangeWithProof("key20", "key31", 2);
+        assertEquals(Arrays.asList("key20", "key22"), limited.getValues());
+        assertEquals("key24", limited.getTo());
+        assertTrue(RangeProof.verify(limited, rootHash, hashFunc));
+        assertFalse(RangeProof.verify(new RangeProof<>("key20", "key31", limited.getRoot()), rootHash, hashFunc));
+
+        RangeProof<String> absence = tree.getAbsenceProof("key21");
+        assertTrue(RangeProof.verifyAbsence(absence, "key21", rootHash, hashFunc));
+        assertFalse(RangeProof.verifyAbsence(new RangeProof<>("key22", "key22", absence.getRoot()), "key22", rootHash, hashFunc));
+        assertTrue(RangeProof.verifyAbsence(tree.getAbsenceProof("a"), "a", rootHash, hashFunc));
+        assertTrue(RangeProof.verifyAbsence(tree.getAbsenceProof("z"), "z", rootHash, hashFunc));
+        assertNull(tree.getAbsenceProof("key22"));
+    }
+
 }